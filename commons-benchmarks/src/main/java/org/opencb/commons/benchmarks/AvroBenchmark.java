@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.commons.benchmarks;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.opencb.commons.io.avro.AvroEncoder;
+import org.opencb.commons.io.avro.AvroFileWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link AvroEncoder} and {@link AvroFileWriter}, in records per second.
+ *
+ * The snappy-java version used by Avro 1.7.7 requires "--add-opens java.base/java.lang=ALL-UNNAMED" on Java 9+.
+ * Run with "-p codec=snappy -jvmArgsAppend ..." to include it.
+ *
+ * Created on 18/10/26.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AvroBenchmark {
+
+    private static final int BATCH_SIZE = 1000;
+    private static final Schema SCHEMA = new Schema.Parser().parse("{\"type\": \"record\", \"name\": \"Record\", \"fields\": ["
+            + "{\"name\": \"id\", \"type\": \"string\"},"
+            + "{\"name\": \"position\", \"type\": \"long\"},"
+            + "{\"name\": \"score\", \"type\": \"double\"},"
+            + "{\"name\": \"values\", \"type\": {\"type\": \"array\", \"items\": \"int\"}}"
+            + "]}");
+
+    @Param({"null", "deflate"})
+    private String codec;
+
+    private List<GenericRecord> records;
+    private List<ByteBuffer> encoded;
+    private AvroEncoder<GenericRecord> encoder;
+    private AvroFileWriter<GenericRecord> writer;
+
+    @Setup
+    public void setup() throws Exception {
+        records = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            GenericRecord record = new GenericData.Record(SCHEMA);
+            record.put("id", "id_" + i);
+            record.put("position", 1000000L + i * 17);
+            record.put("score", i / 7.0);
+            List<Integer> values = new ArrayList<>();
+            for (int v = 0; v < 10; v++) {
+                values.add(i * v);
+            }
+            record.put("values", values);
+            records.add(record);
+        }
+        encoder = new AvroEncoder<>(SCHEMA);
+        encoded = encoder.apply(records);
+
+        writer = new AvroFileWriter<>(SCHEMA, codec, new NullOutputStream());
+        writer.open();
+        writer.pre();
+    }
+
+    @TearDown
+    public void tearDown() {
+        writer.post();
+        writer.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<ByteBuffer> encode() throws Exception {
+        return encoder.apply(records);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public boolean write() {
+        for (ByteBuffer byteBuffer : encoded) {
+            byteBuffer.rewind();
+        }
+        return writer.write(encoded);
+    }
+
+    private static class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.commons.benchmarks;
+
+import org.opencb.commons.io.DataReader;
+import org.opencb.commons.run.Task;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead of {@link DataReader#then}, compared with reading and applying the task explicitly.
+ *
+ * Created on 18/10/26.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataReaderBenchmark {
+
+    @Param({"10", "1000"})
+    private int batchSize;
+
+    private DataReader<Integer> reader;
+    private Task<Integer, Integer> task;
+    private DataReader<Integer> readerThenTask;
+
+    @Setup
+    public void setup() {
+        reader = size -> {
+            List<Integer> batch = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                batch.add(i);
+            }
+            return batch;
+        };
+        task = Task.forEach(i -> i + 1);
+        readerThenTask = reader.then(task);
+    }
+
+    @Benchmark
+    public List<Integer> readThenApply() throws Exception {
+        return task.apply(reader.read(batchSize));
+    }
+
+    @Benchmark
+    public List<Integer> readerThen() {
+        return readerThenTask.read(batchSize);
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.commons.benchmarks;
+
+import org.opencb.commons.run.ParallelTaskRunner;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the {@link ParallelTaskRunner}, in elements per second, for a cheap CPU-bound task.
+ *
+ * Created on 18/10/26.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParallelTaskRunnerBenchmark {
+
+    private static final int NUM_ELEMENTS = 100000;
+
+    @Param({"true", "false"})
+    private boolean sorted;
+
+    @Param({"1", "10", "100", "1000"})
+    private int batchSize;
+
+    @Param({"1", "4", "8"})
+    private int numTasks;
+
+    @Param({"100"})
+    private int taskTokens;
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_ELEMENTS)
+    public void run(Blackhole blackhole) throws ExecutionException {
+        ParallelTaskRunner.Config config = ParallelTaskRunner.Config.builder()
+                .setNumTasks(numTasks)
+                .setBatchSize(batchSize)
+                .setSorted(sorted)
+                .build();
+        int[] count = {0};
+        ParallelTaskRunner<Integer, Integer> runner = new ParallelTaskRunner<>(size -> {
+            List<Integer> batch = new ArrayList<>(size);
+            for (int i = 0; i < size && count[0] < NUM_ELEMENTS; i++) {
+                batch.add(count[0]++);
+            }
+            return batch;
+        }, batch -> {
+            Blackhole.consumeCPU((long) taskTokens * batch.size());
+            return batch;
+        }, batch -> {
+            blackhole.consume(batch);
+            return true;
+        }, config);
+        runner.run();
+    }
+
+}
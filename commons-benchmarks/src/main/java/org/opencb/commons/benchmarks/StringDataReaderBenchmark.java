@@ -0,0 +1,89 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.commons.benchmarks;
+
+import org.opencb.commons.io.StringDataReader;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Throughput of {@link StringDataReader} reading a plain or a gzip file, in lines per second.
+ *
+ * Created on 18/10/26.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StringDataReaderBenchmark {
+
+    private static final int NUM_LINES = 100000;
+
+    @Param({"plain", "gzip"})
+    private String compression;
+
+    @Param({"100"})
+    private int batchSize;
+
+    private Path file;
+
+    @Setup
+    public void setup() throws IOException {
+        file = Files.createTempFile("benchmark", compression.equals("gzip") ? ".txt.gz" : ".txt");
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(compression.equals("gzip")
+                ? new GZIPOutputStream(Files.newOutputStream(file))
+                : Files.newOutputStream(file), StandardCharsets.UTF_8))) {
+            for (int i = 0; i < NUM_LINES; i++) {
+                writer.write("line_" + i + "\tsome text of the line with an average length " + i * 31);
+                writer.newLine();
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_LINES)
+    public void read(Blackhole blackhole) {
+        StringDataReader reader = new StringDataReader(file);
+        reader.open();
+        reader.pre();
+        List<String> batch = reader.read(batchSize);
+        while (!batch.isEmpty()) {
+            blackhole.consume(batch);
+            batch = reader.read(batchSize);
+        }
+        reader.post();
+        reader.close();
+    }
+
+}
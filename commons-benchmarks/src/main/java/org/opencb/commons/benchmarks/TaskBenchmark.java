@@ -0,0 +1,74 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.commons.benchmarks;
+
+import org.opencb.commons.run.Task;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead of chaining tasks with {@link Task#then}, compared with a single task doing the same work.
+ *
+ * Created on 18/10/26.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TaskBenchmark {
+
+    @Param({"1", "2", "4", "8"})
+    private int chainLength;
+
+    @Param({"1000"})
+    private int batchSize;
+
+    private List<Integer> batch;
+    private Task<Integer, Integer> chain;
+    private Task<Integer, Integer> single;
+
+    @Setup
+    public void setup() {
+        batch = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            batch.add(i);
+        }
+        Task<Integer, Integer> increment = Task.forEach(i -> i + 1);
+        chain = increment;
+        for (int i = 1; i < chainLength; i++) {
+            chain = chain.then(increment);
+        }
+        int length = chainLength;
+        single = Task.forEach(i -> i + length);
+    }
+
+    @Benchmark
+    public List<Integer> chained() throws Exception {
+        return chain.apply(batch);
+    }
+
+    @Benchmark
+    public List<Integer> single() throws Exception {
+        return single.apply(batch);
+    }
+
+}
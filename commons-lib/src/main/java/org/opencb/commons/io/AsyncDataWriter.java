@@ -0,0 +1,363 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.commons.io;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToLongFunction;
+
+/**
+ * DataWriter decorator that writes in a dedicated thread, coalescing small batches into bigger group commits.
+ *
+ * The batches given to {@link #write(List)} are appended to a pending group. The group is handed off to the
+ * writer thread when it reaches the max number of elements or bytes, or when the oldest element has been waiting
+ * for the linger time. Groups are always written in the order they were completed, including the ones flushed by
+ * the linger time. Callers are only blocked when there are too many groups waiting to be written.
+ *
+ * DataWriter&lt;Document&gt; writer = new AsyncDataWriter&lt;&gt;(mongoWriter)
+ *      .setMaxElements(5000)
+ *      .setLinger(200, TimeUnit.MILLISECONDS);
+ *
+ * Can be used from multiple threads, like {@link DataWriter#asTask()}, without serializing the callers on the
+ * wrapped writer. The order of the elements is kept for each calling thread.
+ * Errors from the wrapped writer are thrown by the next call to {@link #write(List)} or {@link #flush()}.
+ *
+ * Created on 18/10/26.
+ *
+ * @param <T> Element type
+ */
+public class AsyncDataWriter<T> implements DataWriter<T> {
+
+    public static final int DEFAULT_MAX_ELEMENTS = 1000;
+    public static final int DEFAULT_CAPACITY = 4;
+    private static final int TIMEOUT_CHECK_MILLIS = 1000;
+
+    private final DataWriter<T> writer;
+    private int maxElements = DEFAULT_MAX_ELEMENTS;
+    private long maxBytes = Long.MAX_VALUE;
+    private ToLongFunction<? super T> sizeOf;
+    private long lingerNanos = TimeUnit.MILLISECONDS.toNanos(100);
+    private int capacity = DEFAULT_CAPACITY;
+
+    // Guarded by "lock". Groups are taken and enqueued under the same lock, so they are written in order.
+    private final ReentrantLock lock = new ReentrantLock();
+    private List<T> pending;
+    private long pendingBytes;
+    private long pendingSince;
+
+    private BlockingQueue<Group<T>> queue;
+    private Thread thread;
+    private volatile Throwable failure;
+    private final AtomicLong writtenGroups = new AtomicLong();
+    private final AtomicLong writtenElements = new AtomicLong();
+
+    protected Logger logger = LoggerFactory.getLogger(AsyncDataWriter.class);
+
+    private static final class Group<T> {
+        private final List<T> elements;
+        // Not null for flush markers, and for the last group
+        private final CountDownLatch done;
+        private final boolean last;
+
+        private Group(List<T> elements, CountDownLatch done, boolean last) {
+            this.elements = elements;
+            this.done = done;
+            this.last = last;
+        }
+    }
+
+    public AsyncDataWriter(DataWriter<T> writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * @param maxElements   Write a group when it has this number of elements
+     * @return              this
+     */
+    public AsyncDataWriter<T> setMaxElements(int maxElements) {
+        if (maxElements <= 0) {
+            throw new IllegalArgumentException("Max elements must be positive. Found " + maxElements);
+        }
+        this.maxElements = maxElements;
+        return this;
+    }
+
+    /**
+     * @param maxBytes  Write a group when it has this size
+     * @param sizeOf    Estimated size of each element, in bytes
+     * @return          this
+     */
+    public AsyncDataWriter<T> setMaxBytes(long maxBytes, ToLongFunction<? super T> sizeOf) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Max bytes must be positive. Found " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+        this.sizeOf = sizeOf;
+        return this;
+    }
+
+    /**
+     * @param linger    Max time that an element can wait in an incomplete group
+     * @param unit      Time unit
+     * @return          this
+     */
+    public AsyncDataWriter<T> setLinger(long linger, TimeUnit unit) {
+        if (linger <= 0) {
+            throw new IllegalArgumentException("Linger must be positive. Found " + linger);
+        }
+        this.lingerNanos = unit.toNanos(linger);
+        return this;
+    }
+
+    /**
+     * @param capacity  Number of complete groups that can wait to be written before blocking the callers
+     * @return          this
+     */
+    public AsyncDataWriter<T> setCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive. Found " + capacity);
+        }
+        this.capacity = capacity;
+        return this;
+    }
+
+    @Override
+    public boolean open() {
+        return writer.open();
+    }
+
+    @Override
+    public boolean pre() {
+        boolean pre = writer.pre();
+        start();
+        return pre;
+    }
+
+    @Override
+    public boolean write(List<T> batch) {
+        checkFailure();
+        if (batch == null || batch.isEmpty()) {
+            return true;
+        }
+        if (thread == null) {
+            throw new IllegalStateException("Writer not started. Missing call to pre");
+        }
+        lock.lock();
+        try {
+            if (pending.isEmpty()) {
+                pendingSince = System.nanoTime();
+            }
+            pending.addAll(batch);
+            if (sizeOf != null) {
+                for (T t : batch) {
+                    pendingBytes += sizeOf.applyAsLong(t);
+                }
+            }
+            if (pending.size() >= maxElements || pendingBytes >= maxBytes) {
+                send(new Group<>(takePending(), null, false));
+            }
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Write all the pending elements, and wait until they are written.
+     */
+    public void flush() {
+        checkFailure();
+        if (thread == null) {
+            return;
+        }
+        CountDownLatch done = new CountDownLatch(1);
+        lock.lock();
+        try {
+            send(new Group<>(takePending(), done, false));
+        } finally {
+            lock.unlock();
+        }
+        await(done);
+        checkFailure();
+    }
+
+    @Override
+    public boolean post() {
+        if (thread != null) {
+            stop();
+        }
+        checkFailure();
+        return writer.post();
+    }
+
+    @Override
+    public boolean close() {
+        if (thread != null) {
+            // Post was not called. Stop now, discarding the pending groups.
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+        return writer.close();
+    }
+
+    private void start() {
+        pending = new ArrayList<>(Math.min(maxElements, DEFAULT_MAX_ELEMENTS * 10));
+        pendingBytes = 0;
+        queue = new ArrayBlockingQueue<>(capacity);
+        thread = new Thread(this::writeLoop, "async-" + writer.getClass().getSimpleName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Write the pending elements, and wait for the writer thread to finish.
+     */
+    private void stop() {
+        CountDownLatch done = new CountDownLatch(1);
+        lock.lock();
+        try {
+            send(new Group<>(takePending(), done, true));
+        } finally {
+            lock.unlock();
+        }
+        await(done);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        thread = null;
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                Group<T> group = queue.poll(lingerNanos, TimeUnit.NANOSECONDS);
+                if (group == null) {
+                    // Linger time elapsed. Enqueue incomplete group, if old enough.
+                    // Do not wait for the lock, as the owner may be waiting for this thread to free space in the queue.
+                    // Only this thread takes from the queue, so if there is space, the offer will not fail.
+                    if (lock.tryLock()) {
+                        try {
+                            if (!pending.isEmpty() && System.nanoTime() - pendingSince >= lingerNanos
+                                    && queue.remainingCapacity() > 0) {
+                                queue.offer(new Group<>(takePending(), null, false));
+                            }
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+                    continue;
+                }
+                if (!group.elements.isEmpty() && failure == null) {
+                    writer.write(group.elements);
+                    writtenGroups.incrementAndGet();
+                    writtenElements.addAndGet(group.elements.size());
+                }
+                if (group.done != null) {
+                    group.done.countDown();
+                }
+                if (group.last) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        } catch (RuntimeException | Error e) {
+            logger.error("Error writing group", e);
+            failure = e;
+            // Release any waiting caller
+            Group<T> group;
+            while ((group = queue.poll()) != null) {
+                if (group.done != null) {
+                    group.done.countDown();
+                }
+            }
+        }
+    }
+
+    private List<T> takePending() {
+        List<T> group = pending;
+        pending = new ArrayList<>(group.size());
+        pendingBytes = 0;
+        return group;
+    }
+
+    /**
+     * Enqueue a group. Must be called holding the lock, right after taking the group.
+     * Blocks while the queue is full, which also blocks the other callers.
+     *
+     * @param group Group to enqueue
+     */
+    private void send(Group<T> group) {
+        try {
+            while (!queue.offer(group, TIMEOUT_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                checkFailure();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        if (failure != null && group.done != null) {
+            // The writer thread may have stopped before taking the group
+            group.done.countDown();
+        }
+    }
+
+    private void await(CountDownLatch done) {
+        try {
+            while (!done.await(TIMEOUT_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (failure != null) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void checkFailure() {
+        Throwable throwable = failure;
+        if (throwable != null) {
+            throw new IllegalStateException("Error in AsyncDataWriter", throwable);
+        }
+    }
+
+    public long getWrittenGroups() {
+        return writtenGroups.get();
+    }
+
+    public long getWrittenElements() {
+        return writtenElements.get();
+    }
+}
@@ -22,6 +22,7 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Spliterator;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
@@ -54,6 +55,26 @@ public interface DataReader<T> extends Iterable<T> {
 
     List<T> read(int batchSize);
 
+    /**
+     * Read a batch into the given list, to avoid allocating a new list for each batch.
+     *
+     * The list may contain the elements of a previous batch, which are no longer in use. Readers
+     * can reuse those elements instead of creating new ones. On return, the list must contain only
+     * the elements read.
+     *
+     * @param batch     List to fill
+     * @param batchSize Max number of elements to read
+     * @return          Number of elements read. 0 if there are no more elements.
+     */
+    default int readInto(List<T> batch, int batchSize) {
+        List<T> read = read(batchSize);
+        batch.clear();
+        if (read != null) {
+            batch.addAll(read);
+        }
+        return batch.size();
+    }
+
     default <O> DataReader<O> then(Task<T, O> task) {
         return new DataReader<O>() {
             private boolean drained = false;
@@ -119,8 +140,55 @@ public interface DataReader<T> extends Iterable<T> {
         };
     }
 
+    /**
+     * Read ahead in a background thread. See {@link PrefetchDataReader}.
+     *
+     * @param numBatches    Number of batches to read ahead
+     * @return              Prefetching reader
+     */
+    default DataReader<T> prefetch(int numBatches) {
+        return new PrefetchDataReader<>(this, numBatches);
+    }
+
     default Stream<T> stream() {
-        return StreamSupport.stream(spliterator(), false);
+        return stream(1);
+    }
+
+    /**
+     * Sequential stream over the elements of the reader. The reader is closed when the stream is closed,
+     * or when all the elements are consumed.
+     *
+     * @param batchSize Number of elements to read on each call
+     * @return          Stream
+     */
+    default Stream<T> stream(int batchSize) {
+        DataReaderSpliterator<T> spliterator = spliterator(batchSize);
+        return StreamSupport.stream(spliterator, false).onClose(spliterator::close);
+    }
+
+    default Stream<T> parallelStream() {
+        return parallelStream(DataReaderSpliterator.DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Parallel stream over the elements of the reader. Each read batch is processed as a whole by a thread of
+     * the ForkJoin pool. The reader is closed when the stream is closed, or when all the elements are consumed.
+     *
+     * @param batchSize Number of elements to read on each call, and to hand off to each parallel task
+     * @return          Stream
+     */
+    default Stream<T> parallelStream(int batchSize) {
+        DataReaderSpliterator<T> spliterator = spliterator(batchSize);
+        return StreamSupport.stream(spliterator, true).onClose(spliterator::close);
+    }
+
+    @Override
+    default Spliterator<T> spliterator() {
+        return spliterator(1);
+    }
+
+    default DataReaderSpliterator<T> spliterator(int batchSize) {
+        return new DataReaderSpliterator<>(this, batchSize);
     }
 
     default Iterator<T> iterator() {
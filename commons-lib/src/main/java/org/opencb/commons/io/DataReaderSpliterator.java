@@ -0,0 +1,139 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.commons.io;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator over the elements of a {@link DataReader}.
+ *
+ * Elements are read in batches. On {@link #trySplit()}, the current batch, or the next one, is handed off
+ * entirely to the returned spliterator, so a parallel stream processes a whole batch per task in the
+ * ForkJoin pool, while the reader is read sequentially by the thread owning this spliterator.
+ *
+ * The reader is opened on the first access, and closed after the last batch. To close the reader on
+ * streams that are not fully consumed, close the stream, or call {@link #close()}.
+ *
+ * Created on 18/10/26.
+ *
+ * @param <T> Element type
+ */
+public class DataReaderSpliterator<T> implements Spliterator<T>, AutoCloseable {
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    private final DataReader<T> reader;
+    private final int batchSize;
+    private List<T> batch = Collections.emptyList();
+    private int index = 0;
+    private boolean opened = false;
+    private boolean closed = false;
+
+    public DataReaderSpliterator(DataReader<T> reader) {
+        this(reader, DEFAULT_BATCH_SIZE);
+    }
+
+    public DataReaderSpliterator(DataReader<T> reader, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive. Found " + batchSize);
+        }
+        this.reader = reader;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        if (index >= batch.size() && !readBatch()) {
+            return false;
+        }
+        action.accept(batch.get(index++));
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super T> action) {
+        do {
+            while (index < batch.size()) {
+                action.accept(batch.get(index++));
+            }
+        } while (readBatch());
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        if (index >= batch.size() && !readBatch()) {
+            return null;
+        }
+        List<T> split = index == 0 ? batch : batch.subList(index, batch.size());
+        batch = Collections.emptyList();
+        index = 0;
+        return Spliterators.spliterator(split.toArray(), characteristics());
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED;
+    }
+
+    /**
+     * Close the reader, if opened and not closed yet.
+     */
+    @Override
+    public void close() {
+        if (opened && !closed) {
+            closed = true;
+            reader.close();
+        }
+    }
+
+    /**
+     * Read the next batch. Opens the reader if needed, and closes the reader if exhausted.
+     *
+     * @return If there is a new non empty batch
+     */
+    private boolean readBatch() {
+        if (closed) {
+            return false;
+        }
+        if (!opened) {
+            opened = true;
+            reader.open();
+            reader.pre();
+        }
+        List<T> read = reader.read(batchSize);
+        if (read == null || read.isEmpty()) {
+            batch = Collections.emptyList();
+            index = 0;
+            closed = true;
+            reader.post();
+            reader.close();
+            return false;
+        }
+        batch = read;
+        index = 0;
+        return true;
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.commons.io;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * DataWriter that sends every batch to multiple DataWriters.
+ *
+ * Each DataWriter runs in its own thread, with its own bounded queue. When the queue of a writer is full,
+ * the {@link OverflowPolicy} of the writer decides whether to block the caller or to drop the batch, so a
+ * slow sink does not need to stall the rest.
+ *
+ * Each batch is copied before sending it to the writers, as the writers may still be using it after
+ * {@link #write} returns, and the caller may reuse the list (e.g. a {@link org.opencb.commons.run.ParallelTaskRunner}
+ * recycling batches). The copy is shared by all the writers, so writers must not modify it.
+ *
+ * new ParallelTaskRunner(reader, task, new FanOutDataWriter()
+ *      .add(avroWriter)
+ *      .add(mongoWriter, 10, OverflowPolicy.DROP), config);
+ *
+ * Created on 18/10/26.
+ *
+ * @param <T> Element type
+ */
+public class FanOutDataWriter<T> implements DataWriter<T> {
+
+    public static final int DEFAULT_CAPACITY = 10;
+    private static final int TIMEOUT_CHECK_MILLIS = 1000;
+    private static final List<?> POISON_PILL = Collections.emptyList();
+
+    private final List<WriterThread> writers = new ArrayList<>();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private volatile boolean failureReported = false;
+    private ExecutorService executorService;
+
+    protected Logger logger = LoggerFactory.getLogger(FanOutDataWriter.class);
+
+    public enum OverflowPolicy {
+        /**
+         * Block the caller until there is space in the queue.
+         */
+        BLOCK,
+        /**
+         * Drop the batch for this writer.
+         */
+        DROP
+    }
+
+    private final class WriterThread implements Callable<Void> {
+        private final DataWriter<T> writer;
+        private final OverflowPolicy policy;
+        private final BlockingQueue<List<T>> queue;
+        private final AtomicLong writtenBatches = new AtomicLong();
+        private final AtomicLong droppedBatches = new AtomicLong();
+
+        private WriterThread(DataWriter<T> writer, int capacity, OverflowPolicy policy) {
+            this.writer = writer;
+            this.policy = policy;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        @Override
+        public Void call() throws Exception {
+            try {
+                List<T> batch = queue.take();
+                while (batch != POISON_PILL) {
+                    writer.write(batch);
+                    writtenBatches.incrementAndGet();
+                    batch = queue.take();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException | Error e) {
+                logger.error("Error writing batch", e);
+                failure.compareAndSet(null, e);
+                throw e;
+            }
+            return null;
+        }
+
+        private void send(List<T> batch) throws InterruptedException {
+            if (policy == OverflowPolicy.DROP) {
+                if (!queue.offer(batch)) {
+                    droppedBatches.incrementAndGet();
+                }
+            } else {
+                while (!queue.offer(batch, TIMEOUT_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                    checkFailure();
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private boolean sendPoisonPill() throws InterruptedException {
+            while (!queue.offer((List<T>) POISON_PILL, TIMEOUT_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (failure.get() != null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    public FanOutDataWriter() {
+    }
+
+    /**
+     * Add a writer with the default capacity and blocking policy.
+     *
+     * @param writer    DataWriter
+     * @return          this
+     */
+    public FanOutDataWriter<T> add(DataWriter<T> writer) {
+        return add(writer, DEFAULT_CAPACITY, OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * Add a writer.
+     *
+     * @param writer    DataWriter
+     * @param capacity  Number of batches that can be buffered for this writer
+     * @param policy    What to do when the buffer is full
+     * @return          this
+     */
+    public FanOutDataWriter<T> add(DataWriter<T> writer, int capacity, OverflowPolicy policy) {
+        if (executorService != null) {
+            throw new IllegalStateException("Can not add writers after open");
+        }
+        writers.add(new WriterThread(writer, capacity, policy));
+        return this;
+    }
+
+    @Override
+    public boolean open() {
+        for (WriterThread writerThread : writers) {
+            writerThread.writer.open();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean pre() {
+        for (WriterThread writerThread : writers) {
+            writerThread.writer.pre();
+        }
+        executorService = Executors.newFixedThreadPool(writers.size());
+        for (WriterThread writerThread : writers) {
+            executorService.submit(writerThread);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean write(List<T> batch) {
+        checkFailure();
+        if (batch == null || batch.isEmpty()) {
+            return true;
+        }
+        List<T> copy = Collections.unmodifiableList(new ArrayList<>(batch));
+        try {
+            for (WriterThread writerThread : writers) {
+                writerThread.send(copy);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean post() {
+        try {
+            stop();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        if (failure.get() != null) {
+            if (failureReported) {
+                // Already reported to the caller at write
+                return false;
+            }
+            checkFailure();
+        }
+        for (WriterThread writerThread : writers) {
+            if (writerThread.droppedBatches.get() > 0) {
+                logger.warn("Dropped {} batches from writer {}", writerThread.droppedBatches.get(), writerThread.writer);
+            }
+            writerThread.writer.post();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean close() {
+        if (executorService != null && !executorService.isTerminated()) {
+            // Post was not called. Stop now.
+            executorService.shutdownNow();
+        }
+        for (WriterThread writerThread : writers) {
+            writerThread.writer.close();
+        }
+        return true;
+    }
+
+    /**
+     * Wait until all the writers have written all the pending batches.
+     */
+    private void stop() throws InterruptedException {
+        if (executorService == null || executorService.isShutdown()) {
+            return;
+        }
+        for (WriterThread writerThread : writers) {
+            if (!writerThread.sendPoisonPill()) {
+                // One writer failed. Do not wait for the rest.
+                executorService.shutdownNow();
+                return;
+            }
+        }
+        executorService.shutdown();
+        while (!executorService.awaitTermination(TIMEOUT_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+            logger.debug("Waiting for writers to finish");
+        }
+    }
+
+    private void checkFailure() {
+        Throwable throwable = failure.get();
+        if (throwable != null) {
+            failureReported = true;
+            throw new IllegalStateException("Error in FanOutDataWriter", throwable);
+        }
+    }
+
+    public long getWrittenBatches(int writer) {
+        return writers.get(writer).writtenBatches.get();
+    }
+
+    public long getDroppedBatches(int writer) {
+        return writers.get(writer).droppedBatches.get();
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.commons.io;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DataReader decorator that reads ahead from the wrapped reader in a background thread.
+ *
+ * Up to a given number of batches are kept in a bounded queue, so the I/O of the wrapped reader overlaps with the
+ * processing of the caller, and each call to {@link #read(int)} only pays for the hand off.
+ * The background thread is started with the first read, using the same batch size.
+ *
+ * try (Stream&lt;Variant&gt; stream = new PrefetchDataReader&lt;&gt;(avroReader, 4).stream(1000)) {
+ *     stream.forEach(...);
+ * }
+ *
+ * Errors in the wrapped reader are thrown by the next call to {@link #read(int)}.
+ * The wrapped reader is only accessed by the background thread between the first read and
+ * the end of the data, or the call to {@link #post()} or {@link #close()}, which will interrupt the
+ * background thread.
+ *
+ * Created on 18/10/26.
+ *
+ * @param <T> Element type
+ */
+public class PrefetchDataReader<T> implements DataReader<T> {
+
+    private static final int TIMEOUT_CHECK_MILLIS = 1000;
+    private static final List<?> END = Collections.emptyList();
+
+    private final DataReader<T> reader;
+    private final BlockingQueue<List<T>> queue;
+    private volatile int batchSize;
+    private volatile boolean stopped;
+    private volatile Throwable failure;
+    private Thread thread;
+    private boolean finished;
+    // Remaining elements from a prefetched batch bigger than the requested batch size
+    private List<T> pending = Collections.emptyList();
+    private int pendingIdx;
+
+    /**
+     * @param reader        Reader to decorate
+     * @param numBatches    Number of batches to read ahead
+     */
+    public PrefetchDataReader(DataReader<T> reader, int numBatches) {
+        if (numBatches <= 0) {
+            throw new IllegalArgumentException("Number of batches must be positive. Found " + numBatches);
+        }
+        this.reader = reader;
+        this.queue = new ArrayBlockingQueue<>(numBatches);
+    }
+
+    @Override
+    public boolean open() {
+        // Can be reopened after close
+        finished = false;
+        failure = null;
+        pending = Collections.emptyList();
+        pendingIdx = 0;
+        queue.clear();
+        return reader.open();
+    }
+
+    @Override
+    public boolean pre() {
+        return reader.pre();
+    }
+
+    @Override
+    public List<T> read(int batchSize) {
+        if (batchSize <= 0) {
+            return Collections.emptyList();
+        }
+        this.batchSize = batchSize;
+        if (pendingIdx >= pending.size()) {
+            pending = nextBatch();
+            pendingIdx = 0;
+        }
+        if (pendingIdx == 0 && pending.size() <= batchSize) {
+            List<T> batch = pending;
+            pending = Collections.emptyList();
+            return batch;
+        }
+        int end = Math.min(pending.size(), pendingIdx + batchSize);
+        List<T> batch = new ArrayList<>(pending.subList(pendingIdx, end));
+        pendingIdx = end;
+        return batch;
+    }
+
+    @Override
+    public boolean post() {
+        stop();
+        return reader.post();
+    }
+
+    @Override
+    public boolean close() {
+        stop();
+        return reader.close();
+    }
+
+    private List<T> nextBatch() {
+        if (finished) {
+            return Collections.emptyList();
+        }
+        if (thread == null) {
+            start();
+        }
+        List<T> batch;
+        try {
+            batch = queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        if (batch == END) {
+            finished = true;
+            Throwable throwable = failure;
+            if (throwable != null) {
+                throw new IllegalStateException("Error reading from " + reader, throwable);
+            }
+        }
+        return batch;
+    }
+
+    private void start() {
+        stopped = false;
+        thread = new Thread(this::readLoop, "prefetch-" + reader.getClass().getSimpleName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readLoop() {
+        try {
+            List<T> batch = reader.read(batchSize);
+            while (batch != null && !batch.isEmpty() && !stopped) {
+                while (!queue.offer(batch, TIMEOUT_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                    if (stopped) {
+                        return;
+                    }
+                }
+                batch = reader.read(batchSize);
+            }
+        } catch (InterruptedException e) {
+            return;
+        } catch (RuntimeException | Error e) {
+            failure = e;
+        }
+        try {
+            while (!queue.offer((List<T>) END, TIMEOUT_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (stopped) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            // Stopped
+        }
+    }
+
+    /**
+     * Stop the background thread, and wait until it does not access the reader anymore.
+     */
+    private void stop() {
+        if (thread == null) {
+            return;
+        }
+        stopped = true;
+        queue.clear();
+        // Do not wait for a slow read to finish
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        queue.clear();
+        thread = null;
+        finished = true;
+    }
+
+    /**
+     * @return Number of batches ready to be read.
+     */
+    public int getPrefetchedBatches() {
+        return queue.size();
+    }
+}
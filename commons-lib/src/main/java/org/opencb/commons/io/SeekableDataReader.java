@@ -0,0 +1,40 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.commons.io;
+
+/**
+ * DataReader that can skip to a given position of the input.
+ *
+ * Used to resume a {@link org.opencb.commons.run.ParallelTaskRunner} from a
+ * {@link org.opencb.commons.run.Checkpoint}.
+ *
+ * Created on 18/10/26.
+ *
+ * @param <T> Element type
+ */
+public interface SeekableDataReader<T> extends DataReader<T> {
+
+    /**
+     * Skip to the given position. Called after {@link #pre()}, before reading any element.
+     * The next element to be read must be the element at this position, counting from the
+     * beginning of the input, as if all the previous elements were read.
+     *
+     * @param position Number of elements from the beginning of the input to skip.
+     */
+    void seek(long position);
+
+}
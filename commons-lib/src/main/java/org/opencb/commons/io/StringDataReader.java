@@ -24,6 +24,7 @@ import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -35,7 +36,7 @@ import java.util.zip.GZIPInputStream;
 /**
  * Created by jacobo on 25/02/15.
  */
-public class StringDataReader implements DataReader<String> {
+public class StringDataReader implements SeekableDataReader<String> {
 
     protected BufferedReader reader;
     protected final Path path;
@@ -88,6 +89,19 @@ public class StringDataReader implements DataReader<String> {
         return true;
     }
 
+    @Override
+    public void seek(long position) {
+        try {
+            for (long i = 0; i < position; i++) {
+                if (reader.readLine() == null) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     @Override
     public List<String> read() {
         try {
@@ -101,6 +115,23 @@ public class StringDataReader implements DataReader<String> {
         return null;
     }
 
+    @Override
+    public int readInto(List<String> batch, int batchSize) {
+        batch.clear();
+        try {
+            for (int i = 0; i < batchSize; i++) {
+                String line = reader.readLine();
+                if (line == null) {
+                    break;
+                }
+                batch.add(line);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return batch.size();
+    }
+
     @Override
     public List<String> read(int batchSize) {
         List<String> batch = new ArrayList<>(batchSize);
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.commons.io.avro;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.Codec;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.opencb.commons.run.Task;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Encodes each batch as one compressed Avro block, to be written by an {@link AvroFileWriter} in block mode.
+ *
+ * The returned buffer contains the number of records, the size of the compressed data and the compressed data,
+ * but not the sync marker. Compression runs in the task threads, so the writer only concatenates blocks.
+ * The batch size of the runner is the number of records per block.
+ *
+ * The blocks do not say which codec compressed them, so the instances are created by the writer, with
+ * {@link AvroFileWriter#newBlockEncoder()}, to make sure that the codec matches the file header.
+ *
+ * Created on 18/10/26.
+ *
+ * @param <T> Record type
+ */
+public class AvroBlockEncoder<T> implements Task<T, ByteBuffer> {
+
+    private static final int SIZE = 1000000;
+
+    private final DatumWriter<T> datumWriter;
+    private final Codec codec;
+    private final Buffer data = new Buffer(SIZE);
+    private final BinaryEncoder dataEncoder;
+    private final Buffer block = new Buffer(SIZE);
+    private final BinaryEncoder blockEncoder;
+
+    private static final class Buffer extends ByteArrayOutputStream {
+        private Buffer(int size) {
+            super(size);
+        }
+
+        private ByteBuffer asByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+
+    /**
+     * @param schema    Avro schema
+     * @param codecName Codec name, as in {@link AvroCompressionUtils#getCodec}. Must match the codec of the writer.
+     */
+    AvroBlockEncoder(Schema schema, String codecName) {
+        this.datumWriter = new SpecificDatumWriter<>(schema);
+        Codec newCodec = AvroCompressionUtils.newCodec(codecName);
+        if (newCodec instanceof ZstandardCodec) {
+            // Closed on post, so the compression context can be reused between blocks
+            newCodec = ((ZstandardCodec) newCodec).reuseContext();
+        }
+        this.codec = newCodec;
+        this.dataEncoder = EncoderFactory.get().binaryEncoder(data, null);
+        this.blockEncoder = EncoderFactory.get().binaryEncoder(block, null);
+    }
+
+    @Override
+    public List<ByteBuffer> apply(List<T> batch) throws IOException {
+        if (batch.isEmpty()) {
+            return Collections.emptyList();
+        }
+        data.reset();
+        for (T elem : batch) {
+            datumWriter.write(elem, dataEncoder);
+        }
+        dataEncoder.flush();
+        ByteBuffer compressed = codec.compress(data.asByteBuffer());
+
+        block.reset();
+        blockEncoder.writeLong(batch.size());
+        blockEncoder.writeLong(compressed.remaining());
+        blockEncoder.writeFixed(compressed);
+        blockEncoder.flush();
+        return Collections.singletonList(ByteBuffer.wrap(block.toByteArray()));
+    }
+
+    @Override
+    public void post() throws IOException {
+        if (codec instanceof Closeable) {
+            ((Closeable) codec).close();
+        }
+    }
+
+    public String getCodecName() {
+        return codec.getName();
+    }
+}
@@ -16,35 +16,145 @@
 
 package org.opencb.commons.io.avro;
 
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.file.Codec;
 import org.apache.avro.file.CodecFactory;
 
+import java.lang.reflect.Method;
+
+/**
+ * Codec names for Avro files.
+ *
+ * A codec name can have a compression level, like "deflate:1", "xz:6" or "zstandard:9".
+ * Supported codecs: null, snappy, deflate (or gzip), bzip2, xz and zstandard (or zstd).
+ */
 public final class AvroCompressionUtils {
 
+    static {
+        registerCodecs();
+    }
+
+    private AvroCompressionUtils() {
+    }
+
+    /**
+     * Register the codecs not included in Avro, so they can be used to read files. Called on class initialization.
+     * Does not replace codecs already registered, like a zstandard codec with dictionary.
+     */
+    public static synchronized void registerCodecs() {
+        try {
+            CodecFactory.fromString(ZstandardCodec.NAME);
+        } catch (AvroRuntimeException e) {
+            // Not registered yet
+            CodecFactory.addCodec(ZstandardCodec.NAME, zstandardCodec(ZstandardCodec.DEFAULT_LEVEL, null));
+        }
+    }
+
+    /**
+     * Register a codec to read files, replacing any codec with the same name. Needed to read files written with a
+     * zstandard dictionary. The registry of Avro is global, so files written with different dictionaries can not
+     * be read at the same time.
+     *
+     * @param codecFactory  Codec to register
+     */
+    public static synchronized void registerCodec(CodecFactory codecFactory) {
+        CodecFactory.addCodec(newCodec(codecFactory).getName(), codecFactory);
+    }
+
     public static CodecFactory getCodec(String name) {
         if (name == null || name.equalsIgnoreCase("null")) {
             return CodecFactory.nullCodec();
         }
 
+        String codecName = name;
+        Integer level = null;
+        int idx = name.indexOf(':');
+        if (idx >= 0) {
+            codecName = name.substring(0, idx);
+            try {
+                level = Integer.valueOf(name.substring(idx + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid compression level in codec '" + name + "'", e);
+            }
+        }
+
         CodecFactory codecFactory;
-        switch (name.toLowerCase()) {
+        switch (codecName.toLowerCase()) {
             case "snappy":
+                checkNoLevel(name, level);
                 codecFactory = CodecFactory.snappyCodec();
                 break;
             case "gzip":
             case "deflate":
-                codecFactory = CodecFactory.deflateCodec(CodecFactory.DEFAULT_DEFLATE_LEVEL);
+                codecFactory = CodecFactory.deflateCodec(checkLevel(name, level, CodecFactory.DEFAULT_DEFLATE_LEVEL, 0, 9));
                 break;
             case "bzip2":
+                checkNoLevel(name, level);
                 codecFactory = CodecFactory.bzip2Codec();
                 break;
             case "xz":
-                codecFactory = CodecFactory.xzCodec(CodecFactory.DEFAULT_XZ_LEVEL);
+                codecFactory = CodecFactory.xzCodec(checkLevel(name, level, CodecFactory.DEFAULT_XZ_LEVEL, 0, 9));
                 break;
-            default:
-                codecFactory = CodecFactory.deflateCodec(CodecFactory.DEFAULT_DEFLATE_LEVEL);
+            case "zstd":
+            case ZstandardCodec.NAME:
+                // Negative levels are the "fast" levels of zstd
+                codecFactory = zstandardCodec(checkLevel(name, level, ZstandardCodec.DEFAULT_LEVEL, -131072, 22), null);
                 break;
+            default:
+                throw new IllegalArgumentException("Unknown Avro codec '" + name + "'");
         }
         return codecFactory;
     }
 
+    /**
+     * @param level         Compression level. From -131072 (fastest) to 22. Default 3
+     * @param dictionary    Optional dictionary, as trained with zstd. Files can only be read with the same dictionary
+     * @return Zstandard codec factory
+     */
+    public static CodecFactory zstandardCodec(int level, byte[] dictionary) {
+        return new CodecFactory() {
+            @Override
+            protected Codec createInstance() {
+                return new ZstandardCodec(level, dictionary);
+            }
+        };
+    }
+
+    private static int checkLevel(String name, Integer level, int defaultLevel, int min, int max) {
+        if (level == null) {
+            return defaultLevel;
+        }
+        if (level < min || level > max) {
+            throw new IllegalArgumentException("Compression level of codec '" + name + "' must be between " + min + " and " + max);
+        }
+        return level;
+    }
+
+    private static void checkNoLevel(String name, Integer level) {
+        if (level != null) {
+            throw new IllegalArgumentException("Codec '" + name + "' does not have compression levels");
+        }
+    }
+
+    /**
+     * Create a new instance of a codec, to compress Avro blocks outside of a {@link org.apache.avro.file.DataFileWriter}.
+     *
+     * @param name  Codec name, as in {@link #getCodec(String)}
+     * @return      New codec instance. Codecs are not thread safe.
+     */
+    public static Codec newCodec(String name) {
+        return newCodec(getCodec(name));
+    }
+
+    public static Codec newCodec(CodecFactory codecFactory) {
+        try {
+            // CodecFactory#createInstance is not public
+            Method createInstance = CodecFactory.class.getDeclaredMethod("createInstance");
+            createInstance.setAccessible(true);
+            return (Codec) createInstance.invoke(codecFactory);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            throw new IllegalStateException("Unable to create codec " + codecFactory, e);
+        }
+    }
+
 }
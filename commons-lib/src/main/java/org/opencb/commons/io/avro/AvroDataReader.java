@@ -16,6 +16,7 @@
 
 package org.opencb.commons.io.avro;
 
+import org.apache.avro.file.CodecFactory;
 import org.apache.avro.file.DataFileReader;
 import org.apache.avro.file.DataFileStream;
 import org.apache.avro.generic.GenericRecord;
@@ -41,6 +42,7 @@ public class AvroDataReader<T extends GenericRecord> implements DataReader<T> {
     private final Class<T> clazz;
     private final File file;
     private final InputStream is;
+    private CodecFactory codecFactory;
     private DataFileStream<T> dataFileReader;
 
     public AvroDataReader(File file, Class<T> clazz) {
@@ -55,8 +57,25 @@ public class AvroDataReader<T extends GenericRecord> implements DataReader<T> {
         this.file = null;
     }
 
+    /**
+     * Codec to read the file, if it can not be built from the codec name of the file.
+     * For example, a zstandard codec with dictionary. See {@link AvroCompressionUtils#registerCodec}.
+     *
+     * @param codecFactory  Codec factory
+     * @return this
+     */
+    public AvroDataReader<T> setCodec(CodecFactory codecFactory) {
+        this.codecFactory = codecFactory;
+        return this;
+    }
+
     @Override
     public boolean open() {
+        if (codecFactory == null) {
+            AvroCompressionUtils.registerCodecs();
+        } else {
+            AvroCompressionUtils.registerCodec(codecFactory);
+        }
         DatumReader<T> datumReader = new SpecificDatumReader<>(clazz);
         try {
             if (is != null) {
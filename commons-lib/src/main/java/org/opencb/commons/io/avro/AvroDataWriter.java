@@ -40,15 +40,28 @@ import java.util.List;
 public class AvroDataWriter<T extends GenericRecord> implements DataWriter<T> {
 
     private Path outputPath;
-    private boolean gzip;
+    private CodecFactory codec;
     private DataFileWriter<T> avroWriter;
     private Schema schema;
     private ProgressLogger progressLogger;
     protected Logger logger = LoggerFactory.getLogger(this.getClass().toString());
 
     public AvroDataWriter(Path outputPath, boolean gzip, Schema schema) {
+        this(outputPath, gzip ? "deflate" : "null", schema);
+    }
+
+    /**
+     * @param outputPath    Output file
+     * @param codecName     Codec name, as in {@link AvroCompressionUtils#getCodec}. e.g. "deflate:1", "zstandard:9"
+     * @param schema        Avro schema
+     */
+    public AvroDataWriter(Path outputPath, String codecName, Schema schema) {
+        this(outputPath, AvroCompressionUtils.getCodec(codecName), schema);
+    }
+
+    public AvroDataWriter(Path outputPath, CodecFactory codec, Schema schema) {
         this.outputPath = outputPath;
-        this.gzip = gzip;
+        this.codec = codec;
         this.schema = schema;
     }
 
@@ -64,7 +77,7 @@ public class AvroDataWriter<T extends GenericRecord> implements DataWriter<T> {
         try {
             DatumWriter<T> datumWriter = new SpecificDatumWriter<>();
             avroWriter = new DataFileWriter<>(datumWriter);
-            avroWriter.setCodec(gzip ? CodecFactory.deflateCodec(CodecFactory.DEFAULT_DEFLATE_LEVEL) : CodecFactory.nullCodec());
+            avroWriter.setCodec(codec);
             avroWriter.create(schema, outputPath.toFile());
         } catch (IOException e) {
             throw new UncheckedIOException(e);
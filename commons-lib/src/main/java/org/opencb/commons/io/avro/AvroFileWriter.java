@@ -18,9 +18,12 @@ package org.opencb.commons.io.avro;
 
 
 import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileConstants;
 import org.apache.avro.file.DataFileWriter;
 import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
 import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.EncoderFactory;
 import org.apache.avro.specific.SpecificDatumWriter;
 import org.opencb.commons.io.DataWriter;
 import org.slf4j.Logger;
@@ -31,11 +34,16 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Objects;
+import java.util.UUID;
 
 /**
+ * Writes the records encoded by an {@link AvroEncoder}. In block mode, see {@link #setBlockMode}, writes the
+ * compressed blocks built by an {@link AvroBlockEncoder}, so the compression runs in the task threads.
+ *
  * Created on 02/04/15.
  *
  * @author Jacobo Coll &lt;jacobo167@gmail.com&gt;
@@ -50,6 +58,10 @@ public class AvroFileWriter<T extends GenericRecord> implements DataWriter<ByteB
     private final DatumWriter<T> datumWriter;
     private int numWrites = 0;
     private boolean closeOutputStream;
+    private boolean blockMode = false;
+    private boolean opened = false;
+    // Only in block mode
+    private byte[] sync;
 
     protected Logger logger = LoggerFactory.getLogger(this.getClass().toString());
 
@@ -79,20 +91,83 @@ public class AvroFileWriter<T extends GenericRecord> implements DataWriter<ByteB
         writer.setCodec(AvroCompressionUtils.getCodec(this.codecName));
     }
 
+    /**
+     * Write blocks from an {@link AvroBlockEncoder} instead of single records. The container file header and the
+     * sync markers are written directly, so the encoders must be created with {@link #newBlockEncoder()}.
+     *
+     * @param blockMode Write compressed blocks
+     * @return this
+     * @throws IllegalStateException if the writer is already open
+     */
+    public AvroFileWriter<T> setBlockMode(boolean blockMode) {
+        if (opened) {
+            throw new IllegalStateException("Unable to change the block mode after open");
+        }
+        this.blockMode = blockMode;
+        return this;
+    }
+
+    /**
+     * Create a block encoder with the same schema and codec as this writer. Create one for each task, as the
+     * encoders are not thread safe.
+     *
+     * AvroFileWriter&lt;T&gt; writer = new AvroFileWriter&lt;T&gt;(schema, codecName, output).setBlockMode(true);
+     * new ParallelTaskRunner&lt;&gt;(reader, writer::newBlockEncoder, writer, config).run();
+     *
+     * @return new block encoder
+     * @throws IllegalStateException if not in block mode
+     */
+    public AvroBlockEncoder<T> newBlockEncoder() {
+        if (!blockMode) {
+            throw new IllegalStateException("Block encoders can only be used in block mode. Missing call to setBlockMode");
+        }
+        return new AvroBlockEncoder<>(schema, codecName);
+    }
+
     @Override
     public boolean open() {
         try {
             if (outputStream == null) {
                 outputStream = new FileOutputStream(output.toFile());
             }
-            writer.create(schema, outputStream);
+            if (blockMode) {
+                writeHeader();
+            } else {
+                writer.create(schema, outputStream);
+            }
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
+        opened = true;
         return true;
     }
 
+    private void writeHeader() throws IOException {
+        UUID uuid = UUID.randomUUID();
+        sync = ByteBuffer.allocate(DataFileConstants.SYNC_SIZE)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .array();
+
+        BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(outputStream, null);
+        encoder.writeFixed(DataFileConstants.MAGIC);
+        encoder.writeMapStart();
+        encoder.setItemCount(2);
+        encoder.startItem();
+        encoder.writeString(DataFileConstants.SCHEMA);
+        encoder.writeBytes(schema.toString().getBytes(StandardCharsets.UTF_8));
+        encoder.startItem();
+        encoder.writeString(DataFileConstants.CODEC);
+        encoder.writeBytes(AvroCompressionUtils.newCodec(codecName).getName().getBytes(StandardCharsets.UTF_8));
+        encoder.writeMapEnd();
+        encoder.writeFixed(sync);
+        encoder.flush();
+    }
+
     public void writeDatum(T datum) throws IOException {
+        if (blockMode) {
+            throw new IllegalStateException("Unable to write single records in block mode");
+        }
         writer.append(datum);
     }
 
@@ -103,7 +178,12 @@ public class AvroFileWriter<T extends GenericRecord> implements DataWriter<ByteB
                 if (numWrites++ % 1000 == 0) {
                     logger.debug("Written {} elements", numWrites);
                 }
-                writer.appendEncoded(byteBuffer);
+                if (blockMode) {
+                    outputStream.write(byteBuffer.array(), byteBuffer.arrayOffset() + byteBuffer.position(), byteBuffer.remaining());
+                    outputStream.write(sync);
+                } else {
+                    writer.appendEncoded(byteBuffer);
+                }
             }
         } catch (IOException e) {
             throw new UncheckedIOException(e);
@@ -115,9 +195,16 @@ public class AvroFileWriter<T extends GenericRecord> implements DataWriter<ByteB
     @Override
     public boolean close() {
         try {
-            writer.flush();
-            if (closeOutputStream) {
-                writer.close();
+            if (blockMode) {
+                outputStream.flush();
+                if (closeOutputStream) {
+                    outputStream.close();
+                }
+            } else {
+                writer.flush();
+                if (closeOutputStream) {
+                    writer.close();
+                }
             }
         } catch (IOException e) {
             throw new UncheckedIOException(e);
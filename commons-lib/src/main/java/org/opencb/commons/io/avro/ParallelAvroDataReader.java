@@ -0,0 +1,370 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.commons.io.avro;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.DatumReader;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.opencb.commons.io.DataReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Avro DataReader that decodes a container file in multiple threads.
+ *
+ * The file is split in byte ranges. Each thread opens its own {@link DataFileReader}, moves to the first sync
+ * marker of a split with {@link DataFileReader#sync}, and decodes the blocks starting before the end of the split.
+ * Blocks are independent, so each block is read by exactly one thread.
+ *
+ * By default, the batches are returned in any order. With {@link #setKeepOrder}, the splits are returned in order,
+ * as in {@link AvroDataReader}, and the threads can only go a limited number of splits ahead of the caller.
+ *
+ * The threads are started with the first read, using the same batch size.
+ * Errors in the threads are thrown by the next call to {@link #read(int)}.
+ *
+ * Created on 18/10/26.
+ *
+ * @param <T> Record type
+ */
+public class ParallelAvroDataReader<T extends GenericRecord> implements DataReader<T> {
+
+    public static final long DEFAULT_SPLIT_SIZE = 64L * 1024 * 1024;
+    private static final long MIN_SPLIT_SIZE = 64L * 1024;
+    private static final int SPLITS_PER_THREAD = 4;
+    private static final int TIMEOUT_CHECK_MILLIS = 100;
+    private static final List<?> END = Collections.emptyList();
+
+    private final File file;
+    private final Supplier<DatumReader<T>> datumReaderSupplier;
+    private final int numThreads;
+    private boolean keepOrder = false;
+    private long splitSize = DEFAULT_SPLIT_SIZE;
+    private int capacity;
+    private CodecFactory codecFactory;
+
+    // Start of each split, plus the end of the file
+    private long[] splits;
+    private List<BlockingQueue<List<T>>> queues;
+    // Only if keepOrder. Limits the number of splits taken but not returned yet
+    private Semaphore splitsAhead;
+    private final AtomicInteger nextSplit = new AtomicInteger();
+    private volatile int batchSize;
+    private volatile boolean stopped;
+    private volatile Throwable failure;
+    private List<Thread> threads;
+    private int currentSplit;
+    private int finishedSplits;
+    private boolean finished;
+    // Remaining elements from a chunk bigger than the requested batch size
+    private List<T> pending = Collections.emptyList();
+    private int pendingIdx;
+
+    public ParallelAvroDataReader(File file, Class<T> clazz, int numThreads) {
+        this(file, () -> new SpecificDatumReader<>(clazz), numThreads);
+    }
+
+    /**
+     * Read with the given schema. Records are decoded as the specific class of the schema, if found in the
+     * classpath, or as {@link org.apache.avro.generic.GenericData.Record}.
+     *
+     * @param file          Avro file
+     * @param schema        Reader schema
+     * @param numThreads    Number of decoding threads
+     */
+    public ParallelAvroDataReader(File file, Schema schema, int numThreads) {
+        this(file, () -> new SpecificDatumReader<>(schema), numThreads);
+    }
+
+    private ParallelAvroDataReader(File file, Supplier<DatumReader<T>> datumReaderSupplier, int numThreads) {
+        if (numThreads <= 0) {
+            throw new IllegalArgumentException("Number of threads must be positive. Found " + numThreads);
+        }
+        this.file = Objects.requireNonNull(file);
+        this.datumReaderSupplier = datumReaderSupplier;
+        this.numThreads = numThreads;
+        this.capacity = numThreads * 2;
+    }
+
+    /**
+     * @param keepOrder Return the records in the same order as in the file
+     * @return this
+     */
+    public ParallelAvroDataReader<T> setKeepOrder(boolean keepOrder) {
+        this.keepOrder = keepOrder;
+        return this;
+    }
+
+    /**
+     * @param splitSize Max size in bytes of each split. Smaller files are split in a few splits per thread.
+     * @return this
+     */
+    public ParallelAvroDataReader<T> setSplitSize(long splitSize) {
+        if (splitSize <= 0) {
+            throw new IllegalArgumentException("Split size must be positive. Found " + splitSize);
+        }
+        this.splitSize = splitSize;
+        return this;
+    }
+
+    /**
+     * @param capacity  Number of batches to read ahead, per split if keeping the order.
+     * @return this
+     */
+    public ParallelAvroDataReader<T> setCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive. Found " + capacity);
+        }
+        this.capacity = capacity;
+        return this;
+    }
+
+    /**
+     * Codec to read the file, if it can not be built from the codec name of the file.
+     * For example, a zstandard codec with dictionary. See {@link AvroCompressionUtils#registerCodec}.
+     *
+     * @param codecFactory  Codec factory
+     * @return this
+     */
+    public ParallelAvroDataReader<T> setCodec(CodecFactory codecFactory) {
+        this.codecFactory = codecFactory;
+        return this;
+    }
+
+    @Override
+    public boolean open() {
+        if (codecFactory == null) {
+            AvroCompressionUtils.registerCodecs();
+        } else {
+            AvroCompressionUtils.registerCodec(codecFactory);
+        }
+        if (!file.isFile()) {
+            throw new UncheckedIOException(new IOException("File " + file + " not found"));
+        }
+        long length = file.length();
+        long size = Math.min(splitSize, Math.max(MIN_SPLIT_SIZE, length / (numThreads * SPLITS_PER_THREAD)));
+        int numSplits = (int) Math.max(1, (length + size - 1) / size);
+        splits = new long[numSplits + 1];
+        for (int i = 0; i < numSplits; i++) {
+            splits[i] = i * size;
+        }
+        splits[numSplits] = length;
+        finished = false;
+        return true;
+    }
+
+    @Override
+    public List<T> read(int batchSize) {
+        if (batchSize <= 0) {
+            return Collections.emptyList();
+        }
+        this.batchSize = batchSize;
+        if (pendingIdx >= pending.size()) {
+            pending = nextChunk();
+            pendingIdx = 0;
+        }
+        if (pendingIdx == 0 && pending.size() <= batchSize) {
+            List<T> batch = pending;
+            pending = Collections.emptyList();
+            return batch;
+        }
+        int end = Math.min(pending.size(), pendingIdx + batchSize);
+        List<T> batch = new ArrayList<>(pending.subList(pendingIdx, end));
+        pendingIdx = end;
+        return batch;
+    }
+
+    @Override
+    public boolean post() {
+        stop();
+        return true;
+    }
+
+    @Override
+    public boolean close() {
+        stop();
+        return true;
+    }
+
+    private List<T> nextChunk() {
+        if (threads == null && !finished) {
+            start();
+        }
+        try {
+            while (!finished) {
+                checkFailure();
+                BlockingQueue<List<T>> queue = keepOrder ? queues.get(currentSplit) : queues.get(0);
+                List<T> chunk = queue.poll(TIMEOUT_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+                if (chunk == null) {
+                    continue;
+                } else if (chunk != END) {
+                    return chunk;
+                }
+                if (keepOrder) {
+                    queues.set(currentSplit, null);
+                    currentSplit++;
+                    splitsAhead.release();
+                    finished = currentSplit == getNumSplits();
+                } else {
+                    finishedSplits++;
+                    finished = finishedSplits == getNumSplits();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        return Collections.emptyList();
+    }
+
+    private void start() {
+        int numSplits = getNumSplits();
+        stopped = false;
+        failure = null;
+        nextSplit.set(0);
+        currentSplit = 0;
+        finishedSplits = 0;
+        queues = new ArrayList<>(keepOrder ? numSplits : 1);
+        if (keepOrder) {
+            for (int i = 0; i < numSplits; i++) {
+                queues.add(new LinkedBlockingQueue<>(capacity));
+            }
+            splitsAhead = new Semaphore(numThreads * 2);
+        } else {
+            queues.add(new LinkedBlockingQueue<>(capacity));
+            splitsAhead = null;
+        }
+        int activeThreads = Math.min(numThreads, numSplits);
+        threads = new ArrayList<>(activeThreads);
+        for (int i = 0; i < activeThreads; i++) {
+            Thread thread = new Thread(this::readLoop, "avro-reader-" + i);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readLoop() {
+        try (DataFileReader<T> reader = new DataFileReader<>(file, datumReaderSupplier.get())) {
+            int split = takeSplit();
+            while (split >= 0) {
+                BlockingQueue<List<T>> queue = keepOrder ? queues.get(split) : queues.get(0);
+                int chunkSize = batchSize;
+                List<T> chunk = new ArrayList<>(chunkSize);
+                reader.sync(splits[split]);
+                // Read all the blocks starting before the end of the split
+                while (reader.hasNext() && !reader.pastSync(splits[split + 1]) && !stopped) {
+                    chunk.add(reader.next());
+                    if (chunk.size() == chunkSize) {
+                        put(queue, chunk);
+                        chunk = new ArrayList<>(chunkSize);
+                    }
+                }
+                if (!chunk.isEmpty()) {
+                    put(queue, chunk);
+                }
+                put(queue, (List<T>) END);
+                split = takeSplit();
+            }
+        } catch (InterruptedException e) {
+            // Stopped
+        } catch (IOException | RuntimeException | Error e) {
+            failure = e;
+            stopped = true;
+        }
+    }
+
+    /**
+     * @return Next split to read, or -1 if there are no more splits or the reader is stopped.
+     */
+    private int takeSplit() throws InterruptedException {
+        if (splitsAhead != null) {
+            while (!splitsAhead.tryAcquire(TIMEOUT_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (stopped) {
+                    return -1;
+                }
+            }
+        }
+        int split = nextSplit.getAndIncrement();
+        if (split >= getNumSplits() || stopped) {
+            if (splitsAhead != null) {
+                splitsAhead.release();
+            }
+            return -1;
+        }
+        return split;
+    }
+
+    private void put(BlockingQueue<List<T>> queue, List<T> chunk) throws InterruptedException {
+        while (!queue.offer(chunk, TIMEOUT_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (stopped) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    private void checkFailure() {
+        Throwable throwable = failure;
+        if (throwable != null) {
+            finished = true;
+            throw new IllegalStateException("Error reading Avro file " + file, throwable);
+        }
+    }
+
+    /**
+     * Stop the threads, and wait until they do not access the file anymore.
+     */
+    private void stop() {
+        if (threads == null) {
+            return;
+        }
+        stopped = true;
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        threads = null;
+        queues = null;
+        finished = true;
+    }
+
+    /**
+     * @return Number of splits of the file. Available after {@link #open()}.
+     */
+    public int getNumSplits() {
+        return splits == null ? 0 : splits.length - 1;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.commons.io.avro;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdCompressCtx;
+import com.github.luben.zstd.ZstdInputStream;
+import org.apache.avro.file.Codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Zstandard codec for Avro container files, using zstd-jni.
+ *
+ * Uses the same name and format as the zstandard codec of Avro 1.9+, so files written without dictionary can be
+ * read by newer Avro versions. Files written with a dictionary can only be read with the same dictionary.
+ *
+ * By default, each block is compressed with a new native compression context, as Avro does not close the codecs of a
+ * {@link org.apache.avro.file.DataFileWriter}. Owners that call {@link #close()} can reuse the context between blocks,
+ * see {@link #reuseContext()}.
+ *
+ * Created on 18/10/26.
+ */
+public class ZstandardCodec extends Codec implements Closeable {
+
+    public static final String NAME = "zstandard";
+    public static final int DEFAULT_LEVEL = 3;
+
+    private final int level;
+    private final byte[] dictionary;
+    private final boolean reuseContext;
+    // Only if reuseContext
+    private ZstdCompressCtx compressCtx;
+
+    public ZstandardCodec(int level, byte[] dictionary) {
+        this(level, dictionary, false);
+    }
+
+    /**
+     * @param level         Compression level
+     * @param dictionary    Optional dictionary
+     * @param reuseContext  Keep the native compression context between blocks. Must be released with {@link #close()}
+     */
+    public ZstandardCodec(int level, byte[] dictionary, boolean reuseContext) {
+        this.level = level;
+        this.dictionary = dictionary;
+        this.reuseContext = reuseContext;
+    }
+
+    /**
+     * @return New codec with the same level and dictionary, keeping the compression context between blocks
+     */
+    public ZstandardCodec reuseContext() {
+        return new ZstandardCodec(level, dictionary, true);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public ByteBuffer compress(ByteBuffer data) throws IOException {
+        if (!reuseContext) {
+            try (ZstdCompressCtx ctx = newCompressCtx()) {
+                return compress(ctx, data);
+            }
+        }
+        if (compressCtx == null) {
+            compressCtx = newCompressCtx();
+        }
+        return compress(compressCtx, data);
+    }
+
+    private ZstdCompressCtx newCompressCtx() {
+        ZstdCompressCtx ctx = new ZstdCompressCtx().setLevel(level);
+        if (dictionary != null) {
+            ctx.loadDict(dictionary);
+        }
+        return ctx;
+    }
+
+    private static ByteBuffer compress(ZstdCompressCtx ctx, ByteBuffer data) {
+        int length = data.remaining();
+        byte[] compressed = new byte[(int) Zstd.compressBound(length)];
+        int size = ctx.compressByteArray(compressed, 0, compressed.length,
+                data.array(), data.arrayOffset() + data.position(), length);
+        return ByteBuffer.wrap(compressed, 0, size);
+    }
+
+    @Override
+    public ByteBuffer decompress(ByteBuffer data) throws IOException {
+        ByteArrayOutputStream decompressed = new ByteArrayOutputStream(data.remaining() * 4);
+        try (ZstdInputStream is = new ZstdInputStream(
+                new ByteArrayInputStream(data.array(), data.arrayOffset() + data.position(), data.remaining()))) {
+            if (dictionary != null) {
+                is.setDict(dictionary);
+            }
+            copy(is, decompressed);
+        }
+        return ByteBuffer.wrap(decompressed.toByteArray());
+    }
+
+    private static void copy(InputStream is, ByteArrayOutputStream os) throws IOException {
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = is.read(buffer)) != -1) {
+            os.write(buffer, 0, read);
+        }
+    }
+
+    /**
+     * Release the native compression context. The codec can still be used, creating a new context.
+     */
+    @Override
+    public void close() {
+        if (compressCtx != null) {
+            compressCtx.close();
+            compressCtx = null;
+        }
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        // Same as other Avro codecs. The level does not change the format.
+        return this == o || o != null && getClass() == o.getClass();
+    }
+
+    @Override
+    public int hashCode() {
+        return getClass().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return NAME + "-" + level;
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.commons.io.reactive;
+
+import org.opencb.commons.io.DataReader;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reactive Streams {@link Publisher} of the batches read from a {@link DataReader}.
+ *
+ * Each element emitted is a batch. Batches are only read when requested by the subscriber, so a slow
+ * subscriber will slow down the reader instead of buffering the input in memory.
+ * The reader is read in the given executor, as reading may block.
+ *
+ * As the reader can only be read once, the publisher accepts a single subscriber.
+ * Use {@link org.reactivestreams.FlowAdapters#toFlowPublisher} to get a java.util.concurrent.Flow.Publisher.
+ *
+ * Created on 18/10/26.
+ *
+ * @param <T> Element type
+ */
+public class DataReaderPublisher<T> implements Publisher<List<T>> {
+
+    private static final ExecutorService DEFAULT_EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "DataReaderPublisher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final DataReader<T> reader;
+    private final int batchSize;
+    private final Executor executor;
+    private final AtomicBoolean subscribed = new AtomicBoolean(false);
+
+    public DataReaderPublisher(DataReader<T> reader, int batchSize) {
+        this(reader, batchSize, DEFAULT_EXECUTOR);
+    }
+
+    public DataReaderPublisher(DataReader<T> reader, int batchSize, Executor executor) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive. Found " + batchSize);
+        }
+        this.reader = reader;
+        this.batchSize = batchSize;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super List<T>> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("Subscriber can not be null");
+        }
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("DataReaderPublisher only allows one subscriber"));
+            return;
+        }
+        ReaderSubscription subscription = new ReaderSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    private final class ReaderSubscription implements Subscription {
+
+        private final Subscriber<? super List<T>> subscriber;
+        private final AtomicLong requested = new AtomicLong();
+        // Number of pending drain requests. Only one drain loop runs at a time.
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled = false;
+        private volatile Throwable invalidRequest;
+        // Only accessed from the drain loop
+        private boolean started = false;
+        private boolean done = false;
+
+        private ReaderSubscription(Subscriber<? super List<T>> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("Request must be positive. Found " + n);
+            } else {
+                long current;
+                long next;
+                do {
+                    current = requested.get();
+                    next = current + n < 0 ? Long.MAX_VALUE : current + n;
+                } while (!requested.compareAndSet(current, next));
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            schedule();
+        }
+
+        private void schedule() {
+            if (wip.getAndIncrement() == 0) {
+                executor.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            int missed = 1;
+            do {
+                if (!done) {
+                    try {
+                        emit();
+                    } catch (RuntimeException | Error e) {
+                        done = true;
+                        closeQuietly();
+                        subscriber.onError(e);
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void emit() {
+            if (cancelled) {
+                done = true;
+                if (started) {
+                    reader.close();
+                }
+                return;
+            }
+            if (invalidRequest != null) {
+                done = true;
+                closeQuietly();
+                subscriber.onError(invalidRequest);
+                return;
+            }
+            if (!started) {
+                started = true;
+                reader.open();
+                reader.pre();
+            }
+            long emitted = 0;
+            long demand = requested.get();
+            while (emitted != demand && !cancelled) {
+                List<T> batch = reader.read(batchSize);
+                if (batch == null || batch.isEmpty()) {
+                    done = true;
+                    reader.post();
+                    reader.close();
+                    subscriber.onComplete();
+                    return;
+                }
+                subscriber.onNext(batch);
+                emitted++;
+            }
+            if (cancelled) {
+                done = true;
+                reader.close();
+                return;
+            }
+            if (demand != Long.MAX_VALUE) {
+                requested.addAndGet(-emitted);
+            }
+        }
+
+        private void closeQuietly() {
+            if (started) {
+                try {
+                    reader.close();
+                } catch (RuntimeException ignore) {
+                    // Already reporting an error
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.commons.io.reactive;
+
+import org.opencb.commons.io.DataWriter;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Reactive Streams {@link Subscriber} that writes the received batches into a {@link DataWriter}.
+ *
+ * Requests a limited number of batches in advance, and one more after each write, so the writer
+ * controls the pace of the publisher.
+ * Use {@link org.reactivestreams.FlowAdapters#toFlowSubscriber} to get a java.util.concurrent.Flow.Subscriber.
+ *
+ * Created on 18/10/26.
+ *
+ * @param <T> Element type
+ */
+public class DataWriterSubscriber<T> implements Subscriber<List<T>> {
+
+    public static final int DEFAULT_PREFETCH = 2;
+
+    private final DataWriter<T> writer;
+    private final int prefetch;
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+    private Subscription subscription;
+
+    public DataWriterSubscriber(DataWriter<T> writer) {
+        this(writer, DEFAULT_PREFETCH);
+    }
+
+    /**
+     * @param writer    DataWriter
+     * @param prefetch  Number of batches to request in advance
+     */
+    public DataWriterSubscriber(DataWriter<T> writer, int prefetch) {
+        if (prefetch <= 0) {
+            throw new IllegalArgumentException("Prefetch must be positive. Found " + prefetch);
+        }
+        this.writer = writer;
+        this.prefetch = prefetch;
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+        if (subscription == null) {
+            throw new NullPointerException("Subscription can not be null");
+        }
+        if (this.subscription != null) {
+            // Only one subscription allowed
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        try {
+            writer.open();
+            writer.pre();
+        } catch (RuntimeException e) {
+            fail(e);
+            return;
+        }
+        subscription.request(prefetch);
+    }
+
+    @Override
+    public void onNext(List<T> batch) {
+        if (batch == null) {
+            throw new NullPointerException("Batch can not be null");
+        }
+        if (completion.isDone()) {
+            return;
+        }
+        try {
+            writer.write(batch);
+        } catch (RuntimeException e) {
+            fail(e);
+            return;
+        }
+        subscription.request(1);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        if (throwable == null) {
+            throw new NullPointerException("Throwable can not be null");
+        }
+        if (completion.isDone()) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (RuntimeException e) {
+            throwable.addSuppressed(e);
+        }
+        completion.completeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        if (completion.isDone()) {
+            return;
+        }
+        try {
+            writer.post();
+            writer.close();
+        } catch (RuntimeException e) {
+            completion.completeExceptionally(e);
+            return;
+        }
+        completion.complete(null);
+    }
+
+    /**
+     * @return Future completed when the publisher completes and the writer is closed, or
+     *         completed exceptionally if there is any error.
+     */
+    public CompletableFuture<Void> getCompletion() {
+        return completion;
+    }
+
+    private void fail(RuntimeException e) {
+        subscription.cancel();
+        try {
+            writer.close();
+        } catch (RuntimeException closeException) {
+            e.addSuppressed(closeException);
+        }
+        completion.completeExceptionally(e);
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.commons.io.reactive;
+
+import org.opencb.commons.run.Task;
+import org.reactivestreams.Processor;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Reactive Streams {@link Processor} that applies a {@link Task} to each received batch.
+ *
+ * Each batch requested by the downstream subscriber is requested to the upstream publisher.
+ * Empty results are not emitted, and another batch is requested instead. The result of {@link Task#drain()}
+ * is emitted after the upstream publisher completes.
+ * Use {@link org.reactivestreams.FlowAdapters#toFlowProcessor} to get a java.util.concurrent.Flow.Processor.
+ *
+ * Created on 18/10/26.
+ *
+ * @param <I> Input type
+ * @param <O> Output type
+ */
+public class TaskProcessor<I, O> implements Processor<List<I>, List<O>> {
+
+    private static final Subscription NO_OP_SUBSCRIPTION = new Subscription() {
+        @Override
+        public void request(long n) {
+        }
+
+        @Override
+        public void cancel() {
+        }
+    };
+
+    private final Task<I, O> task;
+
+    // All the state is guarded by "this". Signals to other components are sent without holding the lock.
+    private Subscription upstream;
+    private boolean upstreamReceived = false;
+    private Subscriber<? super List<O>> downstream;
+    // If the downstream subscriber received the onSubscribe signal
+    private boolean downstreamReady = false;
+    // Requests received from downstream
+    private long requested = 0;
+    // Requests from downstream received before the upstream subscription
+    private long pendingUpstreamRequests = 0;
+    private boolean cancelled = false;
+    private boolean done = false;
+    // If the terminal signal was sent downstream
+    private boolean terminated = false;
+    // Signals waiting to be sent downstream, in order
+    private final Queue<List<O>> pendingResults = new ArrayDeque<>();
+    private List<O> pendingDrain;
+    private boolean pendingComplete = false;
+    private Throwable pendingError;
+    // Only one thread sends signals downstream at a time
+    private boolean emitting = false;
+
+    public TaskProcessor(Task<I, O> task) {
+        this.task = task;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super List<O>> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("Subscriber can not be null");
+        }
+        boolean rejected;
+        synchronized (this) {
+            rejected = downstream != null;
+            if (!rejected) {
+                downstream = subscriber;
+            }
+        }
+        if (rejected) {
+            subscriber.onSubscribe(NO_OP_SUBSCRIPTION);
+            subscriber.onError(new IllegalStateException("TaskProcessor only allows one subscriber"));
+            return;
+        }
+        subscriber.onSubscribe(new DownstreamSubscription());
+        synchronized (this) {
+            downstreamReady = true;
+        }
+        emit();
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+        if (subscription == null) {
+            throw new NullPointerException("Subscription can not be null");
+        }
+        boolean rejected;
+        synchronized (this) {
+            rejected = upstreamReceived || cancelled;
+            upstreamReceived = true;
+        }
+        if (rejected) {
+            subscription.cancel();
+            return;
+        }
+        try {
+            task.pre();
+        } catch (Exception e) {
+            subscription.cancel();
+            terminate(e);
+            return;
+        }
+        long n;
+        synchronized (this) {
+            if (cancelled) {
+                n = -1;
+            } else {
+                // Requests are sent to the upstream only after the pre step
+                upstream = subscription;
+                n = pendingUpstreamRequests;
+                pendingUpstreamRequests = 0;
+            }
+        }
+        if (n < 0) {
+            subscription.cancel();
+        } else if (n > 0) {
+            subscription.request(n);
+        }
+    }
+
+    @Override
+    public void onNext(List<I> batch) {
+        if (batch == null) {
+            throw new NullPointerException("Batch can not be null");
+        }
+        Subscription subscription;
+        synchronized (this) {
+            if (done || cancelled) {
+                return;
+            }
+            subscription = upstream;
+        }
+        if (subscription == null) {
+            throw new IllegalStateException("Received onNext before onSubscribe");
+        }
+        // Upstream signals are serial, so the task is never called concurrently
+        List<O> result;
+        try {
+            result = task.apply(batch);
+        } catch (Exception e) {
+            subscription.cancel();
+            terminate(e);
+            return;
+        }
+        if (result == null || result.isEmpty()) {
+            // Nothing to emit. Ask for another batch
+            subscription.request(1);
+        } else {
+            synchronized (this) {
+                if (done || cancelled) {
+                    return;
+                }
+                requested--;
+                pendingResults.add(result);
+            }
+            emit();
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        if (throwable == null) {
+            throw new NullPointerException("Throwable can not be null");
+        }
+        terminate(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        synchronized (this) {
+            if (done || cancelled) {
+                return;
+            }
+        }
+        List<O> drain;
+        try {
+            drain = task.drain();
+            task.post();
+        } catch (Exception e) {
+            terminate(e);
+            return;
+        }
+        synchronized (this) {
+            if (done || cancelled) {
+                return;
+            }
+            done = true;
+            if (drain != null && !drain.isEmpty()) {
+                pendingDrain = drain;
+            }
+            pendingComplete = true;
+        }
+        emit();
+    }
+
+    private void terminate(Throwable throwable) {
+        synchronized (this) {
+            if (done || cancelled) {
+                return;
+            }
+            done = true;
+            pendingError = throwable;
+        }
+        emit();
+    }
+
+    /**
+     * Send the pending signals downstream, if possible. Must not hold the lock.
+     */
+    private void emit() {
+        synchronized (this) {
+            if (emitting) {
+                // The emitting thread will send the new signals
+                return;
+            }
+            emitting = true;
+        }
+        while (true) {
+            Subscriber<? super List<O>> subscriber;
+            List<O> next = null;
+            Throwable error = null;
+            boolean complete = false;
+            synchronized (this) {
+                subscriber = downstream;
+                if (!downstreamReady || cancelled) {
+                    emitting = false;
+                    return;
+                }
+                if (pendingError != null) {
+                    terminated = true;
+                    error = pendingError;
+                    pendingError = null;
+                    pendingResults.clear();
+                    pendingDrain = null;
+                    pendingComplete = false;
+                } else if (!pendingResults.isEmpty()) {
+                    next = pendingResults.poll();
+                } else if (pendingDrain != null && requested > 0) {
+                    next = pendingDrain;
+                    pendingDrain = null;
+                    requested--;
+                } else if (pendingComplete && pendingDrain == null) {
+                    terminated = true;
+                    pendingComplete = false;
+                    complete = true;
+                } else {
+                    emitting = false;
+                    return;
+                }
+            }
+            if (error != null) {
+                subscriber.onError(error);
+            } else if (next != null) {
+                subscriber.onNext(next);
+            } else if (complete) {
+                subscriber.onComplete();
+            }
+        }
+    }
+
+    private final class DownstreamSubscription implements Subscription {
+        @Override
+        public void request(long n) {
+            Subscription subscription = null;
+            synchronized (TaskProcessor.this) {
+                if (cancelled || terminated || pendingError != null) {
+                    return;
+                }
+                if (n <= 0) {
+                    if (!done) {
+                        done = true;
+                        subscription = upstream;
+                    }
+                    pendingError = new IllegalArgumentException("Request must be positive. Found " + n);
+                } else {
+                    requested = requested + n < 0 ? Long.MAX_VALUE : requested + n;
+                    if (done) {
+                        subscription = null;
+                    } else if (upstream == null) {
+                        pendingUpstreamRequests = pendingUpstreamRequests + n < 0 ? Long.MAX_VALUE : pendingUpstreamRequests + n;
+                    } else {
+                        subscription = upstream;
+                    }
+                }
+            }
+            if (n <= 0) {
+                if (subscription != null) {
+                    subscription.cancel();
+                }
+            } else if (subscription != null) {
+                subscription.request(n);
+            }
+            emit();
+        }
+
+        @Override
+        public void cancel() {
+            Subscription subscription;
+            synchronized (TaskProcessor.this) {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+                subscription = upstream;
+                pendingResults.clear();
+                pendingDrain = null;
+            }
+            if (subscription != null) {
+                subscription.cancel();
+            }
+        }
+    }
+}
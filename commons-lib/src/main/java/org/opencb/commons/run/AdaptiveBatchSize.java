@@ -0,0 +1,124 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.commons.run;
+
+/**
+ * Adjusts the batch size to read, given the measured latency of each step of the {@link ParallelTaskRunner}.
+ *
+ * Keeps an exponential moving average of the time spent per element reading, applying the task and writing.
+ * The batch size is the number of elements that fits in the target latency. To avoid oscillations, the batch
+ * size can not grow or shrink more than a factor of 2 on each update.
+ *
+ * The time the reader is blocked because the read queue is full is also averaged. Batches wait that long in the
+ * queue, so the target latency is reduced by the ratio of time blocked, shrinking the batches while the queue
+ * is saturated.
+ *
+ * Created on 18/10/26.
+ */
+final class AdaptiveBatchSize {
+
+    private static final double ALPHA = 0.2;
+    // Never reduce the target latency below this fraction
+    private static final double MIN_LATENCY_FRACTION = 0.1;
+
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final long targetBatchLatencyNanos;
+
+    private volatile int batchSize;
+    private double readNanosPerElement = 0;
+    private double applyNanosPerElement = 0;
+    private double writeNanosPerElement = 0;
+    private double blockedAtPutReadNanosPerElement = 0;
+
+    AdaptiveBatchSize(int initialBatchSize, int minBatchSize, int maxBatchSize, long targetBatchLatencyNanos) {
+        if (minBatchSize <= 0 || maxBatchSize < minBatchSize) {
+            throw new IllegalArgumentException("Wrong batch size limits [" + minBatchSize + ", " + maxBatchSize + "]");
+        }
+        if (targetBatchLatencyNanos <= 0) {
+            throw new IllegalArgumentException("Target batch latency must be positive");
+        }
+        this.minBatchSize = minBatchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.targetBatchLatencyNanos = targetBatchLatencyNanos;
+        this.batchSize = Math.min(maxBatchSize, Math.max(minBatchSize, initialBatchSize));
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public synchronized void addRead(int size, long nanos) {
+        if (size > 0) {
+            readNanosPerElement = average(readNanosPerElement, (double) nanos / size);
+            update();
+        }
+    }
+
+    public synchronized void addApply(int size, long nanos) {
+        if (size > 0) {
+            applyNanosPerElement = average(applyNanosPerElement, (double) nanos / size);
+            update();
+        }
+    }
+
+    public synchronized void addWrite(int size, long nanos) {
+        if (size > 0) {
+            writeNanosPerElement = average(writeNanosPerElement, (double) nanos / size);
+            update();
+        }
+    }
+
+    /**
+     * @param size  Size of the batch put in the read queue
+     * @param nanos Time blocked waiting for space in the read queue
+     */
+    public synchronized void addBlockedAtPutRead(int size, long nanos) {
+        if (size > 0) {
+            // Do not skip zeros. Non blocking puts must lower the average.
+            blockedAtPutReadNanosPerElement += ALPHA * ((double) nanos / size - blockedAtPutReadNanosPerElement);
+            update();
+        }
+    }
+
+    private static double average(double current, double value) {
+        return current == 0 ? value : current + ALPHA * (value - current);
+    }
+
+    private void update() {
+        double nanosPerElement = readNanosPerElement + applyNanosPerElement + writeNanosPerElement;
+        if (nanosPerElement <= 0) {
+            return;
+        }
+        double blockedRatio = blockedAtPutReadNanosPerElement / (blockedAtPutReadNanosPerElement + nanosPerElement);
+        double latency = targetBatchLatencyNanos * Math.max(MIN_LATENCY_FRACTION, 1 - blockedRatio);
+        long target = Math.round(latency / nanosPerElement);
+        int current = batchSize;
+        long newBatchSize = Math.max(Math.max(1, current / 2), Math.min((long) current * 2, target));
+        batchSize = (int) Math.min(maxBatchSize, Math.max(minBatchSize, newBatchSize));
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveBatchSize{"
+                + "batchSize=" + batchSize
+                + ", minBatchSize=" + minBatchSize
+                + ", maxBatchSize=" + maxBatchSize
+                + ", targetBatchLatencyNanos=" + targetBatchLatencyNanos
+                + '}';
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.commons.run;
+
+import java.io.IOException;
+
+/**
+ * Persists the progress of a {@link ParallelTaskRunner}, so a failed job can be resumed.
+ *
+ * The progress is the number of input elements fully written, in order. Only batches before the
+ * first one that was not written are counted, so the runner must be sorted.
+ * On restart, the runner will {@link org.opencb.commons.io.SeekableDataReader#seek} the reader
+ * to the loaded position.
+ *
+ * Batches written after the last saved checkpoint will be processed and written again. Therefore, the
+ * {@link org.opencb.commons.io.DataWriter} must be idempotent, or be able to discard the data written
+ * after the checkpoint.
+ *
+ * The checkpoint is cleared when the runner finishes successfully, so the next execution starts from the beginning.
+ *
+ * Tasks must not keep elements in their state to be returned by {@link Task#drain()}. The input of those elements
+ * is counted as written before the drained output is written, so resuming after a failure would lose them.
+ *
+ * Created on 18/10/26.
+ */
+public interface Checkpoint {
+
+    /**
+     * @return Position saved by a previous execution, or 0 to start from the beginning.
+     * @throws IOException if the checkpoint can not be read
+     */
+    long load() throws IOException;
+
+    /**
+     * @param position Number of input elements fully written.
+     * @throws IOException if the checkpoint can not be written
+     */
+    void save(long position) throws IOException;
+
+    /**
+     * Remove the saved position after a successful execution.
+     *
+     * @throws IOException if the checkpoint can not be written
+     */
+    default void clear() throws IOException {
+        save(0);
+    }
+
+}
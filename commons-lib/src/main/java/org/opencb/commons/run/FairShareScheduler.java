@@ -0,0 +1,275 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.commons.run;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Shares a fixed number of workers between multiple concurrent jobs, like several {@link ParallelTaskRunner}
+ * running in the same JVM.
+ *
+ * Each job has its own threads, but threads have to {@link Job#acquire()} a worker slot before doing any work,
+ * and {@link Job#release} it afterwards. At most {@link #getMaxWorkers()} slots are granted at the same time.
+ * When there are more waiting jobs than free slots, the slot is granted to the job with the lowest
+ * weighted usage (used time / weight), so each active job gets a share of the workers proportional to its weight.
+ * A job with weight 10 will get 10 times more work done than a job with weight 1, and a new job is
+ * served right away, regardless of how long the other jobs have been running.
+ *
+ * Created on 18/10/26.
+ */
+public final class FairShareScheduler {
+
+    private static final FairShareScheduler DEFAULT = new FairShareScheduler(Runtime.getRuntime().availableProcessors());
+
+    private final int maxWorkers;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Guarded by lock
+    private final Set<Job> jobs = new LinkedHashSet<>();
+    private int availableWorkers;
+
+    public FairShareScheduler(int maxWorkers) {
+        if (maxWorkers <= 0) {
+            throw new IllegalArgumentException("Max workers must be positive. Found " + maxWorkers);
+        }
+        this.maxWorkers = maxWorkers;
+        this.availableWorkers = maxWorkers;
+    }
+
+    /**
+     * @return Process-wide scheduler, with as many workers as available processors.
+     */
+    public static FairShareScheduler getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Register a new job.
+     *
+     * @param name      Job name
+     * @param weight    Relative weight of the job. Higher weight gets a larger share of the workers.
+     * @return          The job. Close it when the job finishes.
+     */
+    public Job register(String name, double weight) {
+        if (!(weight > 0)) {
+            throw new IllegalArgumentException("Weight must be positive. Found " + weight);
+        }
+        lock.lock();
+        try {
+            Job job = new Job(name, weight);
+            // Start at the same level as the other jobs, so it does not monopolize the workers.
+            job.virtualTime = minVirtualTime(null);
+            jobs.add(job);
+            return job;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxWorkers() {
+        return maxWorkers;
+    }
+
+    public int getAvailableWorkers() {
+        lock.lock();
+        try {
+            return availableWorkers;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getNumJobs() {
+        lock.lock();
+        try {
+            return jobs.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param exclude Job to exclude
+     * @return Lowest virtual time of the active jobs. Must hold the lock.
+     */
+    private double minVirtualTime(Job exclude) {
+        double min = Double.NaN;
+        for (Job job : jobs) {
+            if (job != exclude && job.isActive() && !(job.virtualTime >= min)) {
+                min = job.virtualTime;
+            }
+        }
+        return Double.isNaN(min) ? 0 : min;
+    }
+
+    /**
+     * @return Waiting job with the lowest virtual time, or null if none. Must hold the lock.
+     */
+    private Job nextJob() {
+        Job next = null;
+        for (Job job : jobs) {
+            if (job.waiting > 0 && (next == null || job.virtualTime < next.virtualTime)) {
+                next = job;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Wake up the next job, if there are available workers. Must hold the lock.
+     */
+    private void signalNext() {
+        if (availableWorkers > 0) {
+            Job next = nextJob();
+            if (next != null) {
+                next.condition.signal();
+            }
+        }
+    }
+
+    public final class Job implements AutoCloseable {
+        private final String name;
+        private final double weight;
+        private final Condition condition = lock.newCondition();
+        // Guarded by lock
+        private double virtualTime;
+        private int waiting = 0;
+        private int running = 0;
+        private long usedNanos = 0;
+        private long grants = 0;
+        private boolean closed = false;
+
+        private Job(String name, double weight) {
+            this.name = name;
+            this.weight = weight;
+        }
+
+        /**
+         * Wait until a worker slot is granted to this job.
+         *
+         * @throws InterruptedException if interrupted while waiting
+         */
+        public void acquire() throws InterruptedException {
+            lock.lock();
+            try {
+                if (closed) {
+                    throw new IllegalStateException("Job " + name + " is closed");
+                }
+                if (!isActive()) {
+                    // Coming back from idle. Do not use the time being idle as credit.
+                    virtualTime = Math.max(virtualTime, minVirtualTime(this));
+                }
+                waiting++;
+                try {
+                    while (availableWorkers == 0 || nextJob() != this) {
+                        condition.await();
+                    }
+                } catch (InterruptedException e) {
+                    waiting--;
+                    signalNext();
+                    throw e;
+                }
+                waiting--;
+                availableWorkers--;
+                running++;
+                grants++;
+                signalNext();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Release a worker slot granted with {@link #acquire()}.
+         *
+         * @param time  Time the worker was used
+         * @param unit  Time unit
+         */
+        public void release(long time, TimeUnit unit) {
+            lock.lock();
+            try {
+                if (running == 0) {
+                    throw new IllegalStateException("Release without acquire in job " + name);
+                }
+                running--;
+                availableWorkers++;
+                long nanos = unit.toNanos(time);
+                usedNanos += nanos;
+                virtualTime += nanos / weight;
+                signalNext();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Unregister the job from the scheduler.
+         */
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                closed = true;
+                jobs.remove(this);
+                signalNext();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private boolean isActive() {
+            return waiting > 0 || running > 0;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public double getWeight() {
+            return weight;
+        }
+
+        public long getUsedTime(TimeUnit unit) {
+            lock.lock();
+            try {
+                return unit.convert(usedNanos, TimeUnit.NANOSECONDS);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return Number of times a worker was granted to this job
+         */
+        public long getGrants() {
+            lock.lock();
+            try {
+                return grants;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Job{name='" + name + "', weight=" + weight + '}';
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.commons.run;
+
+import org.opencb.commons.io.DataWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Task decorator that isolates the elements that make a batch fail, instead of losing or aborting the whole batch.
+ *
+ * A failing batch is retried up to {@link #setMaxRetries} times, waiting an exponential backoff between attempts.
+ * If it keeps failing, the batch is split in two halves, and each half is processed again, recursively,
+ * until the failing elements are isolated. Those elements are sent to the dead-letter {@link DataWriter}, if any,
+ * and the rest of the batch is returned as usual, in the same order.
+ *
+ * The wrapped task may see the same elements more than once, so it should not keep state between calls
+ * to {@link Task#apply}, or the state should be tolerant to failed calls.
+ *
+ * Task&lt;String, Variant&gt; task = new FaultTolerantTask&lt;&gt;(parser)
+ *      .setMaxRetries(2)
+ *      .setBackoff(100, 5000, TimeUnit.MILLISECONDS)
+ *      .setDeadLetterWriter(new StringDataWriter(Paths.get("failed.txt")));
+ *
+ * If the same instance is used by multiple threads of a {@link ParallelTaskRunner}, the dead-letter writer
+ * is opened at the first call to {@link #pre} and closed at the last call to {@link #post}.
+ *
+ * Created on 18/10/26.
+ *
+ * @param <T> Input type
+ * @param <R> Return type
+ */
+public class FaultTolerantTask<T, R> implements Task<T, R> {
+
+    private final Task<T, R> task;
+    private int maxRetries = 0;
+    private long initialBackoffMillis = 100;
+    private long maxBackoffMillis = 10000;
+    private long maxDeadLetters = Long.MAX_VALUE;
+    private DataWriter<T> deadLetterWriter;
+
+    private final AtomicInteger users = new AtomicInteger();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong bisections = new AtomicLong();
+    private final AtomicLong deadLetters = new AtomicLong();
+
+    protected static Logger logger = LoggerFactory.getLogger(FaultTolerantTask.class);
+
+    public FaultTolerantTask(Task<T, R> task) {
+        this.task = task;
+    }
+
+    /**
+     * @param maxRetries    Number of times a failing batch is retried before starting to split it
+     * @return              this
+     */
+    public FaultTolerantTask<T, R> setMaxRetries(int maxRetries) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("Max retries must be positive or zero. Found " + maxRetries);
+        }
+        this.maxRetries = maxRetries;
+        return this;
+    }
+
+    /**
+     * @param initial   Time to wait before the first retry. It is doubled at every retry.
+     * @param max       Max time to wait between retries
+     * @param unit      Time unit
+     * @return          this
+     */
+    public FaultTolerantTask<T, R> setBackoff(long initial, long max, TimeUnit unit) {
+        if (initial < 0 || max < initial) {
+            throw new IllegalArgumentException("Wrong backoff [" + initial + ", " + max + "]");
+        }
+        this.initialBackoffMillis = unit.toMillis(initial);
+        this.maxBackoffMillis = unit.toMillis(max);
+        return this;
+    }
+
+    /**
+     * @param deadLetterWriter  Writer for the elements that can not be processed. If null, they are only logged.
+     * @return                  this
+     */
+    public FaultTolerantTask<T, R> setDeadLetterWriter(DataWriter<T> deadLetterWriter) {
+        this.deadLetterWriter = deadLetterWriter;
+        return this;
+    }
+
+    /**
+     * Fail if there are too many bad elements, as it usually means that the problem is not in the input.
+     *
+     * @param maxDeadLetters    Max number of elements to discard before failing
+     * @return                  this
+     */
+    public FaultTolerantTask<T, R> setMaxDeadLetters(long maxDeadLetters) {
+        this.maxDeadLetters = maxDeadLetters;
+        return this;
+    }
+
+    @Override
+    public void pre() throws Exception {
+        if (users.getAndIncrement() == 0 && deadLetterWriter != null) {
+            deadLetterWriter.open();
+            deadLetterWriter.pre();
+        }
+        task.pre();
+    }
+
+    @Override
+    public List<R> apply(List<T> batch) throws Exception {
+        if (batch == null || batch.isEmpty()) {
+            return task.apply(batch);
+        }
+        try {
+            return applyWithRetries(batch);
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            if (batch.size() == 1) {
+                deadLetter(batch, e);
+                return Collections.emptyList();
+            }
+            return bisect(batch);
+        }
+    }
+
+    @Override
+    public List<R> drain() throws Exception {
+        return task.drain();
+    }
+
+    @Override
+    public void post() throws Exception {
+        task.post();
+        if (users.decrementAndGet() == 0 && deadLetterWriter != null) {
+            deadLetterWriter.post();
+            deadLetterWriter.close();
+        }
+    }
+
+    private List<R> applyWithRetries(List<T> batch) throws Exception {
+        long backoff = initialBackoffMillis;
+        for (int attempt = 0; true; attempt++) {
+            try {
+                return task.apply(batch);
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                if (attempt >= maxRetries) {
+                    throw e;
+                }
+                retries.incrementAndGet();
+                logger.warn("Error processing batch of {} elements. Retry {}/{} in {}ms : {}",
+                        batch.size(), attempt + 1, maxRetries, backoff, e.toString());
+                Thread.sleep(backoff);
+                backoff = Math.min(backoff * 2, maxBackoffMillis);
+            }
+        }
+    }
+
+    /**
+     * Split the batch in two halves, and process each one, without retries, until the failing elements are found.
+     */
+    private List<R> bisect(List<T> batch) throws Exception {
+        bisections.incrementAndGet();
+        int middle = batch.size() / 2;
+        List<R> result = new ArrayList<>(batch.size());
+        for (List<T> half : Arrays.asList(batch.subList(0, middle), batch.subList(middle, batch.size()))) {
+            // Copy, in case the task modifies the input list
+            half = new ArrayList<>(half);
+            List<R> output;
+            try {
+                output = task.apply(half);
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                if (half.size() == 1) {
+                    deadLetter(half, e);
+                    continue;
+                }
+                output = bisect(half);
+            }
+            if (output != null) {
+                result.addAll(output);
+            }
+        }
+        return result;
+    }
+
+    private void deadLetter(List<T> elements, Exception e) {
+        long count = deadLetters.addAndGet(elements.size());
+        logger.warn("Discard element '{}' : {}", elements.get(0), e.toString());
+        if (count > maxDeadLetters) {
+            throw new IllegalStateException("Too many discarded elements. Found " + count + ", max " + maxDeadLetters, e);
+        }
+        if (deadLetterWriter != null) {
+            synchronized (deadLetterWriter) {
+                deadLetterWriter.write(elements);
+            }
+        }
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    public long getBisections() {
+        return bisections.get();
+    }
+
+    public long getDeadLetters() {
+        return deadLetters.get();
+    }
+}
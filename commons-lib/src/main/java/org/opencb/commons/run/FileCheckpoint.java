@@ -0,0 +1,73 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.commons.run;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Checkpoint stored in a local file. The file is replaced atomically on each save,
+ * so a failure while saving will not corrupt the previous checkpoint.
+ *
+ * Created on 18/10/26.
+ */
+public class FileCheckpoint implements Checkpoint {
+
+    private final Path path;
+    private final Path tmpPath;
+
+    public FileCheckpoint(Path path) {
+        this.path = path.toAbsolutePath();
+        this.tmpPath = this.path.resolveSibling(this.path.getFileName() + ".tmp");
+    }
+
+    @Override
+    public long load() throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        String content = new String(Files.readAllBytes(path), StandardCharsets.UTF_8).trim();
+        try {
+            return Long.parseLong(content);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed checkpoint file " + path + " : '" + content + "'", e);
+        }
+    }
+
+    @Override
+    public void save(long position) throws IOException {
+        Files.write(tmpPath, Long.toString(position).getBytes(StandardCharsets.UTF_8));
+        Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public void clear() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public String toString() {
+        return "FileCheckpoint{path=" + path + '}';
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.commons.run;
+
+import java.util.function.DoubleSupplier;
+
+/**
+ * Registry where to export live metrics, like the ones from {@link ParallelTaskRunnerMetrics}.
+ *
+ * Implement to bridge to any metrics library. e.g. Micrometer:
+ *
+ * MetricsRegistry registry = (name, value) -&gt; Gauge.builder(name, value::getAsDouble).register(meterRegistry);
+ *
+ * Created on 18/10/26.
+ */
+@FunctionalInterface
+public interface MetricsRegistry {
+
+    /**
+     * Register a gauge. The value will be read on demand.
+     *
+     * @param name  Metric name
+     * @param value Current value of the metric
+     */
+    void gauge(String name, DoubleSupplier value);
+
+}
@@ -0,0 +1,635 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.commons.run;
+
+import org.opencb.commons.io.DataReader;
+import org.opencb.commons.io.DataWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Multi-stage version of the {@link ParallelTaskRunner}.
+ *
+ * Each stage has its own pool of worker threads and its own bounded input queue.
+ *
+ *         ___           ___           ___
+ *         |_|  -> T1 -> |_|  -> T2 -> |_|
+ *   R ->  |_|  -> T1 -> |_|  -> T2 -> |_| -> W
+ *         |_|  -> T1 -> |_|           |_|
+ *
+ * Every worker thread has a "home" stage. When the home stage has no pending batches, the
+ * worker will try to steal a batch from any other stage, starting from the last one, so the
+ * slowest stage gets help from the idle threads.
+ *
+ * A stage created from a single {@link Task} instance shares it between all the threads, so
+ * it can be executed by any number of workers at the same time. A stage created from a
+ * {@link Supplier} will have one task instance per thread, and each instance will never be
+ * used concurrently. In that case, the stage parallelism is limited by its number of threads.
+ *
+ * The output is not sorted. Empty batches are not propagated to the next stage.
+ * From the {@link ParallelTaskRunner.Config}, the number of tasks is not used, as each stage has its own number of
+ * threads, and sorted output is not supported.
+ *
+ * Created on 18/10/26.
+ */
+public final class ParallelPipelineRunner<I, O> {
+
+    private static final int POLL_TIMEOUT_MILLIS = 10;
+    private static final int OFFER_TIMEOUT_MILLIS = 10;
+
+    private final DataReader<I> reader;
+    private final DataWriter<O> writer;
+    private final List<Stage> stages;
+    private final ParallelTaskRunner.Config config;
+
+    private ExecutorService executorService;
+    private List<Throwable> exceptions;
+    private volatile boolean interrupted;
+
+    private int numBatches = 0;
+    private long timeReading = 0;
+    private long timeBlockedAtPutRead = 0;
+
+    private static Logger logger = LoggerFactory.getLogger(ParallelPipelineRunner.class);
+
+    /**
+     * Definition of a stage of the pipeline.
+     */
+    private final class Stage {
+        private final int index;
+        private final String name;
+        private final int numThreads;
+        private final int capacity;
+        private final List<Task<Object, Object>> tasks;
+        // Same task instance shared between all the threads
+        private final boolean shared;
+        private final boolean writerStage;
+
+        private BlockingQueue<List<Object>> queue;
+        private BlockingQueue<Task<Object, Object>> idleTasks;
+        // Batches in the queue or being processed.
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile boolean upstreamFinished;
+        private volatile boolean finished;
+
+        private final AtomicLong timeApply = new AtomicLong();
+        private final AtomicLong processedBatches = new AtomicLong();
+        private final AtomicLong stolenBatches = new AtomicLong();
+
+        private Stage(int index, String name, int numThreads, int capacity, List<Task<Object, Object>> tasks, boolean shared,
+                      boolean writerStage) {
+            this.index = index;
+            this.name = name;
+            this.numThreads = numThreads;
+            this.capacity = capacity;
+            this.tasks = tasks;
+            this.shared = shared;
+            this.writerStage = writerStage;
+        }
+
+        private void init() {
+            queue = new ArrayBlockingQueue<>(capacity);
+            if (shared) {
+                // Shared instance. Allow as many concurrent executions as workers.
+                int totalThreads = getTotalThreads();
+                idleTasks = new ArrayBlockingQueue<>(totalThreads);
+                for (int i = 0; i < totalThreads; i++) {
+                    idleTasks.add(tasks.get(0));
+                }
+            } else {
+                idleTasks = new ArrayBlockingQueue<>(tasks.size(), false, tasks);
+            }
+            pending.set(0);
+            upstreamFinished = false;
+            finished = false;
+        }
+
+        private Stage next() {
+            return index + 1 < stages.size() ? stages.get(index + 1) : null;
+        }
+    }
+
+    /**
+     * Builds a pipeline stage by stage.
+     *
+     * ParallelPipelineRunner.builder(reader, config)
+     *      .then(parseTask, 2)
+     *      .then(annotateTaskSupplier, 16)
+     *      .build(writer);
+     *
+     * @param <I> Input type of the pipeline
+     * @param <T> Output type of the last stage
+     */
+    public static final class Builder<I, T> {
+        private final DataReader<I> reader;
+        private final ParallelTaskRunner.Config config;
+        private final List<StageDefinition> stageDefinitions;
+
+        private Builder(DataReader<I> reader, ParallelTaskRunner.Config config, List<StageDefinition> stageDefinitions) {
+            this.reader = reader;
+            this.config = config;
+            this.stageDefinitions = stageDefinitions;
+        }
+
+        /**
+         * Add a new stage sharing the same task instance in all the threads.
+         *
+         * @param task          Task to be executed. Must be thread safe.
+         * @param numThreads    Number of threads for this stage
+         * @param <R>           New return type
+         * @return              The builder
+         */
+        public <R> Builder<I, R> then(Task<T, R> task, int numThreads) {
+            return then(task, numThreads, config.getCapacity());
+        }
+
+        /**
+         * Add a new stage sharing the same task instance in all the threads.
+         *
+         * @param task          Task to be executed. Must be thread safe.
+         * @param numThreads    Number of threads for this stage
+         * @param capacity      Capacity of the input queue of this stage
+         * @param <R>           New return type
+         * @return              The builder
+         */
+        public <R> Builder<I, R> then(Task<T, R> task, int numThreads, int capacity) {
+            Objects.requireNonNull(task);
+            return addStage(Collections.singletonList(task), true, numThreads, capacity);
+        }
+
+        /**
+         * Add a new stage with a different task instance per thread.
+         *
+         * @param taskSupplier  Task supplier. Will generate a new task for each thread.
+         * @param numThreads    Number of threads for this stage
+         * @param <R>           New return type
+         * @return              The builder
+         */
+        public <R> Builder<I, R> then(Supplier<? extends Task<T, R>> taskSupplier, int numThreads) {
+            return then(taskSupplier, numThreads, config.getCapacity());
+        }
+
+        /**
+         * Add a new stage with a different task instance per thread.
+         *
+         * @param taskSupplier  Task supplier. Will generate a new task for each thread.
+         * @param numThreads    Number of threads for this stage
+         * @param capacity      Capacity of the input queue of this stage
+         * @param <R>           New return type
+         * @return              The builder
+         */
+        public <R> Builder<I, R> then(Supplier<? extends Task<T, R>> taskSupplier, int numThreads, int capacity) {
+            List<Task<T, R>> tasks = new ArrayList<>(numThreads);
+            for (int i = 0; i < numThreads; i++) {
+                tasks.add(taskSupplier.get());
+            }
+            return addStage(tasks, false, numThreads, capacity);
+        }
+
+        @SuppressWarnings("unchecked")
+        private <R> Builder<I, R> addStage(List<? extends Task<T, R>> tasks, boolean shared, int numThreads, int capacity) {
+            if (numThreads <= 0) {
+                throw new IllegalArgumentException("Number of threads must be positive. Found " + numThreads);
+            }
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("Queue capacity must be positive. Found " + capacity);
+            }
+            List<StageDefinition> newDefinitions = new ArrayList<>(stageDefinitions);
+            newDefinitions.add(new StageDefinition((List) tasks, shared, numThreads, capacity));
+            return new Builder<>(reader, config, newDefinitions);
+        }
+
+        /**
+         * Build the pipeline.
+         *
+         * @param writer    Unique DataWriter. If null, data generated by the last stage will be lost.
+         * @return          The pipeline runner
+         */
+        public ParallelPipelineRunner<I, T> build(DataWriter<T> writer) {
+            return new ParallelPipelineRunner<>(reader, stageDefinitions, writer, config);
+        }
+    }
+
+    private static final class StageDefinition {
+        private final List<Task<Object, Object>> tasks;
+        private final boolean shared;
+        private final int numThreads;
+        private final int capacity;
+
+        private StageDefinition(List<Task<Object, Object>> tasks, boolean shared, int numThreads, int capacity) {
+            this.tasks = tasks;
+            this.shared = shared;
+            this.numThreads = numThreads;
+            this.capacity = capacity;
+        }
+    }
+
+    public static <I> Builder<I, I> builder(DataReader<I> reader, ParallelTaskRunner.Config config) {
+        return new Builder<>(Objects.requireNonNull(reader), Objects.requireNonNull(config), Collections.emptyList());
+    }
+
+    @SuppressWarnings("unchecked")
+    private ParallelPipelineRunner(DataReader<I> reader, List<StageDefinition> definitions, DataWriter<O> writer,
+                                   ParallelTaskRunner.Config config) {
+        if (definitions.isEmpty()) {
+            throw new IllegalArgumentException("Must provide at least one stage");
+        }
+        if (config.isSorted()) {
+            throw new IllegalArgumentException("Sorted output is not supported by " + ParallelPipelineRunner.class.getSimpleName());
+        }
+        this.reader = reader;
+        this.writer = writer;
+        this.config = config;
+        this.stages = new ArrayList<>(definitions.size() + 1);
+        for (StageDefinition definition : definitions) {
+            int index = stages.size();
+            stages.add(new Stage(index, "stage-" + index, definition.numThreads, definition.capacity, definition.tasks,
+                    definition.shared, false));
+        }
+        if (writer != null) {
+            Task<Object, Object> writerTask = batch -> {
+                ((DataWriter) writer).write(batch);
+                return Collections.emptyList();
+            };
+            stages.add(new Stage(stages.size(), "writer", 1, config.getCapacity(),
+                    Collections.singletonList(writerTask), false, true));
+        }
+    }
+
+    private int getTotalThreads() {
+        int totalThreads = 0;
+        for (Stage stage : stages) {
+            totalThreads += stage.numThreads;
+        }
+        return totalThreads;
+    }
+
+    private void init() {
+        for (Stage stage : stages) {
+            stage.init();
+        }
+        numBatches = 0;
+        timeReading = 0;
+        timeBlockedAtPutRead = 0;
+        interrupted = false;
+        executorService = Executors.newFixedThreadPool(getTotalThreads());
+        exceptions = Collections.synchronizedList(new LinkedList<>());
+    }
+
+    public void run() throws ExecutionException {
+        init();
+
+        long start = System.nanoTime();
+        long auxTime = System.nanoTime();
+        reader.open();
+        reader.pre();
+        timeReading += System.nanoTime() - auxTime;
+
+        if (writer != null) {
+            writer.open();
+            writer.pre();
+        }
+        for (Stage stage : stages) {
+            if (stage.writerStage) {
+                continue;
+            }
+            for (Task<Object, Object> task : stage.tasks) {
+                try {
+                    task.pre();
+                } catch (Exception e) {
+                    executorService.shutdownNow();
+                    throw new ExecutionException(e);
+                }
+            }
+        }
+
+        for (Stage stage : stages) {
+            for (int i = 0; i < stage.numThreads; i++) {
+                executorService.submit(new Worker(stage));
+            }
+        }
+
+        try {
+            readLoop();
+            executorService.shutdown();
+            executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } catch (InterruptedException e) {
+            onInterrupted(e);
+            Thread.currentThread().interrupt();
+        } catch (TimeoutException e) {
+            exceptions.add(e);
+        } finally {
+            if (!executorService.isTerminated()) {
+                executorService.shutdownNow();
+            }
+        }
+
+        if (!interrupted) {
+            for (Stage stage : stages) {
+                if (stage.writerStage) {
+                    continue;
+                }
+                for (Task<Object, Object> task : stage.tasks) {
+                    try {
+                        task.post();
+                    } catch (Exception e) {
+                        exceptions.add(e);
+                    }
+                }
+            }
+            reader.post();
+        }
+        reader.close();
+        if (writer != null) {
+            if (!interrupted) {
+                writer.post();
+            }
+            writer.close();
+        }
+
+        logger.info(toString());
+        logger.info("read:  timeReading                  = " + ParallelTaskRunner.durationToString(timeReading));
+        logger.info("read:  timeBlockedAtPutRead         = " + ParallelTaskRunner.durationToString(timeBlockedAtPutRead));
+        for (Stage stage : stages) {
+            logger.info("{}: threads = {}, batches = {}, stolen batches = {}, timeApply = {}", stage.name, stage.numThreads,
+                    stage.processedBatches.get(), stage.stolenBatches.get(),
+                    ParallelTaskRunner.durationToString(stage.timeApply.get()));
+        }
+        logger.info("total:                              = " + ParallelTaskRunner.durationToString(System.nanoTime() - start));
+
+        if (!exceptions.isEmpty() && (config.isAbortOnFail() || interrupted)) {
+            ExecutionException executionException = new ExecutionException("Error while running ParallelPipelineRunner. Found "
+                    + exceptions.size() + " exceptions.", exceptions.get(0));
+            for (Throwable exception : exceptions.subList(1, exceptions.size())) {
+                executionException.addSuppressed(exception);
+            }
+            throw executionException;
+        }
+    }
+
+    private void readLoop() throws InterruptedException, TimeoutException {
+        Stage first = stages.get(0);
+        try {
+            while (!isAbortPending()) {
+                long auxTime = System.nanoTime();
+                List<I> batch;
+                int position = numBatches++;
+                try {
+                    batch = reader.read(config.getBatchSize());
+                } catch (RuntimeException e) {
+                    logger.error("Error reading batch " + position, e);
+                    exceptions.add(e);
+                    break;
+                }
+                timeReading += System.nanoTime() - auxTime;
+                if (batch == null || batch.isEmpty()) {
+                    break;
+                }
+
+                auxTime = System.nanoTime();
+                first.pending.incrementAndGet();
+                int cntloop = 0;
+                while (!first.queue.offer(toObjectList(batch), ParallelTaskRunner.TIMEOUT_CHECK, TimeUnit.SECONDS)) {
+                    if (isAbortPending()) {
+                        first.pending.decrementAndGet();
+                        break;
+                    }
+                    if ((++cntloop) > config.getReadQueuePutTimeout() / ParallelTaskRunner.TIMEOUT_CHECK) {
+                        first.pending.decrementAndGet();
+                        throw new TimeoutException(String.format("Queue got stuck with %s items!!!", first.queue.size()));
+                    }
+                }
+                timeBlockedAtPutRead += System.nanoTime() - auxTime;
+            }
+        } finally {
+            first.upstreamFinished = true;
+            tryFinish(first);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> toObjectList(List<?> list) {
+        return (List<Object>) list;
+    }
+
+    /**
+     * Record the first interruption only. The other threads are interrupted when shutting down the executor.
+     */
+    private synchronized void onInterrupted(InterruptedException e) {
+        if (!interrupted) {
+            interrupted = true;
+            exceptions.add(e);
+        }
+    }
+
+    private boolean isAbortPending() {
+        return interrupted || config.isAbortOnFail() && !exceptions.isEmpty();
+    }
+
+    private boolean allStagesFinished() {
+        return stages.get(stages.size() - 1).finished;
+    }
+
+    /**
+     * Mark the stage as finished if there are no more pending batches and the upstream stage has finished.
+     * Drains all the tasks from the stage, and propagates the end of the stream to the next stage.
+     *
+     * @param stage Stage to finish
+     * @throws InterruptedException if interrupted while sending the drained elements to the next stage
+     */
+    private void tryFinish(Stage stage) throws InterruptedException {
+        if (stage.finished || !stage.upstreamFinished || stage.pending.get() != 0) {
+            return;
+        }
+        synchronized (stage) {
+            if (stage.finished || stage.pending.get() != 0) {
+                return;
+            }
+            stage.finished = true;
+        }
+        Stage next = stage.next();
+        if (!stage.writerStage && !isAbortPending()) {
+            for (Task<Object, Object> task : stage.tasks) {
+                List<Object> drain;
+                try {
+                    drain = task.drain();
+                } catch (Exception e) {
+                    logger.error("Error draining task from " + stage.name, e);
+                    exceptions.add(e);
+                    continue;
+                }
+                if (next != null && drain != null && !drain.isEmpty()) {
+                    next.pending.incrementAndGet();
+                    forward(next, drain);
+                }
+            }
+        }
+        if (next != null) {
+            next.upstreamFinished = true;
+            tryFinish(next);
+        }
+    }
+
+    /**
+     * Send a batch to the given stage. While the queue is full, help processing batches from that stage.
+     */
+    private void forward(Stage stage, List<Object> batch) throws InterruptedException {
+        while (!stage.queue.offer(batch, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (isAbortPending()) {
+                stage.pending.decrementAndGet();
+                return;
+            }
+            // Avoid deadlocks if all the threads from the next stage are blocked
+            runOnce(stage, 0, true);
+        }
+    }
+
+    /**
+     * Try to process one batch from the given stage.
+     *
+     * @param timeoutMillis Max time to wait for a free task instance, and then for a batch. If 0, do not wait.
+     * @return  If any batch was processed
+     */
+    private boolean runOnce(Stage stage, long timeoutMillis, boolean stolen) throws InterruptedException {
+        if (stage.finished) {
+            return false;
+        }
+        Task<Object, Object> task = timeoutMillis > 0
+                ? stage.idleTasks.poll(timeoutMillis, TimeUnit.MILLISECONDS)
+                : stage.idleTasks.poll();
+        if (task == null) {
+            return false;
+        }
+        List<Object> batch;
+        try {
+            batch = stage.queue.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            stage.idleTasks.add(task);
+            throw e;
+        }
+        if (batch == null) {
+            stage.idleTasks.add(task);
+            return false;
+        }
+        List<Object> result;
+        long start = System.nanoTime();
+        try {
+            result = task.apply(batch);
+        } catch (Exception e) {
+            logger.error("Error processing batch at " + stage.name, e);
+            exceptions.add(e);
+            result = null;
+        } finally {
+            stage.idleTasks.add(task);
+            stage.timeApply.addAndGet(System.nanoTime() - start);
+        }
+        stage.processedBatches.incrementAndGet();
+        if (stolen) {
+            stage.stolenBatches.incrementAndGet();
+        }
+
+        Stage next = stage.next();
+        if (next != null && result != null && !result.isEmpty() && !isAbortPending()) {
+            next.pending.incrementAndGet();
+            forward(next, result);
+        }
+        stage.pending.decrementAndGet();
+        tryFinish(stage);
+        return true;
+    }
+
+    private final class Worker implements Callable<Void> {
+        private final Stage home;
+
+        private Worker(Stage home) {
+            this.home = home;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            try {
+                while (!allStagesFinished() && !isAbortPending()) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedException();
+                    }
+                    if (runOnce(home, 0, false)) {
+                        continue;
+                    }
+                    if (steal()) {
+                        continue;
+                    }
+                    // Nothing to do. Wait for a batch and a free task instance, from the home stage or,
+                    // if finished, from the first unfinished stage after it.
+                    Stage stage = home;
+                    while (stage.finished && stage.next() != null) {
+                        stage = stage.next();
+                    }
+                    runOnce(stage, POLL_TIMEOUT_MILLIS, stage != home);
+                }
+            } catch (InterruptedException e) {
+                onInterrupted(e);
+            } catch (RuntimeException | Error e) {
+                // Recorded here only. The future is not checked.
+                logger.error("Error in worker from " + home.name, e);
+                exceptions.add(e);
+            }
+            return null;
+        }
+
+        private boolean steal() throws InterruptedException {
+            // Start from the last stage, to release memory as soon as possible
+            for (int i = stages.size() - 1; i >= 0; i--) {
+                Stage stage = stages.get(i);
+                if (stage != home && !stage.queue.isEmpty() && runOnce(stage, 0, true)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    public long getStolenBatches(int stage) {
+        return stages.get(stage).stolenBatches.get();
+    }
+
+    public long getProcessedBatches(int stage) {
+        return stages.get(stage).processedBatches.get();
+    }
+
+    public long getTimeTaskApply(int stage, TimeUnit unit) {
+        return unit.convert(stages.get(stage).timeApply.get(), TimeUnit.NANOSECONDS);
+    }
+
+    public List<Throwable> getExceptions() {
+        return exceptions;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Parallel Pipeline Runner [1 reader thread");
+        for (Stage stage : stages) {
+            sb.append(", ").append(stage.numThreads).append(' ').append(stage.name).append(" threads");
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -19,12 +19,18 @@ package org.opencb.commons.run;
 import org.apache.commons.lang3.StringUtils;
 import org.opencb.commons.io.DataReader;
 import org.opencb.commons.io.DataWriter;
+import org.opencb.commons.io.SeekableDataReader;
+import org.opencb.commons.utils.AffinityUtils;
+import org.opencb.commons.utils.ThreadUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.text.DecimalFormat;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 /**
@@ -36,17 +42,51 @@ import java.util.function.Supplier;
  *   R ->  |_|  -> T ->  |_| -> W
  *         |_|  -> T ->  |_|
  *
+ * Multiple readers:
+ * Created with {@link #withReaders}. Each reader runs in its own thread,
+ * feeding the same read queue. The first reader uses the main thread.
+ * Batch positions are assigned in a global order after each read, so
+ * the sorted mode can be used as well.
+ *
+ * Multiple writers:
+ * Use a {@link org.opencb.commons.io.FanOutDataWriter}. Each writer
+ * runs in its own thread with its own bounded queue, so a slow writer
+ * does not stall the worker threads.
+ *
+ * Partitioned runner:
+ * Created with {@link #partitioned}. Each element is routed by a key
+ * to a fixed task, through its own read queue, so the state of each
+ * task is only accessed by one thread. Can not be sorted.
+ *
+ * CPU cells:
+ * Configured with {@link Config.Builder#setNumaAffinity} or
+ * {@link Config.Builder#setCells}. Readers and tasks are split in
+ * cells, one per NUMA node, each with its own read queue, so batches
+ * are processed by threads in the same node that read them. Requires
+ * multiple readers. Threads are pinned to the CPUs of their cell on
+ * Linux, if the "taskset" command is available. Run the JVM with
+ * -XX:+UseNUMA to allocate the memory of each thread in its node.
+ *
+ * Cancellation:
+ * Use {@link #start} to run in background. The returned
+ * {@link ParallelTaskRunnerHandle} can stop reading and drain the
+ * batches in flight, or abort immediately.
+ *
+ * Checkpoint:
+ * Sorted runners can save the number of input elements fully written
+ * in a {@link Checkpoint}, and resume from there on the next execution.
+ *
  * Sorted runner:
  * Require reader, tasks and writer.
- * For each batch read by the reader, a new future will be created
- * and added to the queue. This will ensure the sorted output. The
- * worker threads will complete the future actions
- * ({@link CompletableFuture::complete}), taking them from the
- * CompletableFuture map. The writer will take tasks from the
- * queue, and will {@link Future::get} the batch from the future.
- * If the batch was not read, the thread will be blocked reading
- * from the queue. If the batch was not processed, will be blocked
- * by the future.
+ * The processed batches are sent to a {@link ReorderBuffer}, a
+ * preallocated ring indexed by the position of the batch. Before
+ * reading a new batch, the reader will wait until there is a free
+ * slot for it in the ring. The worker threads will put the processed
+ * batches in their slot, in any order. The writer will take the
+ * batches from the ring strictly in order, and will be blocked if
+ * the next batch was not processed yet.
+ * Batches generated by {@link org.opencb.commons.run.Task#drain}
+ * are written at the end.
  */
 public class ParallelTaskRunner<I, O> {
 
@@ -76,22 +116,48 @@ public class ParallelTaskRunner<I, O> {
     @SuppressWarnings("unchecked")
     private static final Batch POISON_PILL = new Batch(Collections.emptyList(), -1);
 
-    private final DataReader<I> reader;
+    // Empty if there is no reader
+    private final List<DataReader<I>> readers;
     private final DataWriter<O> writer;
     private final List<org.opencb.commons.run.Task<I, O>> tasks;
     private final Config config;
+    // Only for partitioned runners
+    private final Function<? super I, ?> partitionKey;
 
     private final List<TaskRunnable> taskRunnables = new ArrayList<>();
+    private final ParallelTaskRunnerMetrics metrics;
 
-    private ExecutorService executorService;
+    // Volatile, as it is read by abort() from other threads
+    private volatile ExecutorService executorService;
     private BlockingQueue<Batch<I>> readBlockingQueue;
+    // One read queue per task. Only for partitioned runners
+    private List<BlockingQueue<Batch<I>>> partitionQueues;
+    // CPU list of each cell. Only if config.cells
+    private List<String> cells;
+    // One read queue per cell. Only if there are multiple cells
+    private List<BlockingQueue<Batch<I>>> cellQueues;
     // Unsorted blocking queue
     private BlockingQueue<Batch<O>> writeBlockingQueue;
-    // Sorted blocking queue.
-    private BlockingQueue<Future<Batch<O>>> writeBlockingQueueFuture;
-    private Map<Integer, CompletableFuture<Batch<O>>> writeBlockingQueueFutureMap;
-
-    private int numBatches = 0;
+    // Sorted reorder buffer.
+    private ReorderBuffer<Batch<O>> writeReorderBuffer;
+    private Queue<Batch<O>> writeDrainQueue;
+    // Only if config.adaptiveBatchSize
+    private AdaptiveBatchSize adaptiveBatchSize;
+    // Only if config.recycleBatches
+    private BlockingQueue<List<I>> batchPool;
+    // Only if config.scheduler
+    private FairShareScheduler.Job schedulerJob;
+    // Only if config.checkpoint. Only modified by the writer thread.
+    private long checkpointPosition;
+    private int batchesSinceCheckpoint;
+    private boolean checkpointBroken;
+
+    // Set from other threads with a ParallelTaskRunnerHandle
+    private volatile boolean stopReading = false;
+    private volatile boolean aborted = false;
+
+    private final AtomicInteger numBatches = new AtomicInteger();
+    private final AtomicInteger activeReaders = new AtomicInteger();
     private int finishedTasks = 0;
     private long timeBlockedAtPutRead = 0;
     private long timeBlockedAtTakeRead = 0;
@@ -102,6 +168,7 @@ public class ParallelTaskRunner<I, O> {
     private long timeWriting;
 
     private List<Future> futureTasks;
+    private List<Future> readerFutures;
     private List<Throwable> exceptions;
     private List<Error> errors;
     // Main thread interruptions
@@ -128,6 +195,41 @@ public class ParallelTaskRunner<I, O> {
             this.abortOnFail = abortOnFail;
             this.sorted = sorted;
             this.readQueuePutTimeoutSeconds = readQueuePutTimeoutSeconds;
+            this.useVirtualThreads = false;
+            this.adaptiveBatchSize = false;
+            this.minBatchSize = batchSize;
+            this.maxBatchSize = batchSize;
+            this.targetBatchLatencyNanos = 0;
+            this.checkpoint = null;
+            this.checkpointInterval = 0;
+            this.recycleBatches = false;
+            this.scheduler = null;
+            this.schedulerWeight = 0;
+            this.readRateLimiter = null;
+            this.writeRateLimiter = null;
+            this.cells = null;
+        }
+
+        private Config(Builder builder) {
+            this.numTasks = builder.numTasks;
+            this.batchSize = builder.batchSize;
+            this.capacity = builder.capacity;
+            this.abortOnFail = builder.abortOnFail;
+            this.sorted = builder.sorted;
+            this.readQueuePutTimeoutSeconds = builder.readQueuePutTimeoutSeconds;
+            this.useVirtualThreads = builder.useVirtualThreads;
+            this.adaptiveBatchSize = builder.adaptiveBatchSize;
+            this.minBatchSize = builder.minBatchSize;
+            this.maxBatchSize = builder.maxBatchSize;
+            this.targetBatchLatencyNanos = builder.targetBatchLatencyNanos;
+            this.checkpoint = builder.checkpoint;
+            this.checkpointInterval = builder.checkpointInterval;
+            this.recycleBatches = builder.recycleBatches;
+            this.scheduler = builder.scheduler;
+            this.schedulerWeight = builder.schedulerWeight;
+            this.readRateLimiter = builder.readRateLimiter;
+            this.writeRateLimiter = builder.writeRateLimiter;
+            this.cells = builder.cells;
         }
 
         public static Builder builder() {
@@ -141,6 +243,19 @@ public class ParallelTaskRunner<I, O> {
             private boolean sorted = false;
             private boolean abortOnFail = true;
             private int readQueuePutTimeoutSeconds = 500;
+            private boolean useVirtualThreads = false;
+            private boolean adaptiveBatchSize = false;
+            private int minBatchSize;
+            private int maxBatchSize;
+            private long targetBatchLatencyNanos;
+            private Checkpoint checkpoint;
+            private int checkpointInterval;
+            private boolean recycleBatches = false;
+            private FairShareScheduler scheduler;
+            private double schedulerWeight;
+            private RateLimiter readRateLimiter;
+            private RateLimiter writeRateLimiter;
+            private List<String> cells;
 
             public Builder setNumTasks(int numTasks) {
                 this.numTasks = numTasks;
@@ -176,11 +291,160 @@ public class ParallelTaskRunner<I, O> {
                 return this;
             }
 
+            /**
+             * Run the task and writer threads on virtual threads. Requires Java 21+.
+             * Intended for I/O-bound tasks, where numTasks could be in the order of thousands.
+             * If the JVM does not support virtual threads, platform threads will be used.
+             *
+             * @param useVirtualThreads Use virtual threads
+             * @return this
+             */
+            public Builder setUseVirtualThreads(boolean useVirtualThreads) {
+                this.useVirtualThreads = useVirtualThreads;
+                return this;
+            }
+
+            /**
+             * Adapt the batch size requested to the reader while running. The batch size will be the number of
+             * elements that can be read, processed and written in the target latency, given the measured time per
+             * element. The batch size set with {@link #setBatchSize} is used as initial batch size.
+             *
+             * @param minBatchSize          Min batch size
+             * @param maxBatchSize          Max batch size
+             * @param targetBatchLatency    Target time to read, process and write a batch
+             * @param timeUnit              Time unit of the target latency
+             * @return this
+             */
+            public Builder setAdaptiveBatchSize(int minBatchSize, int maxBatchSize, long targetBatchLatency, TimeUnit timeUnit) {
+                this.adaptiveBatchSize = true;
+                this.minBatchSize = minBatchSize;
+                this.maxBatchSize = maxBatchSize;
+                this.targetBatchLatencyNanos = timeUnit.toNanos(targetBatchLatency);
+                return this;
+            }
+
+            /**
+             * Save the progress of the runner every few batches, and resume from the last saved position.
+             * Requires a sorted runner with a single {@link org.opencb.commons.io.SeekableDataReader}.
+             * The checkpoint is cleared after a successful execution.
+             * Not valid for tasks that keep elements to return them in {@link Task#drain()}.
+             *
+             * @param checkpoint            Checkpoint where to load and save the progress
+             * @param checkpointInterval    Number of written batches between each save
+             * @return this
+             * @see Checkpoint
+             */
+            public Builder setCheckpoint(Checkpoint checkpoint, int checkpointInterval) {
+                this.checkpoint = checkpoint;
+                this.checkpointInterval = checkpointInterval;
+                return this;
+            }
+
+            /**
+             * Reuse the lists of the read batches once the writer has written them, or once the task has
+             * processed them if there is no writer. The reader fills the recycled lists with
+             * {@link DataReader#readInto}, and can reuse the old elements.
+             *
+             * Tasks and writers must not keep references to the input batches, or to its elements if the
+             * reader reuses them, after the batch is written.
+             *
+             * @param recycleBatches Recycle batches
+             * @return this
+             */
+            public Builder setRecycleBatches(boolean recycleBatches) {
+                this.recycleBatches = recycleBatches;
+                return this;
+            }
+
+            /**
+             * Share the workers with other runners using the same scheduler. Each call to {@link Task#apply} will wait
+             * for a worker of the scheduler, so the total number of tasks running at the same time in all the runners
+             * is limited, and shared between the runners proportionally to their weight.
+             *
+             * @param scheduler Shared scheduler. e.g. {@link FairShareScheduler#getDefault()}
+             * @param weight    Weight of this runner. Use higher weights for interactive jobs.
+             * @return this
+             */
+            public Builder setScheduler(FairShareScheduler scheduler, double weight) {
+                this.scheduler = scheduler;
+                this.schedulerWeight = weight;
+                return this;
+            }
+
+            /**
+             * Limit the throughput of the readers. The limiter is shared by all the readers, and its rate
+             * can be changed while running.
+             *
+             * @param readRateLimiter Rate limiter. e.g. {@link RateLimiter#elementsPerSecond}
+             * @return this
+             */
+            public Builder setReadRateLimiter(RateLimiter readRateLimiter) {
+                this.readRateLimiter = readRateLimiter;
+                return this;
+            }
+
+            /**
+             * Limit the throughput of the writer, to avoid saturating a shared destination. The rate can be changed
+             * while running. As the writer thread blocks, the queues will fill up and will slow down the readers.
+             *
+             * @param writeRateLimiter Rate limiter. e.g. {@link RateLimiter#bytesPerSecond}
+             * @return this
+             */
+            public Builder setWriteRateLimiter(RateLimiter writeRateLimiter) {
+                this.writeRateLimiter = writeRateLimiter;
+                return this;
+            }
+
+            /**
+             * Split readers and tasks in one cell per NUMA node of this machine. See {@link #setCells}.
+             * Does nothing if the machine has only one node.
+             *
+             * @param numaAffinity Use NUMA cells
+             * @return this
+             */
+            public Builder setNumaAffinity(boolean numaAffinity) {
+                if (numaAffinity) {
+                    List<String> numaNodes = AffinityUtils.getNumaNodes();
+                    this.cells = numaNodes.size() > 1 ? numaNodes : null;
+                } else {
+                    this.cells = null;
+                }
+                return this;
+            }
+
+            /**
+             * Split readers and tasks in cells. Reader and task number i go to the cell i % numCells. Each cell has
+             * its own read queue, and its threads are pinned to the CPUs of the cell, when supported.
+             * The number of cells is limited by the number of readers and tasks.
+             *
+             * @param cells CPU list of each cell, like "0-15,32-47"
+             * @return this
+             */
+            public Builder setCells(List<String> cells) {
+                this.cells = cells == null || cells.isEmpty() ? null : new ArrayList<>(cells);
+                return this;
+            }
+
             public ParallelTaskRunner.Config build() {
+                if (scheduler != null && !(schedulerWeight > 0)) {
+                    throw new IllegalArgumentException("Scheduler weight must be positive");
+                }
+                if (checkpoint != null) {
+                    if (!sorted) {
+                        throw new IllegalArgumentException("Checkpoint requires a sorted ParallelTaskRunner");
+                    }
+                    if (checkpointInterval <= 0) {
+                        throw new IllegalArgumentException("Checkpoint interval must be positive");
+                    }
+                }
+                if (!adaptiveBatchSize) {
+                    minBatchSize = batchSize;
+                    maxBatchSize = batchSize;
+                }
                 if (capacity < 0) {
                     capacity = numTasks * 2;
                 }
-                return new ParallelTaskRunner.Config(numTasks, batchSize, capacity, abortOnFail, sorted, readQueuePutTimeoutSeconds);
+                return new ParallelTaskRunner.Config(this);
             }
         }
 
@@ -190,6 +454,19 @@ public class ParallelTaskRunner<I, O> {
         private final boolean abortOnFail;
         private final boolean sorted;
         private final int readQueuePutTimeoutSeconds;
+        private final boolean useVirtualThreads;
+        private final boolean adaptiveBatchSize;
+        private final int minBatchSize;
+        private final int maxBatchSize;
+        private final long targetBatchLatencyNanos;
+        private final Checkpoint checkpoint;
+        private final boolean recycleBatches;
+        private final FairShareScheduler scheduler;
+        private final double schedulerWeight;
+        private final RateLimiter readRateLimiter;
+        private final RateLimiter writeRateLimiter;
+        private final List<String> cells;
+        private final int checkpointInterval;
 
         public int getNumTasks() {
             return numTasks;
@@ -218,15 +495,77 @@ public class ParallelTaskRunner<I, O> {
         public int getReadQueuePutTimeout(TimeUnit timeUnit) {
             return (int) timeUnit.convert(readQueuePutTimeoutSeconds, TimeUnit.SECONDS);
         }
+
+        public boolean isUseVirtualThreads() {
+            return useVirtualThreads;
+        }
+
+        public boolean isAdaptiveBatchSize() {
+            return adaptiveBatchSize;
+        }
+
+        public int getMinBatchSize() {
+            return minBatchSize;
+        }
+
+        public int getMaxBatchSize() {
+            return maxBatchSize;
+        }
+
+        public long getTargetBatchLatency(TimeUnit timeUnit) {
+            return timeUnit.convert(targetBatchLatencyNanos, TimeUnit.NANOSECONDS);
+        }
+
+        public Checkpoint getCheckpoint() {
+            return checkpoint;
+        }
+
+        public int getCheckpointInterval() {
+            return checkpointInterval;
+        }
+
+        public boolean isRecycleBatches() {
+            return recycleBatches;
+        }
+
+        public FairShareScheduler getScheduler() {
+            return scheduler;
+        }
+
+        public double getSchedulerWeight() {
+            return schedulerWeight;
+        }
+
+        public RateLimiter getReadRateLimiter() {
+            return readRateLimiter;
+        }
+
+        public RateLimiter getWriteRateLimiter() {
+            return writeRateLimiter;
+        }
+
+        public List<String> getCells() {
+            return cells == null ? null : Collections.unmodifiableList(cells);
+        }
     }
 
     private static final class Batch<T> implements Comparable<Batch<T>> {
         private final List<T> batch;
         private final int position;
+        // Number of read elements that generated this batch. Negative if the task failed.
+        private final int inputSize;
+        // Read batch that generated this batch, to be recycled after writing it
+        private final List<?> input;
 
         private Batch(List<T> batch, int position) {
+            this(batch, position, batch == null ? 0 : batch.size(), null);
+        }
+
+        private Batch(List<T> batch, int position, int inputSize, List<?> input) {
             this.batch = batch;
             this.position = position;
+            this.inputSize = inputSize;
+            this.input = input;
         }
 
         @Override
@@ -243,15 +582,7 @@ public class ParallelTaskRunner<I, O> {
      * @throws IllegalArgumentException Exception.
      */
     public ParallelTaskRunner(DataReader<I> reader, org.opencb.commons.run.Task<I, O> task, DataWriter<O> writer, Config config) {
-        this.config = config;
-        this.reader = reader;
-        this.writer = writer;
-        this.tasks = new ArrayList<>(config.numTasks);
-        for (int i = 0; i < config.numTasks; i++) {
-            tasks.add(task);
-        }
-
-        check();
+        this(config, asList(reader), Collections.nCopies(config.numTasks, task), writer);
     }
 
     /**
@@ -263,15 +594,7 @@ public class ParallelTaskRunner<I, O> {
      */
     public ParallelTaskRunner(DataReader<I> reader, Supplier<? extends org.opencb.commons.run.Task<I, O>> taskSupplier,
                               DataWriter<O> writer, Config config) {
-        this.config = config;
-        this.reader = reader;
-        this.writer = writer;
-        this.tasks = new ArrayList<>(config.numTasks);
-        for (int i = 0; i < config.numTasks; i++) {
-            tasks.add(taskSupplier.get());
-        }
-
-        check();
+        this(config, asList(reader), supplyTasks(taskSupplier, config.numTasks), writer);
     }
 
     /**
@@ -283,16 +606,115 @@ public class ParallelTaskRunner<I, O> {
      */
     public ParallelTaskRunner(DataReader<I> reader, List<? extends org.opencb.commons.run.Task<I, O>> tasks,
                               DataWriter<O> writer, Config config) {
+        this(config, asList(reader), tasks, writer);
+    }
+
+    private ParallelTaskRunner(Config config, List<? extends DataReader<I>> readers,
+                               List<? extends org.opencb.commons.run.Task<I, O>> tasks, DataWriter<O> writer) {
+        this(config, readers, tasks, writer, null);
+    }
+
+    private ParallelTaskRunner(Config config, List<? extends DataReader<I>> readers,
+                               List<? extends org.opencb.commons.run.Task<I, O>> tasks, DataWriter<O> writer,
+                               Function<? super I, ?> partitionKey) {
         this.config = config;
-        this.reader = reader;
+        this.partitionKey = partitionKey;
+        this.readers = new ArrayList<>(readers);
         this.writer = writer;
-        this.tasks = new ArrayList<>(tasks);
+        this.tasks = tasks == null ? null : new ArrayList<>(tasks);
 
         check();
+        this.metrics = new ParallelTaskRunnerMetrics(this.readers.size(), this.tasks.size(), this::getReadQueueSize,
+                this::getWriteQueueSize);
+    }
+
+    /**
+     * Create a ParallelTaskRunner with multiple readers. Each reader will run in a different thread.
+     * A splittable input can be processed in parallel by providing one reader per split.
+     *
+     * @param readers Readers. Can't be empty.
+     * @param task    Task to be used. Will be used the same instance in all threads
+     * @param writer  Unique DataWriter. If null, data generated by the task will be lost.
+     * @param config  configuration.
+     * @param <I>     Input type
+     * @param <O>     Output type
+     * @return        The ParallelTaskRunner
+     * @throws IllegalArgumentException Exception.
+     */
+    public static <I, O> ParallelTaskRunner<I, O> withReaders(List<? extends DataReader<I>> readers,
+                                                              org.opencb.commons.run.Task<I, O> task,
+                                                              DataWriter<O> writer, Config config) {
+        return new ParallelTaskRunner<>(config, checkReaders(readers), Collections.nCopies(config.numTasks, task), writer);
+    }
+
+    /**
+     * Create a ParallelTaskRunner with multiple readers. Each reader will run in a different thread.
+     * A splittable input can be processed in parallel by providing one reader per split.
+     *
+     * @param readers      Readers. Can't be empty.
+     * @param taskSupplier TaskGenerator. Will generate a new task for each thread.
+     * @param writer       Unique DataWriter. If null, data generated by the task will be lost.
+     * @param config       configuration.
+     * @param <I>          Input type
+     * @param <O>          Output type
+     * @return             The ParallelTaskRunner
+     * @throws IllegalArgumentException Exception.
+     */
+    public static <I, O> ParallelTaskRunner<I, O> withReaders(List<? extends DataReader<I>> readers,
+                                                              Supplier<? extends org.opencb.commons.run.Task<I, O>> taskSupplier,
+                                                              DataWriter<O> writer, Config config) {
+        return new ParallelTaskRunner<>(config, checkReaders(readers), supplyTasks(taskSupplier, config.numTasks), writer);
+    }
+
+    /**
+     * Create a partitioned ParallelTaskRunner. Each element is sent to the task given by the hash of its key,
+     * so all the elements with the same key are processed by the same task instance, always from the same thread.
+     * Stateful tasks, like per key aggregations, do not need any synchronization.
+     *
+     * Each task has its own read queue. A skewed key distribution will leave some threads idle,
+     * and might block the reader while the queue of the busiest task is full.
+     *
+     * @param reader       Unique DataReader.
+     * @param partitionKey Function to get the key of each element. Elements with a null key are sent to the first task.
+     * @param taskSupplier TaskGenerator. Will generate a new task for each partition.
+     * @param writer       Unique DataWriter. If null, data generated by the task will be lost.
+     * @param config       configuration. Can not be sorted.
+     * @param <I>          Input type
+     * @param <O>          Output type
+     * @return             The ParallelTaskRunner
+     * @throws IllegalArgumentException Exception.
+     */
+    public static <I, O> ParallelTaskRunner<I, O> partitioned(DataReader<I> reader, Function<? super I, ?> partitionKey,
+                                                              Supplier<? extends org.opencb.commons.run.Task<I, O>> taskSupplier,
+                                                              DataWriter<O> writer, Config config) {
+        if (partitionKey == null) {
+            throw new IllegalArgumentException("Missing partition key");
+        }
+        return new ParallelTaskRunner<>(config, checkReaders(asList(reader)), supplyTasks(taskSupplier, config.numTasks), writer,
+                partitionKey);
+    }
+
+    private static <I> List<DataReader<I>> asList(DataReader<I> reader) {
+        return reader == null ? Collections.emptyList() : Collections.singletonList(reader);
+    }
+
+    private static <I> List<? extends DataReader<I>> checkReaders(List<? extends DataReader<I>> readers) {
+        if (readers == null || readers.isEmpty() || readers.contains(null)) {
+            throw new IllegalArgumentException("Must provide at least one reader, and can't contain null readers");
+        }
+        return readers;
+    }
+
+    private static <T> List<T> supplyTasks(Supplier<? extends T> taskSupplier, int numTasks) {
+        List<T> tasks = new ArrayList<>(numTasks);
+        for (int i = 0; i < numTasks; i++) {
+            tasks.add(taskSupplier.get());
+        }
+        return tasks;
     }
 
     private void check()  {
-        if (reader == null && config.sorted) {
+        if (readers.isEmpty() && config.sorted) {
             throw new IllegalArgumentException("Unable to execute a sorted ParallelTaskRunner without a reader!!");
         }
         if (writer == null && config.sorted) {
@@ -304,30 +726,210 @@ public class ParallelTaskRunner<I, O> {
         if (tasks.size() != config.numTasks) {
             logger.warn("Different number of provided tasks ({}) than numTasks in configuration ({})", tasks.size(), config.numTasks);
         }
+        if (partitionKey != null) {
+            if (config.sorted) {
+                throw new IllegalArgumentException("Unable to execute a sorted partitioned ParallelTaskRunner");
+            }
+            if (new HashSet<>(tasks).size() != tasks.size()) {
+                throw new IllegalArgumentException("Partitioned ParallelTaskRunner requires one task instance per partition");
+            }
+            if (config.cells != null) {
+                throw new IllegalArgumentException("Unable to execute a partitioned ParallelTaskRunner with CPU cells");
+            }
+        }
+        if (config.checkpoint != null) {
+            if (readers.size() != 1 || !(readers.get(0) instanceof SeekableDataReader)) {
+                throw new IllegalArgumentException("Checkpoint requires a single SeekableDataReader");
+            }
+            if (writer == null) {
+                throw new IllegalArgumentException("Checkpoint requires a writer");
+            }
+        }
         return;
     }
 
+    @SuppressWarnings("unchecked")
+    private void resumeFromCheckpoint() throws ExecutionException {
+        try {
+            checkpointPosition = config.checkpoint.load();
+        } catch (IOException e) {
+            throw new ExecutionException("Unable to load checkpoint " + config.checkpoint, e);
+        }
+        if (checkpointPosition > 0) {
+            logger.info("Resume from checkpoint. Skip first {} elements", checkpointPosition);
+            ((SeekableDataReader<I>) readers.get(0)).seek(checkpointPosition);
+        }
+    }
+
+    /**
+     * Update the checkpoint position with a written batch. Called from the writer thread.
+     *
+     * @param batch Written batch
+     */
+    private void updateCheckpoint(Batch<O> batch) {
+        if (checkpointBroken) {
+            return;
+        }
+        if (batch.inputSize < 0) {
+            // Failed batch. Following batches are not contiguous
+            checkpointBroken = true;
+            return;
+        }
+        checkpointPosition += batch.inputSize;
+        batchesSinceCheckpoint++;
+        if (batchesSinceCheckpoint >= config.checkpointInterval) {
+            saveCheckpoint();
+        }
+    }
+
+    private void saveCheckpoint() {
+        if (checkpointBroken) {
+            return;
+        }
+        try {
+            config.checkpoint.save(checkpointPosition);
+            batchesSinceCheckpoint = 0;
+        } catch (IOException e) {
+            // Do not fail the job. Retry on the next batch.
+            logger.warn("Unable to save checkpoint " + config.checkpoint + " at position " + checkpointPosition, e);
+        }
+    }
+
+    private void clearCheckpoint() {
+        try {
+            config.checkpoint.clear();
+        } catch (IOException e) {
+            logger.warn("Unable to clear checkpoint " + config.checkpoint, e);
+        }
+    }
+
+    /**
+     * @param batch Read batch
+     * @return The batch list, if it has to be recycled after writing it.
+     */
+    private List<I> recyclable(Batch<I> batch) {
+        return batchPool == null ? null : batch.batch;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void recycle(List<?> list) {
+        if (batchPool != null && list != null) {
+            // If the pool is full, discard the list
+            batchPool.offer((List<I>) list);
+        }
+    }
+
     private void init() {
         finishedTasks = 0;
-        if (reader != null) {
+        if (config.adaptiveBatchSize) {
+            adaptiveBatchSize = new AdaptiveBatchSize(config.batchSize, config.minBatchSize, config.maxBatchSize,
+                    config.targetBatchLatencyNanos);
+        }
+        numBatches.set(0);
+        checkpointPosition = 0;
+        batchesSinceCheckpoint = 0;
+        checkpointBroken = false;
+        if (config.scheduler != null) {
+            schedulerJob = config.scheduler.register("ParallelTaskRunner-" + Integer.toHexString(System.identityHashCode(this)),
+                    config.schedulerWeight);
+        }
+        if (config.recycleBatches && !readers.isEmpty() && partitionKey == null) {
+            // Enough for all the batches in flight
+            batchPool = new ArrayBlockingQueue<>(config.capacity * 2 + tasks.size() + readers.size() + 1);
+        } else {
+            batchPool = null;
+        }
+        if (!readers.isEmpty() && partitionKey == null) {
             readBlockingQueue = new ArrayBlockingQueue<>(config.capacity);
         }
+        if (partitionKey != null) {
+            partitionQueues = new ArrayList<>(tasks.size());
+            for (int i = 0; i < tasks.size(); i++) {
+                partitionQueues.add(new ArrayBlockingQueue<>(config.capacity));
+            }
+        } else {
+            partitionQueues = null;
+        }
+        initCells();
 
         if (writer != null) {
             if (config.sorted) {
-                writeBlockingQueueFuture = new ArrayBlockingQueue<>(config.capacity);
-                writeBlockingQueueFutureMap = new ConcurrentHashMap<>();
+                writeReorderBuffer = new ReorderBuffer<>(config.capacity);
+                writeDrainQueue = new ConcurrentLinkedQueue<>();
             } else {
                 writeBlockingQueue = new ArrayBlockingQueue<>(config.capacity);
             }
         }
 
-        executorService = Executors.newFixedThreadPool(tasks.size() + (writer == null ? 0 : 1));
-        futureTasks = new ArrayList<Future>(); // assume no parallel access to this list
+        // The first reader uses the main thread
+        int extraReaders = Math.max(0, readers.size() - 1);
+        executorService = newExecutorService(tasks.size() + (writer == null ? 0 : 1) + extraReaders);
+        if (aborted) {
+            // Aborted before the executor existed
+            executorService.shutdownNow();
+        }
+        futureTasks = Collections.synchronizedList(new ArrayList<>());
+        readerFutures = new ArrayList<>(extraReaders);
         exceptions = Collections.synchronizedList(new LinkedList<>());
         interruptions = Collections.synchronizedList(new LinkedList<>());
     }
 
+    private void initCells() {
+        cellQueues = null;
+        if (config.cells == null) {
+            cells = null;
+            return;
+        }
+        // Every cell needs at least one reader and one task
+        int numCells = Math.max(1, Math.min(config.cells.size(), Math.min(Math.max(1, readers.size()), tasks.size())));
+        if (numCells < config.cells.size()) {
+            logger.info("Using {} of {} CPU cells. Not enough readers or tasks", numCells, config.cells.size());
+        }
+        cells = config.cells.subList(0, numCells);
+        if (numCells > 1) {
+            cellQueues = new ArrayList<>(numCells);
+            for (int i = 0; i < numCells; i++) {
+                cellQueues.add(new ArrayBlockingQueue<>(config.capacity));
+            }
+            readBlockingQueue = null;
+        }
+        if (config.useVirtualThreads) {
+            logger.info("Threads not pinned to CPU cells when using virtual threads");
+        } else if (!AffinityUtils.isSupported()) {
+            logger.warn("CPU affinity not supported in this system. Threads not pinned to CPU cells.");
+        }
+    }
+
+    /**
+     * Pin the current thread to the CPUs of a cell, if any.
+     *
+     * @param index Index of the reader or task
+     * @return Previous affinity, or null if not changed
+     */
+    private String pinToCell(int index) {
+        List<String> cpuCells = this.cells;
+        if (cpuCells == null || config.useVirtualThreads) {
+            return null;
+        }
+        return AffinityUtils.setCurrentThreadAffinity(cpuCells.get(index % cpuCells.size()));
+    }
+
+    private BlockingQueue<Batch<I>> getCellQueue(int index) {
+        return cellQueues == null ? readBlockingQueue : cellQueues.get(index % cellQueues.size());
+    }
+
+    private ExecutorService newExecutorService(int numThreads) {
+        if (config.useVirtualThreads) {
+            ExecutorService virtualThreadExecutor = ThreadUtils.newVirtualThreadPerTaskExecutor();
+            if (virtualThreadExecutor != null) {
+                return virtualThreadExecutor;
+            }
+            logger.warn("Virtual threads not supported in this JVM (Java {}). Using {} platform threads.",
+                    System.getProperty("java.version"), numThreads);
+        }
+        return Executors.newFixedThreadPool(numThreads);
+    }
+
     public void run() throws ExecutionException {
         try {
             run(Long.MAX_VALUE, TimeUnit.DAYS);
@@ -337,17 +939,73 @@ public class ParallelTaskRunner<I, O> {
         }
     }
 
+    /**
+     * Run in a new thread.
+     *
+     * @return Handle to follow the progress, and to cancel or wait for the execution.
+     */
+    public ParallelTaskRunnerHandle start() {
+        ParallelTaskRunnerHandle handle = new ParallelTaskRunnerHandle(this);
+        handle.start();
+        return handle;
+    }
+
+    /**
+     * Stop reading. The batches already read are processed and written, and the tasks are drained, as if the
+     * input had finished.
+     */
+    void stopReading() {
+        stopReading = true;
+    }
+
+    /**
+     * Stop as soon as possible, interrupting the worker threads. Post steps are skipped.
+     */
+    void abort() {
+        aborted = true;
+        stopReading = true;
+        ExecutorService executorService = this.executorService;
+        if (executorService != null) {
+            executorService.shutdownNow();
+        }
+    }
+
     public void run(long timeout, TimeUnit unit) throws ExecutionException, InterruptedException {
+        boolean completed = false;
+        try {
+            doRun(timeout, unit);
+            completed = true;
+        } finally {
+            // Also on early failures, so the scheduler does not keep a dead job
+            metrics.stop();
+            stopReading = false;
+            aborted = false;
+            if (schedulerJob != null) {
+                schedulerJob.close();
+                schedulerJob = null;
+            }
+            ExecutorService executorService = this.executorService;
+            if (!completed && executorService != null && !executorService.isShutdown()) {
+                // Failed before starting the threads
+                executorService.shutdownNow();
+            }
+        }
+    }
+
+    private void doRun(long timeout, TimeUnit unit) throws ExecutionException, InterruptedException {
         long start = System.nanoTime();
         //If there is any InterruptionException, finish as quick as possible.
         boolean interrupted = false;
         init();
 
         long auxTime = System.nanoTime();
-        if (reader != null) {
+        for (DataReader<I> reader : readers) {
             reader.open();
             reader.pre();
         }
+        if (config.checkpoint != null) {
+            resumeFromCheckpoint();
+        }
         timeReading += System.nanoTime() - auxTime;
 
         auxTime = System.nanoTime();
@@ -366,15 +1024,35 @@ public class ParallelTaskRunner<I, O> {
             }
         }
 
-        for (org.opencb.commons.run.Task<I, O> task : tasks) {
-            doSubmit(new TaskRunnable(task));
+        metrics.start();
+        for (int i = 0; i < tasks.size(); i++) {
+            doSubmit(new TaskRunnable(tasks.get(i), i));
         }
         if (writer != null) {
             doSubmit(new WriterRunnable(writer));
         }
+        activeReaders.set(readers.size());
+        for (int i = 1; i < readers.size(); i++) {
+            DataReader<I> reader = readers.get(i);
+            int readerIndex = i;
+            Future<Void> future = submit(() -> {
+                try {
+                    readLoop(reader, readerIndex);
+                } catch (TimeoutException | ExecutionException | RuntimeException e) {
+                    logger.error("Error in reader thread", e);
+                    exceptions.add(e);
+                    // Same as if the main thread reader failed
+                    executorService.shutdownNow();
+                }
+                return null;
+            });
+            if (future != null) {
+                readerFutures.add(future);
+            }
+        }
         try {
-            if (reader != null) {
-                interrupted = readLoop();  //Use the main thread for reading
+            if (!readers.isEmpty()) {
+                interrupted = readLoop(readers.get(0), 0);  //Use the main thread for reading
             }
 
             executorService.shutdown();
@@ -401,7 +1079,7 @@ public class ParallelTaskRunner<I, O> {
         int shutdownRetries = 0;
         try {
             // Wait extra time
-            if (!executorService.isTerminated()) {
+            if (!executorService.isTerminated() && !aborted) {
                 executorService.awaitTermination(EXTRA_AWAIT_TERMINATION_TIMEOUT, TimeUnit.MILLISECONDS);
             }
             while (!executorService.isTerminated() && shutdownRetries < MAX_SHUTDOWN_RETRIES) {
@@ -409,7 +1087,10 @@ public class ParallelTaskRunner<I, O> {
                 executorService.awaitTermination(RETRY_AWAIT_TERMINATION_TIMEOUT, TimeUnit.MILLISECONDS);
                 logger.debug("Executor is not terminated!! Shutdown now! - " + shutdownRetries);
                 executorService.shutdownNow();
-                for (Future future : futureTasks) {
+                for (Future future : new ArrayList<>(futureTasks)) {
+                    future.cancel(true);
+                }
+                for (Future future : readerFutures) {
                     future.cancel(true);
                 }
             }
@@ -420,9 +1101,13 @@ public class ParallelTaskRunner<I, O> {
             interrupted = true;
         }
 
-        // If interrupted, skip POST steps. Only close.
+        // If interrupted or aborted, skip POST steps. Only close.
+        boolean abortedRun = aborted;
+        if (abortedRun) {
+            logger.warn("ParallelTaskRunner aborted");
+        }
 
-        if (!interrupted) {
+        if (!interrupted && !abortedRun) {
             for (org.opencb.commons.run.Task<I, O> task : tasks) {
                 try {
                     task.post();
@@ -433,8 +1118,8 @@ public class ParallelTaskRunner<I, O> {
             }
         }
         auxTime = System.nanoTime();
-        if (reader != null) {
-            if (!interrupted) {
+        for (DataReader<I> reader : readers) {
+            if (!interrupted && !abortedRun) {
                 reader.post();
             }
             reader.close();
@@ -443,15 +1128,18 @@ public class ParallelTaskRunner<I, O> {
 
         auxTime = System.nanoTime();
         if (writer != null) {
-            if (!interrupted) {
+            if (!interrupted && !abortedRun) {
                 writer.post();
+                if (config.checkpoint != null && exceptions.isEmpty()) {
+                    clearCheckpoint();
+                }
             }
             writer.close();
         }
         timeWriting += System.nanoTime() - auxTime;
 
         logger.info(toString());
-        if (reader != null) {
+        if (!readers.isEmpty()) {
             logger.info("read:  timeReading                  = " + durationToString(timeReading));
             logger.info("read:  timeBlockedAtPutRead         = " + durationToString(timeBlockedAtPutRead));
             logger.info("task:  timeBlockedAtTakeRead        = " + durationToString(timeBlockedAtTakeRead) + " (total)"
@@ -468,8 +1156,14 @@ public class ParallelTaskRunner<I, O> {
             logger.info("write: timeWriting                  = " + durationToString(timeWriting));
         }
 
+        if (adaptiveBatchSize != null) {
+            logger.info("read:  final batch size             = " + adaptiveBatchSize.getBatchSize());
+        }
         logger.info("total:                              = " + durationToString(System.nanoTime() - start));
 
+        if (abortedRun) {
+            throw new CancellationException("ParallelTaskRunner aborted");
+        }
         if (config.abortOnFail && !exceptions.isEmpty()) {
             throw buildExecutionException("Error while running ParallelTaskRunner. Found " + exceptions.size() + " exceptions.",
                     exceptions);
@@ -492,7 +1186,7 @@ public class ParallelTaskRunner<I, O> {
         return executionException;
     }
 
-    private static String durationToString(long durationInNanos) {
+    static String durationToString(long durationInNanos) {
         long durationInMillis = TimeUnit.NANOSECONDS.toMillis(durationInNanos);
         long durationInSeconds = Math.round(durationInMillis / 1000.0);
         long h = durationInSeconds / 3600;
@@ -540,19 +1234,72 @@ public class ParallelTaskRunner<I, O> {
         return TimeUnit.NANOSECONDS.convert(timeTaskApply, unit);
     }
 
+    /**
+     * @return Live metrics of the runner. Can be read while running.
+     */
+    public ParallelTaskRunnerMetrics getMetrics() {
+        return metrics;
+    }
+
+    private int getReadQueueSize() {
+        List<BlockingQueue<Batch<I>>> queues = partitionQueues == null ? cellQueues : partitionQueues;
+        if (queues != null) {
+            return queues.stream().mapToInt(BlockingQueue::size).sum();
+        }
+        BlockingQueue<Batch<I>> queue = readBlockingQueue;
+        return queue == null ? 0 : queue.size();
+    }
+
+    private int getWriteQueueSize() {
+        BlockingQueue<Batch<O>> queue = writeBlockingQueue;
+        if (queue != null) {
+            return queue.size();
+        }
+        ReorderBuffer<Batch<O>> buffer = writeReorderBuffer;
+        return buffer == null ? 0 : buffer.size();
+    }
+
+    /**
+     * @return Current batch size requested to the reader. Might change over time if using adaptive batch size.
+     */
+    public int getBatchSize() {
+        return adaptiveBatchSize == null ? config.batchSize : adaptiveBatchSize.getBatchSize();
+    }
+
     public long getTimeWriting(TimeUnit unit) {
         return TimeUnit.NANOSECONDS.convert(timeWriting, unit);
     }
 
     private void doSubmit(TaskRunnable taskRunnable) {
-        Future ftask = executorService.submit(taskRunnable);
-        futureTasks.add(ftask);
+        Future ftask = submit(taskRunnable);
+        if (ftask != null) {
+            futureTasks.add(ftask);
+        }
         taskRunnables.add(taskRunnable);
     }
 
     private void doSubmit(WriterRunnable taskRunnable) {
-        Future ftask = executorService.submit(taskRunnable);
-        futureTasks.add(ftask);
+        Future ftask = submit(taskRunnable);
+        if (ftask != null) {
+            futureTasks.add(ftask);
+        }
+    }
+
+    /**
+     * Submit to the executor. If aborted, the executor may be already shut down. Then, the runnable is skipped,
+     * and the run finishes as aborted.
+     *
+     * @return the future, or null if skipped
+     */
+    private Future<Void> submit(Callable<Void> callable) {
+        try {
+            return executorService.submit(callable);
+        } catch (RejectedExecutionException e) {
+            if (aborted) {
+                return null;
+            }
+            throw e;
+        }
     }
 
     /**
@@ -561,81 +1308,159 @@ public class ParallelTaskRunner<I, O> {
      * @throws TimeoutException
      * @throws ExecutionException
      */
-    private boolean readLoop() throws TimeoutException, ExecutionException {
+    private boolean readLoop(DataReader<I> reader, int readerIndex) throws TimeoutException, ExecutionException {
+        long threadTimeReading = 0;
+        long threadTimeBlockedAtPutRead = 0;
+        boolean poisonPill = false;
+        // The first reader runs in the caller thread. Restore its affinity at the end.
+        String previousAffinity = pinToCell(readerIndex);
+        BlockingQueue<Batch<I>> readQueue = getCellQueue(readerIndex);
         try {
             long start;
             Batch<I> batch;
 
-            batch = readBatch();
+            start = System.nanoTime();
+            batch = readBatch(reader);
+            threadTimeReading += System.nanoTime() - start;
 
             while (batch.batch != null && !batch.batch.isEmpty()) {
 
-                // If sorted, add futures in a sorted way to the writer queue
+                // If sorted, wait for a free slot in the reorder buffer
                 if (config.sorted) {
-                    CompletableFuture<Batch<O>> completableFuture = new CompletableFuture<>();
-                    while (!writeBlockingQueueFuture.offer(completableFuture, TIMEOUT_CHECK, TimeUnit.SECONDS)) {
+                    while (!writeReorderBuffer.awaitSlot(batch.position, TIMEOUT_CHECK, TimeUnit.SECONDS)) {
                         if (isAbortPending()) {
                             break;
                         }
-                        if (Thread.currentThread().isInterrupted()) {
-                            // Break loop if thread is interrupted
-                            break;
+                        // Closed when all the tasks have finished. The slot will never be free.
+                        if (writeReorderBuffer.isClosed() || !isJobsRunning()) {
+                            securePrintStatus();
+                            throw new IllegalStateException(String.format("No runners but reorder buffer with %s items!!!",
+                                    writeReorderBuffer.size()));
                         }
                     }
-                    writeBlockingQueueFutureMap.put(batch.position, completableFuture);
                 }
 
                 //logger.trace("reader: prePut readBlockingQueue " + readBlockingQueue.size());
                 start = System.nanoTime();
-                int cntloop = 0;
-                // continues lock of queue if jobs fail - check what's happening!!!
-                while (!readBlockingQueue.offer(batch, TIMEOUT_CHECK, TimeUnit.SECONDS)) {
-                    if (Thread.currentThread().isInterrupted()) {
-                        // Break loop if thread is interrupted
-                        break;
-                    }
-                    if (isAbortPending()) {
-                        // Break loop if aborting
-                        break;
-                    }
-                    if (!isJobsRunning()) {
-                        securePrintStatus();
-                        throw new IllegalStateException(String.format("No runners but queue with %s items!!!", readBlockingQueue.size()));
-                    }
-                    // check if something failed
-                    if ((++cntloop) > config.readQueuePutTimeoutSeconds / TIMEOUT_CHECK) {
-                        securePrintStatus();
-                        // something went wrong!!!
-                        throw new TimeoutException(String.format("Queue got stuck with %s items!!!", readBlockingQueue.size()));
+                if (partitionQueues == null) {
+                    putRead(readQueue, batch);
+                } else {
+                    List<List<I>> partitions = partition(batch.batch);
+                    for (int i = 0; i < partitions.size() && !isAbortPending(); i++) {
+                        if (!partitions.get(i).isEmpty()) {
+                            putRead(partitionQueues.get(i), new Batch<>(partitions.get(i), batch.position));
+                        }
                     }
-
                 }
-                timeBlockedAtPutRead += System.nanoTime() - start;
+                long time = System.nanoTime() - start;
+                threadTimeBlockedAtPutRead += time;
+                metrics.addBlockedAtPutRead(time);
+                if (adaptiveBatchSize != null) {
+                    adaptiveBatchSize.addBlockedAtPutRead(batch.batch.size(), time);
+                }
                 if (isAbortPending()) {
                     //Some error happen. Abort
                     logger.warn("Abort read thread on fail. Clear read queue and insert poison pill.");
-                    readBlockingQueue.clear();
+                    clearReadQueues();
                     break;
                 }
                 //logger.trace("reader: preRead");
-                batch = readBatch();
+                start = System.nanoTime();
+                batch = readBatch(reader);
+                threadTimeReading += System.nanoTime() - start;
                 //logger.trace("reader: batch.size = " + batch.size());
             }
-            //logger.debug("reader: POISON_PILL");
-            while (!readBlockingQueue.offer(POISON_PILL, TIMEOUT_CHECK, TimeUnit.SECONDS)) {
-                if (isAbortPending()) {
-                    logger.warn("Abort read thread on fail. Clear read queue and insert poison pill.");
-                    readBlockingQueue.clear();
+            poisonPill = true;
+            // Only the last reader sends the poison pill
+            if (activeReaders.decrementAndGet() == 0) {
+                //logger.debug("reader: POISON_PILL");
+                for (BlockingQueue<Batch<I>> queue : getReadQueues()) {
+                    while (!queue.offer(POISON_PILL, TIMEOUT_CHECK, TimeUnit.SECONDS)) {
+                        if (isAbortPending()) {
+                            logger.warn("Abort read thread on fail. Clear read queue and insert poison pill.");
+                            queue.clear();
+                        }
+                    }
                 }
             }
         } catch (InterruptedException e) {
             interruptions.add(e);
             e.printStackTrace();
             return true;
+        } finally {
+            if (!poisonPill) {
+                activeReaders.decrementAndGet();
+            }
+            AffinityUtils.restoreCurrentThreadAffinity(previousAffinity);
+            synchronized (readers) {
+                timeReading += threadTimeReading;
+                timeBlockedAtPutRead += threadTimeBlockedAtPutRead;
+            }
         }
         return false;
     }
 
+    /**
+     * Put a batch in a read queue. Gives up if aborting.
+     */
+    private void putRead(BlockingQueue<Batch<I>> queue, Batch<I> batch)
+            throws InterruptedException, TimeoutException, ExecutionException {
+        int cntloop = 0;
+        // continues lock of queue if jobs fail - check what's happening!!!
+        while (!queue.offer(batch, TIMEOUT_CHECK, TimeUnit.SECONDS)) {
+            if (Thread.currentThread().isInterrupted()) {
+                // Break loop if thread is interrupted
+                break;
+            }
+            if (isAbortPending()) {
+                // Break loop if aborting
+                break;
+            }
+            if (!isJobsRunning()) {
+                securePrintStatus();
+                throw new IllegalStateException(String.format("No runners but queue with %s items!!!", queue.size()));
+            }
+            // check if something failed
+            if ((++cntloop) > config.readQueuePutTimeoutSeconds / TIMEOUT_CHECK) {
+                securePrintStatus();
+                // something went wrong!!!
+                throw new TimeoutException(String.format("Queue got stuck with %s items!!!", queue.size()));
+            }
+        }
+    }
+
+    /**
+     * Split a batch by the partition key of each element, keeping the order within each partition.
+     */
+    private List<List<I>> partition(List<I> batch) {
+        int numPartitions = partitionQueues.size();
+        List<List<I>> partitions = new ArrayList<>(numPartitions);
+        for (int i = 0; i < numPartitions; i++) {
+            partitions.add(new ArrayList<>(batch.size() / numPartitions + 1));
+        }
+        for (I element : batch) {
+            int hash = Objects.hashCode(partitionKey.apply(element));
+            // Spread the bits, as in HashMap
+            hash ^= hash >>> 16;
+            partitions.get(Math.floorMod(hash, numPartitions)).add(element);
+        }
+        return partitions;
+    }
+
+    private List<BlockingQueue<Batch<I>>> getReadQueues() {
+        if (partitionQueues != null) {
+            return partitionQueues;
+        } else if (cellQueues != null) {
+            return cellQueues;
+        } else {
+            return Collections.singletonList(readBlockingQueue);
+        }
+    }
+
+    private void clearReadQueues() {
+        getReadQueues().forEach(BlockingQueue::clear);
+    }
+
     private boolean isJobsRunning() throws InterruptedException, ExecutionException {
 
         List<Future> fList = new ArrayList<Future>(this.futureTasks);
@@ -659,19 +1484,48 @@ public class ParallelTaskRunner<I, O> {
         return tasks.size() == finishedTasks;
     }
 
-    private Batch<I> readBatch() {
+    private Batch<I> readBatch(DataReader<I> reader) {
+        if (stopReading) {
+            // Same as the end of the input
+            return new Batch<>(Collections.emptyList(), -1);
+        }
         long start;
         Batch<I> batch;
         start = System.nanoTime();
-        int position = numBatches++;
         try {
-            batch = new Batch<>(reader.read(config.batchSize), position);
+            List<I> list;
+            if (batchPool == null) {
+                list = reader.read(getBatchSize());
+            } else {
+                list = batchPool.poll();
+                if (list == null) {
+                    list = new ArrayList<>(getBatchSize());
+                }
+                reader.readInto(list, getBatchSize());
+            }
+            // Assign the position after reading, so positions are contiguous across multiple readers.
+            int position = list == null || list.isEmpty() ? -1 : numBatches.getAndIncrement();
+            batch = new Batch<>(list, position);
         } catch (Exception e) {
-            logger.error("Error reading batch " + position, e);
+            logger.error("Error reading batch " + numBatches.get(), e);
             batch = POISON_PILL;
             exceptions.add(e);
         }
-        timeReading += System.nanoTime() - start;
+        long time = System.nanoTime() - start;
+        if (batch.batch != null && !batch.batch.isEmpty()) {
+            metrics.addRead(batch.batch.size(), time);
+        }
+        if (adaptiveBatchSize != null && batch.batch != null) {
+            adaptiveBatchSize.addRead(batch.batch.size(), time);
+        }
+        if (config.readRateLimiter != null && batch != POISON_PILL) {
+            try {
+                config.readRateLimiter.acquire(batch.batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                interruptions.add(e);
+            }
+        }
         return batch;
     }
 
@@ -688,6 +1542,9 @@ public class ParallelTaskRunner<I, O> {
     class TaskRunnable implements Callable<Void> {
 
         private final org.opencb.commons.run.Task<I, O> task;
+        private final int index;
+        // Null if there is no reader
+        private final BlockingQueue<Batch<I>> readQueue;
 
         private long threadTimeBlockedAtTakeRead = 0;
         private long threadTimeBlockedAtSendWrite = 0;
@@ -696,12 +1553,23 @@ public class ParallelTaskRunner<I, O> {
         private String threadName;
         private TaskRunnableStatus status = TaskRunnableStatus.UNSTARTED;
 
-        TaskRunnable(org.opencb.commons.run.Task<I, O> task) {
+        TaskRunnable(org.opencb.commons.run.Task<I, O> task, int index) {
             this.task = task;
+            this.index = index;
+            this.readQueue = partitionQueues == null ? getCellQueue(index) : partitionQueues.get(index);
         }
 
         @Override
         public Void call() throws InterruptedException {
+            String previousAffinity = pinToCell(index);
+            try {
+                return runTask();
+            } finally {
+                AffinityUtils.restoreCurrentThreadAffinity(previousAffinity);
+            }
+        }
+
+        private Void runTask() throws InterruptedException {
             try {
                 threadName = Thread.currentThread().getName();
                 batch = getBatch();
@@ -720,18 +1588,33 @@ public class ParallelTaskRunner<I, O> {
                     }
                     long start;
                     //logger.trace("task: apply");
+                    FairShareScheduler.Job job = schedulerJob;
+                    if (job != null) {
+                        job.acquire();
+                    }
                     start = System.nanoTime();
+                    boolean failed = false;
                     try {
                         status = TaskRunnableStatus.PROCESSING_BATCH;
                         batchResult = task.apply(batch.batch);
                     } catch (Exception e) {
                         logger.error("Error processing batch " + batch.position, e);
                         batchResult = null;
+                        failed = true;
                         exceptions.add(e);
+                    } finally {
+                        if (job != null) {
+                            job.release(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                        }
+                    }
+                    long time = System.nanoTime() - start;
+                    threadTimeTaskApply += time;
+                    metrics.addTaskApply(index, time);
+                    if (adaptiveBatchSize != null && batch.batch != null) {
+                        adaptiveBatchSize.addApply(batch.batch.size(), time);
                     }
-                    threadTimeTaskApply += System.nanoTime() - start;
 
-                    if (readBlockingQueue == null && batchResult != null && batchResult.isEmpty()) {
+                    if (readQueue == null && batchResult != null && batchResult.isEmpty()) {
                         //There is no readers and the last batch is empty
                         break;
                     }
@@ -744,20 +1627,26 @@ public class ParallelTaskRunner<I, O> {
                     start = System.nanoTime();
                     if (writeBlockingQueue != null) {
                         status = TaskRunnableStatus.WRITING_BATCH_TO_QUEUE;
-                        while (!writeBlockingQueue.offer(new Batch<O>(batchResult, batch.position), 1, TimeUnit.SECONDS)) {
+                        Batch<O> resultBatch = new Batch<>(batchResult, batch.position, batch.inputSize, recyclable(batch));
+                        while (!writeBlockingQueue.offer(resultBatch, 1, TimeUnit.SECONDS)) {
                             if (isAbortPending()) {
                                 //Some error happen. Abort
                                 logger.warn("Abort task thread on fail");
                                 break;
                             }
                         }
-                    } else if (writeBlockingQueueFuture != null) {
+                    } else if (writeReorderBuffer != null) {
                         status = TaskRunnableStatus.WRITING_BATCH_TO_QUEUE;
-                        CompletableFuture<Batch<O>> future = writeBlockingQueueFutureMap.get(batch.position);
-                        future.complete(new Batch<O>(batchResult, batch.position));
+                        writeReorderBuffer.put(batch.position, new Batch<O>(batchResult, batch.position,
+                                failed ? -1 : batch.inputSize, recyclable(batch)));
+                    } else {
+                        // No writer. The batch is not used anymore
+                        recycle(recyclable(batch));
                     }
                     //logger.trace("task: apply done");
-                    threadTimeBlockedAtSendWrite += System.nanoTime() - start;
+                    time = System.nanoTime() - start;
+                    threadTimeBlockedAtSendWrite += time;
+                    metrics.addBlockedAtPutWrite(time);
                     batch = getBatch();
                 }
                 // Drain won't be called if the ParallelTaskRunner is interrupted.
@@ -771,6 +1660,10 @@ public class ParallelTaskRunner<I, O> {
                     exceptions.add(e);
                 }
                 if (null != drain && !drain.isEmpty()) {
+                    if (config.checkpoint != null) {
+                        logger.warn("Task drained {} elements. They are not covered by the checkpoint,"
+                                + " and would be lost when resuming after a failure.", drain.size());
+                    }
                     if (writeBlockingQueue != null) {
                         status = TaskRunnableStatus.WRITING_BATCH_TO_QUEUE;
                         // submit final batch received from draining
@@ -781,17 +1674,10 @@ public class ParallelTaskRunner<I, O> {
                                 break;
                             }
                         }
-                    } else if (writeBlockingQueueFuture != null) {
+                    } else if (writeReorderBuffer != null) {
                         status = TaskRunnableStatus.WRITING_BATCH_TO_QUEUE;
-                        // Sorted PTR should not have to drain!
-                        CompletableFuture<Batch<O>> future = new CompletableFuture<>();
-                        future.complete(new Batch<O>(batchResult, batch.position + 1));
-                        while (!writeBlockingQueueFuture.offer(future, TIMEOUT_CHECK, TimeUnit.SECONDS)) {
-                            if (isAbortPending()) {
-                                logger.warn("Abort task thread on fail");
-                                break;
-                            }
-                        }
+                        // Drained batches are written after all the sorted batches
+                        writeDrainQueue.add(new Batch<>(drain, batch.position + 1, 0, null));
                     }
                 }
             } catch (Error e) {
@@ -818,13 +1704,8 @@ public class ParallelTaskRunner<I, O> {
 //                                logger.trace("Offer POISON_PILL failed!");
 //                            }
                             }
-                        } else if (writeBlockingQueueFuture != null) {
-                            CompletableFuture<Batch<O>> future = new CompletableFuture<>();
-                            future.complete(POISON_PILL);
-                            writeBlockingQueueFuture.offer(future);
-                            for (Map.Entry<Integer, CompletableFuture<Batch<O>>> entry : writeBlockingQueueFutureMap.entrySet()) {
-                                entry.getValue().complete(POISON_PILL);
-                            }
+                        } else if (writeReorderBuffer != null) {
+                            writeReorderBuffer.close();
                         }
                     }
                 }
@@ -845,7 +1726,7 @@ public class ParallelTaskRunner<I, O> {
             } else {
                 int size = batch.batch == null ? 0 : batch.batch.size();
                 logger.info("TaskRunner [{}] Status: '{}', batch number {}/{} with {} elements:", threadName, status,
-                        batch.position, numBatches, size);
+                        batch.position, numBatches.get(), size);
                 if (printBatchElements && (status == TaskRunnableStatus.PROCESSING_BATCH || status == TaskRunnableStatus.DRAINING_TASK)) {
                     if (batch.batch != null) {
                         int i = 0;
@@ -861,17 +1742,19 @@ public class ParallelTaskRunner<I, O> {
         private Batch<I> getBatch() throws InterruptedException {
             status = TaskRunnableStatus.READING_BATCH_FROM_QUEUE;
             Batch<I> batch;
-            if (readBlockingQueue == null) {
-                return new Batch<>(Collections.<I>emptyList(), numBatches++);
+            if (readQueue == null) {
+                return new Batch<>(Collections.<I>emptyList(), numBatches.getAndIncrement());
             } else {
                 long start = System.nanoTime();
-                batch = readBlockingQueue.take();
-                threadTimeBlockedAtTakeRead += (System.nanoTime() - start);
+                batch = readQueue.take();
+                long time = System.nanoTime() - start;
+                threadTimeBlockedAtTakeRead += time;
+                metrics.addBlockedAtTakeRead(time);
                 //logger.trace("task: readBlockingQueue = " + readBlockingQueue.size() + " batch.size : "
                 // + batch.size() + " : " + batchSize);
                 if (batch == POISON_PILL) {
                     //logger.debug("task: POISON_PILL");
-                    while (!readBlockingQueue.offer(POISON_PILL, TIMEOUT_CHECK, TimeUnit.SECONDS)) {
+                    while (!readQueue.offer(POISON_PILL, TIMEOUT_CHECK, TimeUnit.SECONDS)) {
                         if (isAbortPending()) {
                             logger.warn("Abort task thread on fail");
                             break;
@@ -897,13 +1780,21 @@ public class ParallelTaskRunner<I, O> {
                 Batch<O> batch = getBatch();
                 long start;
                 while (batch != POISON_PILL) {
+                    if (config.writeRateLimiter != null) {
+                        config.writeRateLimiter.acquire(batch.batch);
+                    }
                     start = System.nanoTime();
 //                    logger.trace("writer: write");
                     try {
                         dataWriter.write(batch.batch);
+                        if (config.checkpoint != null) {
+                            updateCheckpoint(batch);
+                        }
                     } catch (Exception e) {
                         logger.error("Error writing batch " + batch.position, e);
                         exceptions.add(e);
+                        // Following batches are not contiguous
+                        checkpointBroken = true;
                     } catch (Error e) {
                         errors.add(e);
                         exceptions.add(e);
@@ -917,7 +1808,13 @@ public class ParallelTaskRunner<I, O> {
                     }
 
 //                    logger.trace("writer: wrote");
-                    timeWriting += System.nanoTime() - start;
+                    long time = System.nanoTime() - start;
+                    timeWriting += time;
+                    metrics.addWrite(batch.batch == null ? 0 : batch.batch.size(), time);
+                    if (adaptiveBatchSize != null && batch.batch != null) {
+                        adaptiveBatchSize.addWrite(batch.batch.size(), time);
+                    }
+                    recycle(batch.input);
                     batch = getBatch();
                 }
             } catch (InterruptedException e) {
@@ -932,19 +1829,14 @@ public class ParallelTaskRunner<I, O> {
             long start = System.nanoTime();
             Batch<O> batch = null;
             if (config.sorted) {
-                try {
-                    while (batch == null) {
-                        if (allTasksFinished() && writeBlockingQueueFuture.isEmpty()) {
+                while (batch == null) {
+                    batch = writeReorderBuffer.take(TIMEOUT_CHECK, TimeUnit.SECONDS);
+                    if (batch == null && writeReorderBuffer.isClosed()) {
+                        batch = writeDrainQueue.poll();
+                        if (batch == null) {
                             batch = POISON_PILL;
-                        } else {
-                            Future<Batch<O>> future = writeBlockingQueueFuture.take();
-                            batch = future.get();
                         }
                     }
-                    writeBlockingQueueFutureMap.remove(batch.position);
-                } catch (ExecutionException e) {
-                    // Impossible!
-                    throw new IllegalStateException(e);
                 }
             } else {
                 // WriteBlockingQueue may be empty if queue was full when offering the poison_pill
@@ -954,7 +1846,9 @@ public class ParallelTaskRunner<I, O> {
                     batch = writeBlockingQueue.take();
                 }
             }
-            timeBlockedAtTakeWrite += System.nanoTime() - start;
+            long time = System.nanoTime() - start;
+            timeBlockedAtTakeWrite += time;
+            metrics.addBlockedAtTakeWrite(time);
             if (batch == POISON_PILL) {
 //                logger.debug("writer: POISON_PILL");
                 if (writeBlockingQueue != null) {
@@ -970,13 +1864,6 @@ public class ParallelTaskRunner<I, O> {
                             }
                         }
                     }
-                } else if (writeBlockingQueueFuture != null) {
-                    CompletableFuture<Batch<O>> future = new CompletableFuture<>();
-                    future.complete(POISON_PILL);
-                    writeBlockingQueueFuture.offer(future);
-                    for (Map.Entry<Integer, CompletableFuture<Batch<O>>> entry : writeBlockingQueueFutureMap.entrySet()) {
-                        entry.getValue().complete(POISON_PILL);
-                    }
                 }
             }
             return batch;
@@ -984,7 +1871,7 @@ public class ParallelTaskRunner<I, O> {
     }
 
     private boolean isAbortPending() {
-        return config.abortOnFail && !exceptions.isEmpty() || !interruptions.isEmpty();
+        return config.abortOnFail && !exceptions.isEmpty() || !interruptions.isEmpty() || aborted;
     }
 
     private void securePrintStatus() {
@@ -997,7 +1884,7 @@ public class ParallelTaskRunner<I, O> {
 
     public void printStatus(boolean printBatchElements) {
         logger.info(toString());
-        logger.info("Num processed batches: " + numBatches);
+        logger.info("Num processed batches: " + numBatches.get());
         for (TaskRunnable taskRunnable : taskRunnables) {
             taskRunnable.printStatus(printBatchElements);
         }
@@ -1006,9 +1893,11 @@ public class ParallelTaskRunner<I, O> {
     @Override
     public String toString() {
         return "Parallel Task Runner ["
-                + (reader == null ? "" : "1 reader thread" + (writer == null ? " and " : ", "))
+                + (readers.isEmpty() ? "" : readers.size() + " reader thread" + (readers.size() > 1 ? "s" : "")
+                + (writer == null ? " and " : ", "))
                 + taskRunnables.size() + " task threads"
-                + (writer == null ? "" : " and 1 writer thread]");
+                + (writer == null ? "" : " and 1 writer thread")
+                + (config.useVirtualThreads && ThreadUtils.isVirtualThreadsSupported() ? " (virtual threads)]" : "]");
     }
 
 }
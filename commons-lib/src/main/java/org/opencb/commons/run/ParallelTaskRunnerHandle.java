@@ -0,0 +1,202 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.commons.run;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handle of a {@link ParallelTaskRunner} running in background, created with {@link ParallelTaskRunner#start()}.
+ *
+ * ParallelTaskRunnerHandle handle = runner.start();
+ * ...
+ * logger.info("Progress: {}", handle.getProgress());
+ * ...
+ * handle.cancel();
+ * handle.awaitCompletion();
+ *
+ * Created on 18/10/26.
+ */
+public final class ParallelTaskRunnerHandle {
+
+    private final ParallelTaskRunner<?, ?> runner;
+    private final Thread thread;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile boolean cancelled = false;
+    private volatile Throwable failure;
+
+    /**
+     * Snapshot of the progress of the runner.
+     */
+    public static final class Progress {
+        private final long readBatches;
+        private final long readElements;
+        private final long processedBatches;
+        private final long writtenBatches;
+        private final long writtenElements;
+        private final double elapsedSeconds;
+
+        private Progress(ParallelTaskRunnerMetrics metrics) {
+            this.readBatches = metrics.getReadBatches();
+            this.readElements = metrics.getReadElements();
+            this.processedBatches = metrics.getTaskLatency().getCount();
+            this.writtenBatches = metrics.getWrittenBatches();
+            this.writtenElements = metrics.getWrittenElements();
+            this.elapsedSeconds = metrics.getElapsedSeconds();
+        }
+
+        public long getReadBatches() {
+            return readBatches;
+        }
+
+        public long getReadElements() {
+            return readElements;
+        }
+
+        public long getProcessedBatches() {
+            return processedBatches;
+        }
+
+        public long getWrittenBatches() {
+            return writtenBatches;
+        }
+
+        public long getWrittenElements() {
+            return writtenElements;
+        }
+
+        public double getElapsedSeconds() {
+            return elapsedSeconds;
+        }
+
+        @Override
+        public String toString() {
+            return "Progress{"
+                    + "readBatches=" + readBatches
+                    + ", readElements=" + readElements
+                    + ", processedBatches=" + processedBatches
+                    + ", writtenBatches=" + writtenBatches
+                    + ", writtenElements=" + writtenElements
+                    + ", elapsedSeconds=" + elapsedSeconds
+                    + '}';
+        }
+    }
+
+    ParallelTaskRunnerHandle(ParallelTaskRunner<?, ?> runner) {
+        this.runner = runner;
+        this.thread = new Thread(this::execute, "ParallelTaskRunner-" + Integer.toHexString(System.identityHashCode(runner)));
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    private void execute() {
+        try {
+            runner.run();
+        } catch (ExecutionException | RuntimeException | Error e) {
+            failure = e;
+        } finally {
+            done.countDown();
+        }
+    }
+
+    /**
+     * Stop reading new batches. The batches in flight are processed and written, and the runner finishes normally,
+     * saving the checkpoint, if any. The execution can be resumed from there.
+     */
+    public void cancel() {
+        cancelled = true;
+        runner.stopReading();
+    }
+
+    /**
+     * Stop immediately, interrupting the worker threads. The batches in flight are lost, and the post steps are
+     * skipped. {@link #awaitCompletion()} will throw a {@link CancellationException}.
+     */
+    public void abort() {
+        cancelled = true;
+        runner.abort();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    /**
+     * Wait for the runner to finish.
+     *
+     * @throws ExecutionException if the runner failed
+     * @throws CancellationException if the runner was aborted
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitCompletion() throws ExecutionException, InterruptedException {
+        done.await();
+        checkFailure();
+    }
+
+    /**
+     * Wait for the runner to finish, up to the given time.
+     *
+     * @param timeout   Max time to wait
+     * @param unit      Time unit of the timeout
+     * @return          If the runner finished
+     * @throws ExecutionException if the runner failed
+     * @throws CancellationException if the runner was aborted
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws ExecutionException, InterruptedException {
+        if (!done.await(timeout, unit)) {
+            return false;
+        }
+        checkFailure();
+        return true;
+    }
+
+    /**
+     * @return Live snapshot of the progress of the runner
+     */
+    public Progress getProgress() {
+        return new Progress(runner.getMetrics());
+    }
+
+    public ParallelTaskRunner<?, ?> getRunner() {
+        return runner;
+    }
+
+    private void checkFailure() throws ExecutionException {
+        Throwable throwable = failure;
+        if (throwable == null) {
+            return;
+        }
+        if (throwable instanceof CancellationException) {
+            CancellationException exception = new CancellationException(throwable.getMessage());
+            exception.initCause(throwable);
+            throw exception;
+        } else if (throwable instanceof ExecutionException) {
+            throw (ExecutionException) throwable;
+        } else {
+            throw new ExecutionException(throwable);
+        }
+    }
+}
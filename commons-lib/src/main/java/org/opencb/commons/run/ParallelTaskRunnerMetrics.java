@@ -0,0 +1,294 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.commons.run;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Live metrics of a {@link ParallelTaskRunner}. Can be read from any thread while the runner is running.
+ *
+ * Includes the latency histograms of each stage (read, task, write), and of each task thread,
+ * the size of the read and write queues, the throughput, and the fraction of time each stage is
+ * blocked waiting on the queues.
+ *
+ * Created on 18/10/26.
+ */
+public final class ParallelTaskRunnerMetrics {
+
+    private final int numReaders;
+    private final int numTasks;
+    private final IntSupplier readQueueSize;
+    private final IntSupplier writeQueueSize;
+
+    private final LatencyHistogram readLatency = new LatencyHistogram();
+    private final LatencyHistogram taskLatency = new LatencyHistogram();
+    private final List<LatencyHistogram> taskThreadLatency;
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+
+    private final LongAdder readElements = new LongAdder();
+    private final LongAdder writtenElements = new LongAdder();
+
+    private final LongAdder blockedAtPutRead = new LongAdder();
+    private final LongAdder blockedAtTakeRead = new LongAdder();
+    private final LongAdder blockedAtPutWrite = new LongAdder();
+    private final LongAdder blockedAtTakeWrite = new LongAdder();
+
+    private volatile long startNanos = 0;
+    private volatile long endNanos = 0;
+
+    ParallelTaskRunnerMetrics(int numReaders, int numTasks, IntSupplier readQueueSize, IntSupplier writeQueueSize) {
+        this.numReaders = numReaders;
+        this.numTasks = numTasks;
+        this.readQueueSize = readQueueSize;
+        this.writeQueueSize = writeQueueSize;
+        List<LatencyHistogram> list = new ArrayList<>(numTasks);
+        for (int i = 0; i < numTasks; i++) {
+            list.add(new LatencyHistogram());
+        }
+        taskThreadLatency = Collections.unmodifiableList(list);
+    }
+
+    void start() {
+        readLatency.reset();
+        taskLatency.reset();
+        for (LatencyHistogram histogram : taskThreadLatency) {
+            histogram.reset();
+        }
+        writeLatency.reset();
+        readElements.reset();
+        writtenElements.reset();
+        blockedAtPutRead.reset();
+        blockedAtTakeRead.reset();
+        blockedAtPutWrite.reset();
+        blockedAtTakeWrite.reset();
+        endNanos = 0;
+        startNanos = System.nanoTime();
+    }
+
+    void stop() {
+        endNanos = System.nanoTime();
+    }
+
+    void addRead(int elements, long nanos) {
+        readLatency.record(nanos);
+        readElements.add(elements);
+    }
+
+    void addTaskApply(int thread, long nanos) {
+        taskLatency.record(nanos);
+        taskThreadLatency.get(thread).record(nanos);
+    }
+
+    void addWrite(int elements, long nanos) {
+        writeLatency.record(nanos);
+        writtenElements.add(elements);
+    }
+
+    void addBlockedAtPutRead(long nanos) {
+        blockedAtPutRead.add(nanos);
+    }
+
+    void addBlockedAtTakeRead(long nanos) {
+        blockedAtTakeRead.add(nanos);
+    }
+
+    void addBlockedAtPutWrite(long nanos) {
+        blockedAtPutWrite.add(nanos);
+    }
+
+    void addBlockedAtTakeWrite(long nanos) {
+        blockedAtTakeWrite.add(nanos);
+    }
+
+    /**
+     * Export all the metrics to the registry as gauges.
+     *
+     * @param registry  Metrics registry
+     * @param prefix    Prefix for all the metric names. e.g. "ptr."
+     */
+    public void register(MetricsRegistry registry, String prefix) {
+        register(registry, prefix + "read.latency", readLatency);
+        register(registry, prefix + "task.latency", taskLatency);
+        for (int i = 0; i < taskThreadLatency.size(); i++) {
+            register(registry, prefix + "task." + i + ".latency", taskThreadLatency.get(i));
+        }
+        register(registry, prefix + "write.latency", writeLatency);
+
+        registry.gauge(prefix + "read.queue.size", this::getReadQueueSize);
+        registry.gauge(prefix + "write.queue.size", this::getWriteQueueSize);
+
+        registry.gauge(prefix + "read.elements", this::getReadElements);
+        registry.gauge(prefix + "read.batches", this::getReadBatches);
+        registry.gauge(prefix + "write.elements", this::getWrittenElements);
+        registry.gauge(prefix + "write.batches", this::getWrittenBatches);
+        registry.gauge(prefix + "read.elements.rate", this::getReadElementsPerSecond);
+        registry.gauge(prefix + "read.batches.rate", this::getReadBatchesPerSecond);
+        registry.gauge(prefix + "write.elements.rate", this::getWrittenElementsPerSecond);
+        registry.gauge(prefix + "write.batches.rate", this::getWrittenBatchesPerSecond);
+
+        registry.gauge(prefix + "read.blocked.put.ratio", this::getBlockedAtPutReadRatio);
+        registry.gauge(prefix + "task.blocked.take.ratio", this::getBlockedAtTakeReadRatio);
+        registry.gauge(prefix + "task.blocked.put.ratio", this::getBlockedAtPutWriteRatio);
+        registry.gauge(prefix + "write.blocked.take.ratio", this::getBlockedAtTakeWriteRatio);
+    }
+
+    private static void register(MetricsRegistry registry, String name, LatencyHistogram histogram) {
+        registry.gauge(name + ".count", histogram::getCount);
+        registry.gauge(name + ".mean.ms", () -> histogram.getMean(TimeUnit.MILLISECONDS));
+        registry.gauge(name + ".p50.ms", () -> histogram.getPercentile(50, TimeUnit.MICROSECONDS) / 1000.0);
+        registry.gauge(name + ".p99.ms", () -> histogram.getPercentile(99, TimeUnit.MICROSECONDS) / 1000.0);
+        registry.gauge(name + ".max.ms", () -> histogram.getMax(TimeUnit.MICROSECONDS) / 1000.0);
+    }
+
+    /**
+     * @return Time since the runner started, or the total run time if finished. In seconds.
+     */
+    public double getElapsedSeconds() {
+        long start = startNanos;
+        if (start == 0) {
+            return 0;
+        }
+        long end = endNanos;
+        return ((end == 0 ? System.nanoTime() : end) - start) / 1e9;
+    }
+
+    /**
+     * @return Latency of each read batch
+     */
+    public LatencyHistogram getReadLatency() {
+        return readLatency;
+    }
+
+    /**
+     * @return Latency of each Task.apply, from all the task threads
+     */
+    public LatencyHistogram getTaskLatency() {
+        return taskLatency;
+    }
+
+    /**
+     * @param thread Task thread index
+     * @return Latency of each Task.apply in the given task thread
+     */
+    public LatencyHistogram getTaskLatency(int thread) {
+        return taskThreadLatency.get(thread);
+    }
+
+    /**
+     * @return Latency of each written batch
+     */
+    public LatencyHistogram getWriteLatency() {
+        return writeLatency;
+    }
+
+    public int getReadQueueSize() {
+        return readQueueSize.getAsInt();
+    }
+
+    public int getWriteQueueSize() {
+        return writeQueueSize.getAsInt();
+    }
+
+    public long getReadBatches() {
+        return readLatency.getCount();
+    }
+
+    public long getReadElements() {
+        return readElements.sum();
+    }
+
+    public long getWrittenBatches() {
+        return writeLatency.getCount();
+    }
+
+    public long getWrittenElements() {
+        return writtenElements.sum();
+    }
+
+    public double getReadBatchesPerSecond() {
+        return rate(getReadBatches());
+    }
+
+    public double getReadElementsPerSecond() {
+        return rate(getReadElements());
+    }
+
+    public double getWrittenBatchesPerSecond() {
+        return rate(getWrittenBatches());
+    }
+
+    public double getWrittenElementsPerSecond() {
+        return rate(getWrittenElements());
+    }
+
+    /**
+     * @return Fraction of time the readers are blocked waiting for space in the read queue
+     */
+    public double getBlockedAtPutReadRatio() {
+        return ratio(blockedAtPutRead.sum(), numReaders);
+    }
+
+    /**
+     * @return Fraction of time the task threads are blocked waiting for batches in the read queue
+     */
+    public double getBlockedAtTakeReadRatio() {
+        return ratio(blockedAtTakeRead.sum(), numTasks);
+    }
+
+    /**
+     * @return Fraction of time the task threads are blocked waiting for space in the write queue
+     */
+    public double getBlockedAtPutWriteRatio() {
+        return ratio(blockedAtPutWrite.sum(), numTasks);
+    }
+
+    /**
+     * @return Fraction of time the writer is blocked waiting for batches to write
+     */
+    public double getBlockedAtTakeWriteRatio() {
+        return ratio(blockedAtTakeWrite.sum(), 1);
+    }
+
+    private double rate(long value) {
+        double seconds = getElapsedSeconds();
+        return seconds == 0 ? 0 : value / seconds;
+    }
+
+    private double ratio(long blockedNanos, int threads) {
+        double seconds = getElapsedSeconds();
+        return seconds == 0 || threads == 0 ? 0 : blockedNanos / 1e9 / seconds / threads;
+    }
+
+    @Override
+    public String toString() {
+        return "ParallelTaskRunnerMetrics{"
+                + "elapsed=" + String.format("%.3f", getElapsedSeconds()) + "s"
+                + ", read=" + readLatency
+                + ", task=" + taskLatency
+                + ", write=" + writeLatency
+                + ", readQueueSize=" + getReadQueueSize()
+                + ", writeQueueSize=" + getWriteQueueSize()
+                + ", readElementsPerSecond=" + String.format("%.2f", getReadElementsPerSecond())
+                + ", writtenElementsPerSecond=" + String.format("%.2f", getWrittenElementsPerSecond())
+                + '}';
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.commons.run;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+/**
+ * Token bucket to limit the throughput of a stage, in elements or bytes per second.
+ *
+ * The bucket starts empty, is refilled at the configured rate, and can hold up to one second of tokens,
+ * to absorb small bursts.
+ * A call to {@link #acquire} is granted as soon as the bucket is not in debt, and then takes all the tokens it needs,
+ * even if it leaves the bucket in debt. This way, batches bigger than the bucket are allowed, and the following
+ * callers will wait until the debt is paid.
+ *
+ * The rate can be changed at any time with {@link #setRate}. Waiting threads check the new rate at least every
+ * {@value #MAX_SLEEP_MILLIS}ms.
+ *
+ * RateLimiter limiter = RateLimiter.elementsPerSecond(10000);
+ * ParallelTaskRunner.Config.builder().setWriteRateLimiter(limiter).build();
+ * ...
+ * limiter.setRate(2000); // Slow down while the job is running
+ *
+ * Created on 18/10/26.
+ */
+public final class RateLimiter {
+
+    public static final double UNLIMITED = Double.POSITIVE_INFINITY;
+    private static final long MAX_SLEEP_MILLIS = 100;
+
+    private final ToLongFunction<Object> weigher;
+    // Guarded by "this"
+    private double rate;
+    private double tokens;
+    private long lastRefillNanos;
+    private long throttledNanos;
+
+    private RateLimiter(double rate, ToLongFunction<Object> weigher) {
+        this.weigher = weigher;
+        this.lastRefillNanos = System.nanoTime();
+        // Start with an empty bucket, to avoid an initial burst
+        setRate(rate);
+    }
+
+    /**
+     * @param rate  Max number of elements per second
+     * @return      RateLimiter counting elements
+     */
+    public static RateLimiter elementsPerSecond(double rate) {
+        return new RateLimiter(rate, null);
+    }
+
+    /**
+     * @param rate      Max number of bytes per second
+     * @param sizeOf    Estimated size of each element, in bytes
+     * @param <T>       Element type
+     * @return          RateLimiter counting bytes
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> RateLimiter bytesPerSecond(double rate, ToLongFunction<? super T> sizeOf) {
+        if (sizeOf == null) {
+            throw new IllegalArgumentException("Missing sizeOf function");
+        }
+        return new RateLimiter(rate, (ToLongFunction<Object>) sizeOf);
+    }
+
+    /**
+     * Wait until the batch can be processed without exceeding the rate.
+     *
+     * @param batch Batch to process
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire(List<?> batch) throws InterruptedException {
+        if (batch == null || batch.isEmpty()) {
+            return;
+        }
+        long permits;
+        if (weigher == null) {
+            permits = batch.size();
+        } else {
+            permits = 0;
+            for (Object element : batch) {
+                permits += weigher.applyAsLong(element);
+            }
+        }
+        acquire(permits);
+    }
+
+    /**
+     * Wait until the given number of tokens can be taken without exceeding the rate.
+     *
+     * @param permits Number of elements or bytes
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire(long permits) throws InterruptedException {
+        long start = System.nanoTime();
+        long waitMillis;
+        do {
+            synchronized (this) {
+                if (Double.isInfinite(rate)) {
+                    return;
+                }
+                long now = System.nanoTime();
+                refill(now);
+                if (tokens >= 0) {
+                    tokens -= permits;
+                    throttledNanos += now - start;
+                    return;
+                }
+                waitMillis = (long) Math.ceil(-tokens / rate * 1000);
+            }
+            Thread.sleep(Math.max(1, Math.min(waitMillis, MAX_SLEEP_MILLIS)));
+        } while (true);
+    }
+
+    /**
+     * Change the rate. Applies to the threads already waiting.
+     *
+     * @param rate  Max number of elements or bytes per second. Use {@link #UNLIMITED} to disable the limit.
+     */
+    public synchronized void setRate(double rate) {
+        if (!(rate > 0)) {
+            throw new IllegalArgumentException("Rate must be positive. Found " + rate);
+        }
+        refill(System.nanoTime());
+        this.rate = rate;
+        if (Double.isInfinite(rate)) {
+            tokens = 0;
+        } else {
+            tokens = Math.min(tokens, rate);
+        }
+    }
+
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    /**
+     * @param unit  Time unit
+     * @return      Total time that the callers have been waiting
+     */
+    public synchronized long getThrottledTime(TimeUnit unit) {
+        return unit.convert(throttledNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void refill(long now) {
+        if (!Double.isInfinite(rate) && rate > 0) {
+            tokens = Math.min(rate, tokens + (now - lastRefillNanos) / 1e9 * rate);
+        }
+        lastRefillNanos = now;
+    }
+
+    @Override
+    public String toString() {
+        return "RateLimiter{" + (weigher == null ? "elements" : "bytes") + "PerSecond=" + getRate() + '}';
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.commons.run;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Preallocated ring buffer that releases elements strictly in order of position.
+ *
+ * Producers must reserve the position before processing it with {@link #awaitSlot}, which will block
+ * while the position is too far ahead of the consumer. Then, any thread can {@link #put} the element
+ * in its slot, in any order. A single consumer will {@link #take} the elements in order.
+ *
+ * No locks are used. Blocked threads are parked, and unparked when the slot they are waiting for is ready.
+ *
+ * Created on 18/10/26.
+ *
+ * @param <T> Element type
+ */
+final class ReorderBuffer<T> {
+
+    private final int capacity;
+    private final AtomicReferenceArray<T> slots;
+    // Next position to be taken. Only modified by the consumer thread.
+    private volatile long cursor = 0;
+    private volatile boolean closed = false;
+    private volatile Thread consumer;
+    private final Set<Thread> waitingProducers = ConcurrentHashMap.newKeySet();
+
+    ReorderBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive. Found " + capacity);
+        }
+        this.capacity = capacity;
+        this.slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * Wait until there is a free slot for the given position.
+     *
+     * @param position  Position to reserve
+     * @param timeout   Max time to wait
+     * @param unit      Time unit of the timeout
+     * @return          If the slot is available
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitSlot(long position, long timeout, TimeUnit unit) throws InterruptedException {
+        if (position - cursor < capacity) {
+            return true;
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        Thread thread = Thread.currentThread();
+        waitingProducers.add(thread);
+        try {
+            while (position - cursor >= capacity) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || closed) {
+                    return false;
+                }
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+            return true;
+        } finally {
+            waitingProducers.remove(thread);
+        }
+    }
+
+    /**
+     * Put an element in its slot. The position must have been reserved with {@link #awaitSlot}.
+     *
+     * @param position  Position of the element
+     * @param element   Element
+     */
+    public void put(long position, T element) {
+        if (position < cursor || position - cursor >= capacity) {
+            throw new IllegalStateException("Position " + position + " out of the buffer window [" + cursor + ", "
+                    + (cursor + capacity) + ")");
+        }
+        if (!slots.compareAndSet(index(position), null, element)) {
+            throw new IllegalStateException("Slot for position " + position + " already in use");
+        }
+        if (position == cursor) {
+            Thread thread = consumer;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
+    /**
+     * Take the next element in order. Only one thread can consume from the buffer.
+     *
+     * @param timeout   Max time to wait
+     * @param unit      Time unit of the timeout
+     * @return          The next element, or null if the timeout elapsed or the buffer was closed.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public T take(long timeout, TimeUnit unit) throws InterruptedException {
+        if (consumer == null) {
+            consumer = Thread.currentThread();
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        int index = index(cursor);
+        while (true) {
+            T element = slots.get(index);
+            if (element != null) {
+                slots.set(index, null);
+                cursor++;
+                if (!waitingProducers.isEmpty()) {
+                    for (Thread producer : waitingProducers) {
+                        LockSupport.unpark(producer);
+                    }
+                }
+                return element;
+            }
+            if (closed) {
+                if (slots.get(index) == null) {
+                    return null;
+                }
+                // Element added right before closing the buffer.
+                continue;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            LockSupport.parkNanos(this, remaining);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * Close the buffer. The consumer will receive all the elements until the first empty slot.
+     */
+    public void close() {
+        closed = true;
+        Thread thread = consumer;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+        for (Thread producer : waitingProducers) {
+            LockSupport.unpark(producer);
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return If the next element in order is available
+     */
+    public boolean isNextReady() {
+        return slots.get(index(cursor)) != null;
+    }
+
+    /**
+     * @return Number of elements in the buffer. Not atomic, only for monitoring.
+     */
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < capacity; i++) {
+            if (slots.get(i) != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    public long getCursor() {
+        return cursor;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private int index(long position) {
+        return (int) (position % capacity);
+    }
+}
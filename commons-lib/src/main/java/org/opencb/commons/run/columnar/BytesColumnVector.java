@@ -0,0 +1,105 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.commons.run.columnar;
+
+import java.util.Arrays;
+
+/**
+ * Column of variable length binary values. All the values are stored contiguously in a single array,
+ * delimited by an offsets array. Values must be set in row order.
+ *
+ * Created on 18/10/26.
+ */
+public final class BytesColumnVector extends ColumnVector {
+
+    private byte[] data;
+    // offsets[row] is the start of the row, and offsets[row + 1] the end
+    private int[] offsets;
+    private int numValues;
+
+    BytesColumnVector(String name, int capacity) {
+        super(name, Type.BYTES);
+        data = new byte[capacity * 16];
+        offsets = new int[capacity + 1];
+    }
+
+    /**
+     * Set the value of the next row.
+     *
+     * @param row   Row. Must be the next row without value.
+     * @param value Value. If null, the row is marked as null.
+     */
+    public void setBytes(int row, byte[] value) {
+        if (row != numValues) {
+            throw new IllegalStateException("Values must be set in order. Expected row " + numValues + ", found " + row);
+        }
+        int start = offsets[row];
+        int length = value == null ? 0 : value.length;
+        if (start + length > data.length) {
+            data = Arrays.copyOf(data, grow(data.length, start + length));
+        }
+        if (value == null) {
+            setNull(row);
+        } else {
+            System.arraycopy(value, 0, data, start, length);
+        }
+        offsets[row + 1] = start + length;
+        numValues++;
+    }
+
+    public byte[] getBytes(int row) {
+        if (isNull(row)) {
+            return null;
+        }
+        return Arrays.copyOfRange(data, offsets[row], offsets[row + 1]);
+    }
+
+    public int getOffset(int row) {
+        return offsets[row];
+    }
+
+    public int getLength(int row) {
+        return offsets[row + 1] - offsets[row];
+    }
+
+    /**
+     * Direct access to the data. Use {@link #getOffset} and {@link #getLength} to find each value.
+     *
+     * @return The data array.
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    @Override
+    public int getCapacity() {
+        return offsets.length - 1;
+    }
+
+    @Override
+    void ensureCapacity(int capacity) {
+        if (capacity > getCapacity()) {
+            offsets = Arrays.copyOf(offsets, grow(getCapacity(), capacity) + 1);
+        }
+    }
+
+    @Override
+    void reset() {
+        super.reset();
+        numValues = 0;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.commons.run.columnar;
+
+import java.util.BitSet;
+
+/**
+ * Column of a {@link ColumnarBatch}. Values are stored in primitive arrays, indexed by row.
+ *
+ * Created on 18/10/26.
+ */
+public abstract class ColumnVector {
+
+    public enum Type {
+        INT,
+        LONG,
+        DOUBLE,
+        BYTES,
+        STRING
+    }
+
+    private final String name;
+    private final Type type;
+    private BitSet nulls;
+
+    ColumnVector(String name, Type type) {
+        this.name = name;
+        this.type = type;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public boolean isNull(int row) {
+        return nulls != null && nulls.get(row);
+    }
+
+    public void setNull(int row) {
+        if (nulls == null) {
+            nulls = new BitSet();
+        }
+        nulls.set(row);
+    }
+
+    public boolean hasNulls() {
+        return nulls != null && !nulls.isEmpty();
+    }
+
+    /**
+     * @return Number of rows that fit in the vector without growing it.
+     */
+    public abstract int getCapacity();
+
+    abstract void ensureCapacity(int capacity);
+
+    void reset() {
+        if (nulls != null) {
+            nulls.clear();
+        }
+    }
+
+    static int grow(int current, int required) {
+        return Math.max(required, current + (current >> 1));
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.commons.run.columnar;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Batch of rows stored by columns, in primitive arrays.
+ *
+ * ColumnarBatches can go through a {@link org.opencb.commons.run.ParallelTaskRunner} as any other element, so
+ * a pipeline of DataReader&lt;ColumnarBatch&gt;, Task&lt;ColumnarBatch, ColumnarBatch&gt; and
+ * DataWriter&lt;ColumnarBatch&gt; needs no conversion between stages. In that case, each element is a chunk of rows,
+ * and the batch size of the runner is the number of chunks per batch, usually 1.
+ * Use {@link RowToColumnarTask} to convert from objects, and {@link #toRows} to convert back.
+ *
+ * ColumnarBatch batch = ...;
+ * double[] af = batch.getDoubleColumn("af").getValues();
+ * double sum = 0;
+ * for (int i = 0; i &lt; batch.size(); i++) {
+ *     sum += af[i];
+ * }
+ *
+ * Created on 18/10/26.
+ */
+public final class ColumnarBatch {
+
+    private final Map<String, ColumnVector> columns = new LinkedHashMap<>();
+    private int capacity;
+    private int size;
+
+    /**
+     * Read one row of a batch.
+     *
+     * @param <R> Row type
+     */
+    @FunctionalInterface
+    public interface RowMapper<R> {
+        R map(ColumnarBatch batch, int row);
+    }
+
+    /**
+     * @param capacity  Expected number of rows
+     */
+    public ColumnarBatch(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity must be positive. Found " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    public IntColumnVector addIntColumn(String name) {
+        return addColumn(new IntColumnVector(name, capacity));
+    }
+
+    public LongColumnVector addLongColumn(String name) {
+        return addColumn(new LongColumnVector(name, capacity));
+    }
+
+    public DoubleColumnVector addDoubleColumn(String name) {
+        return addColumn(new DoubleColumnVector(name, capacity));
+    }
+
+    public BytesColumnVector addBytesColumn(String name) {
+        return addColumn(new BytesColumnVector(name, capacity));
+    }
+
+    public StringColumnVector addStringColumn(String name) {
+        return addStringColumn(name, new StringDictionary());
+    }
+
+    /**
+     * @param name          Column name
+     * @param dictionary    Dictionary to share with other batches
+     * @return              The new column
+     */
+    public StringColumnVector addStringColumn(String name, StringDictionary dictionary) {
+        return addColumn(new StringColumnVector(name, capacity, dictionary));
+    }
+
+    private <V extends ColumnVector> V addColumn(V column) {
+        if (columns.containsKey(column.getName())) {
+            throw new IllegalArgumentException("Duplicated column " + column.getName());
+        }
+        columns.put(column.getName(), column);
+        return column;
+    }
+
+    public ColumnVector getColumn(String name) {
+        ColumnVector column = columns.get(name);
+        if (column == null) {
+            throw new IllegalArgumentException("Column " + name + " not found. Available columns: " + columns.keySet());
+        }
+        return column;
+    }
+
+    public IntColumnVector getIntColumn(String name) {
+        return getColumn(name, IntColumnVector.class);
+    }
+
+    public LongColumnVector getLongColumn(String name) {
+        return getColumn(name, LongColumnVector.class);
+    }
+
+    public DoubleColumnVector getDoubleColumn(String name) {
+        return getColumn(name, DoubleColumnVector.class);
+    }
+
+    public BytesColumnVector getBytesColumn(String name) {
+        return getColumn(name, BytesColumnVector.class);
+    }
+
+    public StringColumnVector getStringColumn(String name) {
+        return getColumn(name, StringColumnVector.class);
+    }
+
+    private <V extends ColumnVector> V getColumn(String name, Class<V> clazz) {
+        ColumnVector column = getColumn(name);
+        if (!clazz.isInstance(column)) {
+            throw new IllegalArgumentException("Column " + name + " is of type " + column.getType());
+        }
+        return clazz.cast(column);
+    }
+
+    public boolean hasColumn(String name) {
+        return columns.containsKey(name);
+    }
+
+    public Collection<ColumnVector> getColumns() {
+        return columns.values();
+    }
+
+    /**
+     * @return Number of valid rows
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Set the number of valid rows, growing the columns if needed.
+     *
+     * @param size  Number of rows
+     */
+    public void setSize(int size) {
+        ensureCapacity(size);
+        this.size = size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void ensureCapacity(int capacity) {
+        if (capacity > this.capacity) {
+            for (ColumnVector column : columns.values()) {
+                column.ensureCapacity(capacity);
+            }
+            this.capacity = capacity;
+        }
+    }
+
+    /**
+     * Remove all the rows, keeping the columns and the allocated arrays, so the batch can be reused.
+     */
+    public void reset() {
+        size = 0;
+        for (ColumnVector column : columns.values()) {
+            column.reset();
+        }
+    }
+
+    /**
+     * Convert the batch back to objects.
+     *
+     * @param mapper    Function to read each row
+     * @param <R>       Row type
+     * @return          List of rows
+     */
+    public <R> List<R> toRows(RowMapper<R> mapper) {
+        List<R> rows = new ArrayList<>(size);
+        for (int row = 0; row < size; row++) {
+            rows.add(mapper.map(this, row));
+        }
+        return rows;
+    }
+
+    @Override
+    public String toString() {
+        return "ColumnarBatch{size=" + size + ", columns=" + columns.keySet() + '}';
+    }
+}
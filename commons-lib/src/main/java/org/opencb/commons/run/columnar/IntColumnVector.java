@@ -0,0 +1,63 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.commons.run.columnar;
+
+import java.util.Arrays;
+
+/**
+ * Column of int values.
+ *
+ * Created on 18/10/26.
+ */
+public final class IntColumnVector extends ColumnVector {
+
+    private int[] values;
+
+    IntColumnVector(String name, int capacity) {
+        super(name, Type.INT);
+        values = new int[capacity];
+    }
+
+    public int getInt(int row) {
+        return values[row];
+    }
+
+    public void setInt(int row, int value) {
+        values[row] = value;
+    }
+
+    /**
+     * Direct access to the values, for vectorised loops. Only the first {@link ColumnarBatch#size()} values are valid.
+     *
+     * @return The values array.
+     */
+    public int[] getValues() {
+        return values;
+    }
+
+    @Override
+    public int getCapacity() {
+        return values.length;
+    }
+
+    @Override
+    void ensureCapacity(int capacity) {
+        if (capacity > values.length) {
+            values = Arrays.copyOf(values, grow(values.length, capacity));
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.commons.run.columnar;
+
+import org.opencb.commons.run.Task;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Task to convert a batch of objects into a single {@link ColumnarBatch}, extracting one column per field.
+ *
+ * DataReader&lt;ColumnarBatch&gt; reader = variantReader.then(new RowToColumnarTask&lt;Variant&gt;()
+ *      .addString("chr", Variant::getChromosome)
+ *      .addInt("start", Variant::getStart)
+ *      .addDouble("af", v -&gt; getAlleleFrequency(v)));
+ *
+ * Each batch has its own dictionary for each string column, so the same instance can be used by multiple threads.
+ *
+ * Created on 18/10/26.
+ *
+ * @param <T> Input type
+ */
+public class RowToColumnarTask<T> implements Task<T, ColumnarBatch> {
+
+    private final List<Column<T>> columns = new ArrayList<>();
+
+    @FunctionalInterface
+    private interface Column<T> {
+        void fill(ColumnarBatch batch, List<T> rows);
+    }
+
+    public RowToColumnarTask<T> addInt(String name, ToIntFunction<? super T> extractor) {
+        columns.add((batch, rows) -> {
+            int[] values = batch.addIntColumn(name).getValues();
+            for (int i = 0; i < rows.size(); i++) {
+                values[i] = extractor.applyAsInt(rows.get(i));
+            }
+        });
+        return this;
+    }
+
+    public RowToColumnarTask<T> addLong(String name, ToLongFunction<? super T> extractor) {
+        columns.add((batch, rows) -> {
+            long[] values = batch.addLongColumn(name).getValues();
+            for (int i = 0; i < rows.size(); i++) {
+                values[i] = extractor.applyAsLong(rows.get(i));
+            }
+        });
+        return this;
+    }
+
+    public RowToColumnarTask<T> addDouble(String name, ToDoubleFunction<? super T> extractor) {
+        columns.add((batch, rows) -> {
+            double[] values = batch.addDoubleColumn(name).getValues();
+            for (int i = 0; i < rows.size(); i++) {
+                values[i] = extractor.applyAsDouble(rows.get(i));
+            }
+        });
+        return this;
+    }
+
+    public RowToColumnarTask<T> addBytes(String name, Function<? super T, byte[]> extractor) {
+        columns.add((batch, rows) -> {
+            BytesColumnVector column = batch.addBytesColumn(name);
+            for (int i = 0; i < rows.size(); i++) {
+                column.setBytes(i, extractor.apply(rows.get(i)));
+            }
+        });
+        return this;
+    }
+
+    public RowToColumnarTask<T> addString(String name, Function<? super T, String> extractor) {
+        columns.add((batch, rows) -> {
+            StringColumnVector column = batch.addStringColumn(name);
+            for (int i = 0; i < rows.size(); i++) {
+                column.setString(i, extractor.apply(rows.get(i)));
+            }
+        });
+        return this;
+    }
+
+    @Override
+    public List<ColumnarBatch> apply(List<T> rows) {
+        if (rows == null || rows.isEmpty()) {
+            return Collections.emptyList();
+        }
+        ColumnarBatch batch = new ColumnarBatch(rows.size());
+        for (Column<T> column : columns) {
+            column.fill(batch, rows);
+        }
+        batch.setSize(rows.size());
+        return Collections.singletonList(batch);
+    }
+}
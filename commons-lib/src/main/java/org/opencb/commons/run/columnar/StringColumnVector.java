@@ -0,0 +1,82 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.commons.run.columnar;
+
+import java.util.Arrays;
+
+/**
+ * Dictionary encoded column of strings. Each row stores the int id of the string in a {@link StringDictionary},
+ * so filters and group-by can run over the ids without comparing strings.
+ *
+ * Created on 18/10/26.
+ */
+public final class StringColumnVector extends ColumnVector {
+
+    public static final int NULL_ID = -1;
+
+    private final StringDictionary dictionary;
+    private int[] ids;
+
+    StringColumnVector(String name, int capacity, StringDictionary dictionary) {
+        super(name, Type.STRING);
+        this.dictionary = dictionary;
+        this.ids = new int[capacity];
+    }
+
+    public void setString(int row, String value) {
+        if (value == null) {
+            ids[row] = NULL_ID;
+            setNull(row);
+        } else {
+            ids[row] = dictionary.encode(value);
+        }
+    }
+
+    public String getString(int row) {
+        int id = ids[row];
+        return id == NULL_ID ? null : dictionary.decode(id);
+    }
+
+    public int getId(int row) {
+        return ids[row];
+    }
+
+    /**
+     * Direct access to the ids, for vectorised loops. Only the first {@link ColumnarBatch#size()} ids are valid.
+     *
+     * @return The ids array.
+     */
+    public int[] getIds() {
+        return ids;
+    }
+
+    public StringDictionary getDictionary() {
+        return dictionary;
+    }
+
+    @Override
+    public int getCapacity() {
+        return ids.length;
+    }
+
+    @Override
+    void ensureCapacity(int capacity) {
+        if (capacity > ids.length) {
+            ids = Arrays.copyOf(ids, grow(ids.length, capacity));
+        }
+    }
+}
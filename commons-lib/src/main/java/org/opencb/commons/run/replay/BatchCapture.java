@@ -0,0 +1,136 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.commons.run.replay;
+
+import org.opencb.commons.io.DataReader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compact binary capture of batches, to replay them offline with a {@link ReplayHarness}.
+ *
+ * Format, gzip compressed:
+ *   magic "PTRC", int version,
+ *   for each batch: int numElements, and each element written by the {@link ElementCodec},
+ *   int 0 as end mark.
+ *
+ * The batch boundaries are kept, so the replay is deterministic.
+ *
+ * Created on 18/10/26.
+ */
+public final class BatchCapture {
+
+    private static final byte[] MAGIC = {'P', 'T', 'R', 'C'};
+    private static final int VERSION = 1;
+
+    private BatchCapture() {
+    }
+
+    /**
+     * Record a sample of batches from a reader. The reader is opened and closed.
+     *
+     * @param reader        Reader to sample
+     * @param capture       Output file
+     * @param codec         Codec to serialize the elements
+     * @param batchSize     Batch size to read
+     * @param maxBatches    Max number of batches to record
+     * @param sampleEvery   Record one of every N batches. Use 1 to record all the batches.
+     * @param <T>           Element type
+     * @return              Number of batches recorded
+     * @throws IOException  if the capture can not be written
+     */
+    public static <T> int record(DataReader<T> reader, Path capture, ElementCodec<T> codec, int batchSize, int maxBatches,
+                                 int sampleEvery) throws IOException {
+        if (sampleEvery <= 0) {
+            throw new IllegalArgumentException("Sample rate must be positive. Found " + sampleEvery);
+        }
+        int recorded = 0;
+        reader.open();
+        reader.pre();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(Files.newOutputStream(capture))))) {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            int numBatch = 0;
+            while (recorded < maxBatches) {
+                List<T> batch = reader.read(batchSize);
+                if (batch == null || batch.isEmpty()) {
+                    break;
+                }
+                if (numBatch++ % sampleEvery != 0) {
+                    continue;
+                }
+                out.writeInt(batch.size());
+                for (T element : batch) {
+                    codec.write(out, element);
+                }
+                recorded++;
+            }
+            out.writeInt(0);
+        } finally {
+            reader.post();
+            reader.close();
+        }
+        return recorded;
+    }
+
+    /**
+     * Load all the batches of a capture in memory.
+     *
+     * @param capture       Capture file
+     * @param codec         Codec to deserialize the elements
+     * @param <T>           Element type
+     * @return              Batches
+     * @throws IOException  if the capture can not be read, or is not valid
+     */
+    public static <T> List<List<T>> load(Path capture, ElementCodec<T> codec) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(capture))))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("File " + capture + " is not a batch capture");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported batch capture version " + version);
+            }
+            List<List<T>> batches = new ArrayList<>();
+            int size = in.readInt();
+            while (size > 0) {
+                List<T> batch = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    batch.add(codec.read(in));
+                }
+                batches.add(batch);
+                size = in.readInt();
+            }
+            return batches;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.commons.run.replay;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary serialization of the elements of a {@link BatchCapture}.
+ *
+ * Created on 18/10/26.
+ *
+ * @param <T> Element type
+ */
+public interface ElementCodec<T> {
+
+    void write(DataOutput out, T element) throws IOException;
+
+    T read(DataInput in) throws IOException;
+
+    static ElementCodec<byte[]> bytes() {
+        return new ElementCodec<byte[]>() {
+            @Override
+            public void write(DataOutput out, byte[] element) throws IOException {
+                out.writeInt(element.length);
+                out.write(element);
+            }
+
+            @Override
+            public byte[] read(DataInput in) throws IOException {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return bytes;
+            }
+        };
+    }
+
+    static ElementCodec<String> strings() {
+        ElementCodec<byte[]> bytes = bytes();
+        return new ElementCodec<String>() {
+            @Override
+            public void write(DataOutput out, String element) throws IOException {
+                bytes.write(out, element.getBytes(StandardCharsets.UTF_8));
+            }
+
+            @Override
+            public String read(DataInput in) throws IOException {
+                return new String(bytes.read(in), StandardCharsets.UTF_8);
+            }
+        };
+    }
+}
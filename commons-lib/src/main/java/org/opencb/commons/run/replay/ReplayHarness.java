@@ -0,0 +1,161 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.commons.run.replay;
+
+import org.opencb.commons.io.DataReader;
+import org.opencb.commons.run.LatencyHistogram;
+import org.opencb.commons.run.ParallelTaskRunner;
+import org.opencb.commons.run.ParallelTaskRunnerMetrics;
+import org.opencb.commons.run.Task;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Replay a {@link BatchCapture} through a Task, or a chain of Tasks, with a {@link ParallelTaskRunner}, and report
+ * the throughput and the latency percentiles of the tasks.
+ *
+ * The batches are loaded in memory before running, and the output is discarded, so the report only measures
+ * the tasks and the runner configuration, without the original inputs and outputs.
+ *
+ * ReplayHarness&lt;String, Variant&gt; harness = ReplayHarness.load(capture, ElementCodec.strings(), VariantParserTask::new);
+ * for (int numTasks : new int[]{1, 2, 4, 8}) {
+ *     ReplayReport report = harness.run(ParallelTaskRunner.Config.builder().setNumTasks(numTasks).build());
+ * }
+ *
+ * Configurations with a {@link org.opencb.commons.run.Checkpoint} are not supported.
+ *
+ * Created on 18/10/26.
+ *
+ * @param <I> Input type
+ * @param <O> Output type
+ */
+public class ReplayHarness<I, O> {
+
+    private final List<List<I>> batches;
+    private final Supplier<? extends Task<I, O>> taskSupplier;
+    private int warmupRuns = 1;
+    private int runs = 3;
+    private boolean useRecordedBatches = true;
+
+    /**
+     * @param batches       Batches to replay
+     * @param taskSupplier  Generates a new task for each thread and run
+     */
+    public ReplayHarness(List<List<I>> batches, Supplier<? extends Task<I, O>> taskSupplier) {
+        this.batches = batches;
+        this.taskSupplier = taskSupplier;
+    }
+
+    public static <I, O> ReplayHarness<I, O> load(Path capture, ElementCodec<I> codec, Supplier<? extends Task<I, O>> taskSupplier)
+            throws IOException {
+        return new ReplayHarness<>(BatchCapture.load(capture, codec), taskSupplier);
+    }
+
+    /**
+     * @param warmupRuns    Number of runs to discard before measuring, to warm up the JVM
+     * @return              this
+     */
+    public ReplayHarness<I, O> setWarmupRuns(int warmupRuns) {
+        this.warmupRuns = warmupRuns;
+        return this;
+    }
+
+    /**
+     * @param runs  Number of measured runs
+     * @return      this
+     */
+    public ReplayHarness<I, O> setRuns(int runs) {
+        if (runs <= 0) {
+            throw new IllegalArgumentException("Runs must be positive. Found " + runs);
+        }
+        this.runs = runs;
+        return this;
+    }
+
+    /**
+     * @param useRecordedBatches    If true, replay the batches as they were recorded. If false, split the recorded
+     *                              elements using the batch size of the configuration.
+     * @return                      this
+     */
+    public ReplayHarness<I, O> setUseRecordedBatches(boolean useRecordedBatches) {
+        this.useRecordedBatches = useRecordedBatches;
+        return this;
+    }
+
+    /**
+     * Replay the capture with the given configuration.
+     *
+     * @param config    Configuration of the runner
+     * @return          Report of the measured runs
+     * @throws ExecutionException if any run fails
+     */
+    public ReplayReport run(ParallelTaskRunner.Config config) throws ExecutionException {
+        for (int i = 0; i < warmupRuns; i++) {
+            runOnce(config);
+        }
+        LatencyHistogram taskLatency = new LatencyHistogram();
+        long numBatches = 0;
+        long numElements = 0;
+        double elapsedSeconds = 0;
+        for (int i = 0; i < runs; i++) {
+            ParallelTaskRunnerMetrics metrics = runOnce(config);
+            taskLatency.add(metrics.getTaskLatency());
+            numBatches += metrics.getReadBatches();
+            numElements += metrics.getReadElements();
+            elapsedSeconds += metrics.getElapsedSeconds();
+        }
+        return new ReplayReport(runs, numBatches, numElements, elapsedSeconds, taskLatency);
+    }
+
+    private ParallelTaskRunnerMetrics runOnce(ParallelTaskRunner.Config config) throws ExecutionException {
+        ParallelTaskRunner<I, O> runner = new ParallelTaskRunner<>(newReader(), taskSupplier, batch -> true, config);
+        runner.run();
+        return runner.getMetrics();
+    }
+
+    private DataReader<I> newReader() {
+        List<I> elements;
+        if (useRecordedBatches) {
+            elements = null;
+        } else {
+            elements = new ArrayList<>();
+            batches.forEach(elements::addAll);
+        }
+        return new DataReader<I>() {
+            private int next = 0;
+
+            @Override
+            public List<I> read(int batchSize) {
+                if (elements == null) {
+                    // Copy, in case the task modifies the batch
+                    return next < batches.size() ? new ArrayList<>(batches.get(next++)) : Collections.emptyList();
+                } else {
+                    int end = Math.min(elements.size(), next + batchSize);
+                    List<I> batch = new ArrayList<>(elements.subList(next, end));
+                    next = end;
+                    return batch;
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.commons.run.replay;
+
+import org.opencb.commons.run.LatencyHistogram;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and task latency of the measured runs of a {@link ReplayHarness}.
+ *
+ * Created on 18/10/26.
+ */
+public final class ReplayReport {
+
+    private final int runs;
+    private final long batches;
+    private final long elements;
+    private final double elapsedSeconds;
+    private final LatencyHistogram taskLatency;
+
+    ReplayReport(int runs, long batches, long elements, double elapsedSeconds, LatencyHistogram taskLatency) {
+        this.runs = runs;
+        this.batches = batches;
+        this.elements = elements;
+        this.elapsedSeconds = elapsedSeconds;
+        this.taskLatency = taskLatency;
+    }
+
+    public int getRuns() {
+        return runs;
+    }
+
+    public long getBatches() {
+        return batches;
+    }
+
+    public long getElements() {
+        return elements;
+    }
+
+    public double getElapsedSeconds() {
+        return elapsedSeconds;
+    }
+
+    public double getElementsPerSecond() {
+        return elapsedSeconds == 0 ? 0 : elements / elapsedSeconds;
+    }
+
+    public double getBatchesPerSecond() {
+        return elapsedSeconds == 0 ? 0 : batches / elapsedSeconds;
+    }
+
+    /**
+     * @return Latency of each Task.apply in all the measured runs
+     */
+    public LatencyHistogram getTaskLatency() {
+        return taskLatency;
+    }
+
+    public long getTaskLatencyPercentile(double percentile, TimeUnit unit) {
+        return taskLatency.getPercentile(percentile, unit);
+    }
+
+    @Override
+    public String toString() {
+        return "ReplayReport{"
+                + "runs=" + runs
+                + ", batches=" + batches
+                + ", elements=" + elements
+                + ", elapsed=" + String.format("%.3f", elapsedSeconds) + "s"
+                + ", elementsPerSecond=" + String.format("%.2f", getElementsPerSecond())
+                + ", batchesPerSecond=" + String.format("%.2f", getBatchesPerSecond())
+                + ", p50=" + getTaskLatencyPercentile(50, TimeUnit.MICROSECONDS) + "us"
+                + ", p90=" + getTaskLatencyPercentile(90, TimeUnit.MICROSECONDS) + "us"
+                + ", p99=" + getTaskLatencyPercentile(99, TimeUnit.MICROSECONDS) + "us"
+                + ", max=" + taskLatency.getMax(TimeUnit.MICROSECONDS) + "us"
+                + '}';
+    }
+}
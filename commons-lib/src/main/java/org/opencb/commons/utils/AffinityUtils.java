@@ -0,0 +1,186 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.commons.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Best effort CPU affinity for Java threads, without native libraries.
+ *
+ * Java has no API to set the affinity of a thread. On Linux, the native id of the current thread is read from
+ * /proc/thread-self, and the affinity is set with the "taskset" command. The NUMA topology is read from
+ * /sys/devices/system/node. On other systems, or if any of these is missing, the methods do nothing and
+ * return null, so callers can fall back to no affinity.
+ *
+ * Created on 18/10/26.
+ */
+public final class AffinityUtils {
+
+    private static final Path THREAD_SELF = Paths.get("/proc/thread-self");
+    private static final Path NUMA_NODES = Paths.get("/sys/devices/system/node");
+    private static final long TASKSET_TIMEOUT_SECONDS = 10;
+
+    private static final boolean SUPPORTED = checkSupported();
+
+    private static Logger logger = LoggerFactory.getLogger(AffinityUtils.class);
+
+    private AffinityUtils() {
+    }
+
+    public static boolean isSupported() {
+        return SUPPORTED;
+    }
+
+    /**
+     * @return CPU list of each NUMA node, like "0-15,32-47". A single node with all the CPUs if unknown.
+     */
+    public static List<String> getNumaNodes() {
+        List<String> nodes = new ArrayList<>();
+        if (Files.isDirectory(NUMA_NODES)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(NUMA_NODES, "node[0-9]*")) {
+                List<Path> paths = new ArrayList<>();
+                stream.forEach(paths::add);
+                paths.sort((a, b) -> Integer.compare(nodeId(a), nodeId(b)));
+                for (Path path : paths) {
+                    String cpuList = new String(Files.readAllBytes(path.resolve("cpulist")), StandardCharsets.UTF_8).trim();
+                    if (!cpuList.isEmpty()) {
+                        // Nodes without CPUs, like memory only nodes, are skipped
+                        nodes.add(cpuList);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.debug("Unable to read NUMA topology", e);
+                nodes.clear();
+            }
+        }
+        if (nodes.isEmpty()) {
+            return Collections.singletonList("0-" + (Runtime.getRuntime().availableProcessors() - 1));
+        }
+        return nodes;
+    }
+
+    /**
+     * Restrict the current thread to the given CPUs.
+     *
+     * @param cpuList   CPU list, like "0-15,32-47"
+     * @return          Previous affinity mask, to be restored with {@link #restoreCurrentThreadAffinity},
+     *                  or null if the affinity could not be changed.
+     */
+    public static String setCurrentThreadAffinity(String cpuList) {
+        if (!SUPPORTED) {
+            return null;
+        }
+        String tid = getCurrentThreadNativeId();
+        if (tid == null) {
+            return null;
+        }
+        String output = taskset("-p", tid);
+        if (output == null || output.lastIndexOf(':') < 0) {
+            return null;
+        }
+        String previousMask = output.substring(output.lastIndexOf(':') + 1).trim();
+        if (taskset("-p", "-c", cpuList, tid) == null) {
+            return null;
+        }
+        return previousMask;
+    }
+
+    /**
+     * @param mask  Affinity mask returned by {@link #setCurrentThreadAffinity}
+     * @return      If the affinity was restored
+     */
+    public static boolean restoreCurrentThreadAffinity(String mask) {
+        if (!SUPPORTED || mask == null) {
+            return false;
+        }
+        String tid = getCurrentThreadNativeId();
+        return tid != null && taskset("-p", mask, tid) != null;
+    }
+
+    private static String getCurrentThreadNativeId() {
+        try {
+            // Link to "<pid>/task/<tid>"
+            return THREAD_SELF.toRealPath().getFileName().toString();
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static String taskset(String... args) {
+        List<String> command = new ArrayList<>(args.length + 1);
+        command.add("taskset");
+        Collections.addAll(command, args);
+        try {
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            String output;
+            try (InputStream is = process.getInputStream()) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] buffer = new byte[1024];
+                int read;
+                while ((read = is.read(buffer)) > 0) {
+                    bytes.write(buffer, 0, read);
+                }
+                output = new String(bytes.toByteArray(), StandardCharsets.UTF_8).trim();
+            }
+            if (!process.waitFor(TASKSET_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                process.destroy();
+                return null;
+            }
+            if (process.exitValue() != 0) {
+                logger.debug("Error executing {} : {}", command, output);
+                return null;
+            }
+            return output;
+        } catch (IOException e) {
+            logger.debug("Error executing " + command, e);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private static int nodeId(Path path) {
+        return Integer.parseInt(path.getFileName().toString().substring("node".length()));
+    }
+
+    private static boolean checkSupported() {
+        if (!System.getProperty("os.name", "").toLowerCase().startsWith("linux") || !Files.exists(THREAD_SELF)) {
+            return false;
+        }
+        for (String dir : System.getenv().getOrDefault("PATH", "").split(":")) {
+            if (!dir.isEmpty() && Files.isExecutable(Paths.get(dir, "taskset"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,154 @@
+package org.opencb.commons.io;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opencb.commons.run.ParallelTaskRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class AsyncDataWriterTest {
+
+    @Test(timeout = 10000)
+    public void testGroupCommit() {
+        List<Integer> sizes = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> values = Collections.synchronizedList(new ArrayList<>());
+        AsyncDataWriter<Integer> writer = new AsyncDataWriter<Integer>(batch -> {
+            sizes.add(batch.size());
+            values.addAll(batch);
+            return true;
+        }).setMaxElements(100).setLinger(1, TimeUnit.HOURS);
+        writer.open();
+        writer.pre();
+        for (int i = 0; i < 1005; i += 5) {
+            writer.write(IntStream.range(i, i + 5).boxed().collect(Collectors.toList()));
+        }
+        writer.post();
+        writer.close();
+        Assert.assertEquals(IntStream.range(0, 1005).boxed().collect(Collectors.toList()), values);
+        List<Integer> expectedSizes = new ArrayList<>(Collections.nCopies(10, 100));
+        expectedSizes.add(5);
+        Assert.assertEquals(expectedSizes, sizes);
+        Assert.assertEquals(11, writer.getWrittenGroups());
+    }
+
+    @Test(timeout = 10000)
+    public void testMaxBytes() {
+        List<Integer> sizes = Collections.synchronizedList(new ArrayList<>());
+        AsyncDataWriter<String> writer = new AsyncDataWriter<String>(batch -> sizes.add(batch.size()))
+                .setMaxBytes(100, String::length);
+        writer.open();
+        writer.pre();
+        for (int i = 0; i < 20; i++) {
+            writer.write(Collections.singletonList("0123456789"));
+        }
+        writer.post();
+        writer.close();
+        Assert.assertEquals(Collections.nCopies(2, 10), sizes);
+    }
+
+    @Test(timeout = 10000)
+    public void testLingerAndFlush() throws Exception {
+        AtomicInteger written = new AtomicInteger();
+        AsyncDataWriter<Integer> writer = new AsyncDataWriter<Integer>(batch -> {
+            written.addAndGet(batch.size());
+            return true;
+        }).setLinger(50, TimeUnit.MILLISECONDS);
+        writer.open();
+        writer.pre();
+        writer.write(Collections.singletonList(1));
+        Assert.assertEquals(0, written.get());
+        Thread.sleep(500);
+        Assert.assertEquals(1, written.get());
+
+        writer.write(Collections.singletonList(2));
+        writer.flush();
+        Assert.assertEquals(2, written.get());
+        writer.post();
+        writer.close();
+    }
+
+    @Test(timeout = 10000)
+    public void testFailure() {
+        AsyncDataWriter<Integer> writer = new AsyncDataWriter<Integer>(batch -> {
+            throw new IllegalArgumentException("Fail writing");
+        }).setMaxElements(1);
+        writer.open();
+        writer.pre();
+        try {
+            for (int i = 0; i < 100; i++) {
+                writer.write(Collections.singletonList(i));
+                Thread.sleep(10);
+            }
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("Fail writing", e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Assert.fail();
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testOrderPerThread() throws Exception {
+        int numThreads = 4;
+        int numElements = 20000;
+        List<Integer> values = Collections.synchronizedList(new ArrayList<>());
+        AsyncDataWriter<Integer> writer = new AsyncDataWriter<Integer>(batch -> {
+            values.addAll(batch);
+            return true;
+        }).setMaxElements(7).setCapacity(1).setLinger(1, TimeUnit.MICROSECONDS);
+        writer.open();
+        writer.pre();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < numThreads; t++) {
+            int thread = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < numElements; i++) {
+                    writer.write(Collections.singletonList(i * numThreads + thread));
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        writer.post();
+        writer.close();
+
+        Assert.assertEquals(numThreads * numElements, values.size());
+        int[] next = new int[numThreads];
+        for (Integer value : values) {
+            int thread = value % numThreads;
+            Assert.assertEquals(next[thread] * numThreads + thread, value.intValue());
+            next[thread]++;
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testParallelTaskRunner() throws Exception {
+        int limit = 10000;
+        AtomicInteger count = new AtomicInteger();
+        List<Integer> values = Collections.synchronizedList(new ArrayList<>());
+        AsyncDataWriter<Integer> writer = new AsyncDataWriter<Integer>(values::addAll).setMaxElements(500);
+        new ParallelTaskRunner<Integer, Integer>(batchSize -> {
+            List<Integer> batch = new ArrayList<>(batchSize);
+            for (int i = 0; i < batchSize && count.get() < limit; i++) {
+                batch.add(count.getAndIncrement());
+            }
+            return batch;
+        }, writer.asTask(), null, ParallelTaskRunner.Config.builder()
+                .setNumTasks(4)
+                .setBatchSize(10)
+                .build()).run();
+        Assert.assertEquals(limit, values.size());
+        Assert.assertEquals(limit, writer.getWrittenElements());
+        Assert.assertEquals(limit / 500, writer.getWrittenGroups());
+    }
+}
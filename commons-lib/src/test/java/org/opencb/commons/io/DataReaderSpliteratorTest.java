@@ -0,0 +1,88 @@
+package org.opencb.commons.io;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+public class DataReaderSpliteratorTest {
+
+    @Test
+    public void testStream() {
+        AtomicInteger reads = new AtomicInteger();
+        AtomicBoolean closed = new AtomicBoolean();
+        List<Integer> values = newReader(1000, reads, closed).stream(100).collect(Collectors.toList());
+        Assert.assertEquals(IntStream.range(0, 1000).boxed().collect(Collectors.toList()), values);
+        // 10 batches and an empty one
+        Assert.assertEquals(11, reads.get());
+        Assert.assertTrue(closed.get());
+    }
+
+    @Test
+    public void testParallelStream() {
+        AtomicInteger reads = new AtomicInteger();
+        AtomicBoolean closed = new AtomicBoolean();
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        List<Integer> values = newReader(100000, reads, closed).parallelStream(1000)
+                .map(i -> {
+                    threads.add(Thread.currentThread().getName());
+                    return i * 2;
+                })
+                .collect(Collectors.toList());
+        Assert.assertEquals(IntStream.range(0, 100000).map(i -> i * 2).boxed().collect(Collectors.toList()), values);
+        Assert.assertEquals(101, reads.get());
+        Assert.assertTrue(closed.get());
+        System.out.println("threads = " + threads);
+    }
+
+    @Test
+    public void testTrySplit() {
+        DataReaderSpliterator<Integer> spliterator = newReader(25, new AtomicInteger(), new AtomicBoolean()).spliterator(10);
+        Assert.assertTrue(spliterator.tryAdvance(i -> Assert.assertEquals(0, i.intValue())));
+        // Hands off the rest of the current batch
+        Assert.assertEquals(9, spliterator.trySplit().estimateSize());
+        Assert.assertEquals(10, spliterator.trySplit().estimateSize());
+        Assert.assertEquals(5, spliterator.trySplit().estimateSize());
+        Assert.assertNull(spliterator.trySplit());
+        Assert.assertFalse(spliterator.tryAdvance(i -> Assert.fail()));
+    }
+
+    @Test
+    public void testCloseStream() {
+        AtomicBoolean closed = new AtomicBoolean();
+        try (Stream<Integer> stream = newReader(1000, new AtomicInteger(), closed).stream(10)) {
+            Assert.assertEquals(Integer.valueOf(0), stream.findFirst().get());
+            Assert.assertFalse(closed.get());
+        }
+        Assert.assertTrue(closed.get());
+    }
+
+    private static DataReader<Integer> newReader(int limit, AtomicInteger reads, AtomicBoolean closed) {
+        AtomicInteger count = new AtomicInteger();
+        return new DataReader<Integer>() {
+            @Override
+            public List<Integer> read(int batchSize) {
+                reads.incrementAndGet();
+                List<Integer> batch = new ArrayList<>(batchSize);
+                for (int i = 0; i < batchSize && count.get() < limit; i++) {
+                    batch.add(count.getAndIncrement());
+                }
+                return batch;
+            }
+
+            @Override
+            public boolean close() {
+                closed.set(true);
+                return true;
+            }
+        };
+    }
+}
@@ -0,0 +1,146 @@
+package org.opencb.commons.io;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class PrefetchDataReaderTest {
+
+    @Test(timeout = 10000)
+    public void testPrefetch() throws Exception {
+        AtomicInteger count = new AtomicInteger();
+        AtomicBoolean closed = new AtomicBoolean();
+        PrefetchDataReader<Integer> reader = new PrefetchDataReader<>(newReader(1000, count, closed), 4);
+        reader.open();
+        reader.pre();
+        Assert.assertEquals(IntStream.range(0, 10).boxed().collect(Collectors.toList()), reader.read(10));
+        // Wait for the read ahead
+        Thread.sleep(100);
+        Assert.assertEquals(4, reader.getPrefetchedBatches());
+        Assert.assertEquals(50, count.get() - 10, 10);
+
+        List<Integer> values = new ArrayList<>(reader.read(10));
+        // Smaller batches than the prefetched ones
+        List<Integer> batch = reader.read(3);
+        Assert.assertEquals(3, batch.size());
+        values.addAll(batch);
+        do {
+            batch = reader.read(10);
+            values.addAll(batch);
+        } while (!batch.isEmpty());
+        reader.post();
+        reader.close();
+        Assert.assertEquals(IntStream.range(10, 1000).boxed().collect(Collectors.toList()), values);
+        Assert.assertTrue(closed.get());
+    }
+
+    @Test(timeout = 10000)
+    public void testStream() {
+        AtomicBoolean closed = new AtomicBoolean();
+        List<Integer> values = newReader(1000, new AtomicInteger(), closed).prefetch(2).stream(100).collect(Collectors.toList());
+        Assert.assertEquals(IntStream.range(0, 1000).boxed().collect(Collectors.toList()), values);
+        Assert.assertTrue(closed.get());
+    }
+
+    @Test(timeout = 10000)
+    public void testEarlyClose() {
+        AtomicBoolean closed = new AtomicBoolean();
+        // Infinite reader
+        DataReader<Integer> reader = newReader(Integer.MAX_VALUE, new AtomicInteger(), closed).prefetch(2);
+        reader.open();
+        reader.pre();
+        Assert.assertEquals(10, reader.read(10).size());
+        reader.post();
+        reader.close();
+        Assert.assertTrue(closed.get());
+        Assert.assertTrue(reader.read(10).isEmpty());
+    }
+
+    @Test(timeout = 10000)
+    public void testCloseDuringSlowRead() {
+        AtomicInteger reads = new AtomicInteger();
+        DataReader<Integer> reader = new PrefetchDataReader<>(batchSize -> {
+            if (reads.getAndIncrement() > 0) {
+                try {
+                    Thread.sleep(TimeUnit.HOURS.toMillis(1));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return Collections.singletonList(1);
+        }, 2);
+        reader.open();
+        reader.pre();
+        Assert.assertEquals(Collections.singletonList(1), reader.read(10));
+        // Does not wait for the slow read
+        reader.post();
+        reader.close();
+    }
+
+    @Test(timeout = 10000)
+    public void testReopen() {
+        AtomicInteger count = new AtomicInteger();
+        AtomicBoolean closed = new AtomicBoolean();
+        DataReader<Integer> reader = new PrefetchDataReader<>(newReader(100, count, closed), 2);
+        reader.open();
+        reader.pre();
+        Assert.assertEquals(IntStream.range(0, 10).boxed().collect(Collectors.toList()), reader.read(10));
+        reader.post();
+        reader.close();
+
+        count.set(0);
+        reader.open();
+        reader.pre();
+        Assert.assertEquals(IntStream.range(0, 10).boxed().collect(Collectors.toList()), reader.read(10));
+        reader.post();
+        reader.close();
+    }
+
+    @Test(timeout = 10000)
+    public void testFailure() {
+        AtomicInteger count = new AtomicInteger();
+        DataReader<Integer> reader = new PrefetchDataReader<>(batchSize -> {
+            if (count.getAndIncrement() == 3) {
+                throw new IllegalArgumentException("Fail reading");
+            }
+            return IntStream.range(0, batchSize).boxed().collect(Collectors.toList());
+        }, 10);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(10, reader.read(10).size());
+        }
+        try {
+            reader.read(10);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("Fail reading", e.getCause().getMessage());
+        }
+        reader.close();
+    }
+
+    private DataReader<Integer> newReader(int limit, AtomicInteger count, AtomicBoolean closed) {
+        return new DataReader<Integer>() {
+            @Override
+            public List<Integer> read(int batchSize) {
+                List<Integer> batch = new ArrayList<>(batchSize);
+                for (int i = 0; i < batchSize && count.get() < limit; i++) {
+                    batch.add(count.getAndIncrement());
+                }
+                return batch;
+            }
+
+            @Override
+            public boolean close() {
+                closed.set(true);
+                return true;
+            }
+        };
+    }
+}
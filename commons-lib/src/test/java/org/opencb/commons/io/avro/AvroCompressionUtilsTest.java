@@ -0,0 +1,156 @@
+package org.opencb.commons.io.avro;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.file.Codec;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileConstants;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class AvroCompressionUtilsTest {
+
+    private static final Schema SCHEMA = SchemaBuilder.record("Element").namespace("org.opencb.commons.test")
+            .fields()
+            .requiredInt("id")
+            .requiredString("name")
+            .endRecord();
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testCodecNames() {
+        Assert.assertEquals(DataFileConstants.NULL_CODEC, AvroCompressionUtils.newCodec((String) null).getName());
+        Assert.assertEquals(DataFileConstants.DEFLATE_CODEC, AvroCompressionUtils.newCodec("gzip").getName());
+        Assert.assertEquals(DataFileConstants.DEFLATE_CODEC, AvroCompressionUtils.newCodec("deflate:1").getName());
+        Assert.assertEquals(DataFileConstants.XZ_CODEC, AvroCompressionUtils.newCodec("xz:6").getName());
+        Assert.assertEquals(ZstandardCodec.NAME, AvroCompressionUtils.newCodec("zstd").getName());
+        Codec codec = AvroCompressionUtils.newCodec("zstandard:9");
+        Assert.assertEquals(9, ((ZstandardCodec) codec).getLevel());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownCodec() {
+        AvroCompressionUtils.getCodec("lzma");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLevel() {
+        AvroCompressionUtils.getCodec("deflate:10");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLevelNotSupported() {
+        AvroCompressionUtils.getCodec("snappy:1");
+    }
+
+    @Test
+    public void testZstandardDictionary() throws Exception {
+        byte[] dictionary = "element_ element_1 element_2 element_3".getBytes(StandardCharsets.UTF_8);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("element_").append(i).append(' ');
+        }
+        byte[] data = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+        Codec codec = AvroCompressionUtils.newCodec(AvroCompressionUtils.zstandardCodec(19, dictionary));
+        ByteBuffer compressed = codec.compress(ByteBuffer.wrap(data));
+        Assert.assertTrue(compressed.remaining() < data.length);
+        ByteBuffer decompressed = new ZstandardCodec(ZstandardCodec.DEFAULT_LEVEL, dictionary).decompress(compressed);
+        Assert.assertEquals(ByteBuffer.wrap(data), decompressed);
+    }
+
+    @Test
+    public void testReadWithDictionary() throws Exception {
+        byte[] dictionary = "element_ element_1 element_2 element_3".getBytes(StandardCharsets.UTF_8);
+        CodecFactory codec = AvroCompressionUtils.zstandardCodec(5, dictionary);
+        File file = temporaryFolder.newFile("elements.dict.avro.zst");
+        AvroDataWriter<GenericRecord> writer = new AvroDataWriter<>(file.toPath(), codec, SCHEMA);
+        writer.open();
+        writer.write(newRecords(1000));
+        writer.close();
+
+        try {
+            ParallelAvroDataReader<GenericRecord> reader = new ParallelAvroDataReader<GenericRecord>(file, SCHEMA, 2)
+                    .setKeepOrder(true)
+                    .setCodec(codec);
+            reader.open();
+            reader.pre();
+            int i = 0;
+            List<GenericRecord> batch;
+            while (!(batch = reader.read(100)).isEmpty()) {
+                for (GenericRecord record : batch) {
+                    Assert.assertEquals("element_" + i, record.get("name").toString());
+                    i++;
+                }
+            }
+            reader.post();
+            reader.close();
+            Assert.assertEquals(1000, i);
+
+            // Do not replace the codec with dictionary
+            AvroCompressionUtils.registerCodecs();
+            Assert.assertSame(codec, CodecFactory.fromString(ZstandardCodec.NAME));
+        } finally {
+            AvroCompressionUtils.registerCodec(AvroCompressionUtils.zstandardCodec(ZstandardCodec.DEFAULT_LEVEL, null));
+        }
+    }
+
+    @Test
+    public void testCloseCodec() throws Exception {
+        ZstandardCodec codec = new ZstandardCodec(ZstandardCodec.DEFAULT_LEVEL, null, true);
+        ByteBuffer data = ByteBuffer.wrap("element_1 element_2".getBytes(StandardCharsets.UTF_8));
+        ByteBuffer compressed = codec.compress(data);
+        codec.close();
+        // Still usable after close
+        Assert.assertEquals(compressed, codec.compress(data));
+        codec.close();
+        Assert.assertEquals(data, codec.decompress(compressed));
+        // Same output without reusing the context
+        Assert.assertEquals(compressed, new ZstandardCodec(ZstandardCodec.DEFAULT_LEVEL, null).compress(data));
+    }
+
+    private List<GenericRecord> newRecords(int numRecords) {
+        List<GenericRecord> records = new ArrayList<>(numRecords);
+        for (int i = 0; i < numRecords; i++) {
+            GenericData.Record record = new GenericData.Record(SCHEMA);
+            record.put("id", i);
+            record.put("name", "element_" + i);
+            records.add(record);
+        }
+        return records;
+    }
+
+    @Test
+    public void testAvroDataWriterZstandard() throws Exception {
+        File file = temporaryFolder.newFile("elements.avro.zst");
+        List<GenericRecord> records = newRecords(1000);
+        AvroDataWriter<GenericRecord> writer = new AvroDataWriter<>(file.toPath(), "zstandard:5", SCHEMA);
+        writer.open();
+        writer.write(records);
+        writer.close();
+
+        try (DataFileReader<GenericRecord> reader = new DataFileReader<>(file, new GenericDatumReader<>())) {
+            Assert.assertEquals(ZstandardCodec.NAME, reader.getMetaString(DataFileConstants.CODEC));
+            int i = 0;
+            while (reader.hasNext()) {
+                Assert.assertEquals("element_" + i, reader.next().get("name").toString());
+                i++;
+            }
+            Assert.assertEquals(records.size(), i);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.opencb.commons.io.avro;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.file.DataFileConstants;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.commons.run.ParallelTaskRunner;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AvroFileWriterTest {
+
+    private static final int NUM_RECORDS = 10000;
+    private static final Schema SCHEMA = SchemaBuilder.record("Element").namespace("org.opencb.commons.test")
+            .fields()
+            .requiredInt("id")
+            .requiredString("name")
+            .endRecord();
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testBlockModeDeflate() throws Exception {
+        testBlockMode("deflate", DataFileConstants.DEFLATE_CODEC);
+    }
+
+    @Test
+    public void testBlockModeZstandard() throws Exception {
+        testBlockMode("zstandard:1", ZstandardCodec.NAME);
+    }
+
+    @Test
+    public void testBlockModeNull() throws Exception {
+        testBlockMode("null", DataFileConstants.NULL_CODEC);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBlockEncoderRequiresBlockMode() throws Exception {
+        new AvroFileWriter<GenericRecord>(SCHEMA, "deflate", temporaryFolder.newFile().toPath()).newBlockEncoder();
+    }
+
+    @Test
+    public void testBlockModeAfterOpen() throws Exception {
+        AvroFileWriter<GenericRecord> writer = new AvroFileWriter<>(SCHEMA, "deflate", temporaryFolder.newFile().toPath());
+        writer.open();
+        try {
+            writer.setBlockMode(true);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("Unable to change the block mode after open", e.getMessage());
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void testBlockMode(String codecName, String expectedCodec) throws Exception {
+        File file = temporaryFolder.newFile();
+        AtomicInteger count = new AtomicInteger();
+        ParallelTaskRunner.Config config = ParallelTaskRunner.Config.builder()
+                .setNumTasks(4)
+                .setBatchSize(100)
+                .setSorted(true)
+                .build();
+        AvroFileWriter<GenericRecord> writer = new AvroFileWriter<GenericRecord>(SCHEMA, codecName, file.toPath())
+                .setBlockMode(true);
+        new ParallelTaskRunner<GenericRecord, ByteBuffer>(batchSize -> {
+            List<GenericRecord> batch = new ArrayList<>(batchSize);
+            for (int i = 0; i < batchSize && count.get() < NUM_RECORDS; i++) {
+                GenericData.Record record = new GenericData.Record(SCHEMA);
+                record.put("id", count.get());
+                record.put("name", "element_" + count.getAndIncrement());
+                batch.add(record);
+            }
+            return batch;
+        }, writer::newBlockEncoder, writer, config).run();
+
+        try (DataFileReader<GenericRecord> reader = new DataFileReader<>(file, new GenericDatumReader<>())) {
+            Assert.assertEquals(SCHEMA, reader.getSchema());
+            Assert.assertEquals(expectedCodec, reader.getMetaString(DataFileConstants.CODEC));
+            int i = 0;
+            while (reader.hasNext()) {
+                GenericRecord record = reader.next();
+                Assert.assertEquals(i, record.get("id"));
+                Assert.assertEquals("element_" + i, record.get("name").toString());
+                i++;
+            }
+            Assert.assertEquals(NUM_RECORDS, i);
+        }
+    }
+}
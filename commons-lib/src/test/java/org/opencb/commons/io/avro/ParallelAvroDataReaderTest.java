@@ -0,0 +1,83 @@
+package org.opencb.commons.io.avro;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class ParallelAvroDataReaderTest {
+
+    private static final int NUM_RECORDS = 100000;
+    private static final Schema SCHEMA = SchemaBuilder.record("Element").namespace("org.opencb.commons.test")
+            .fields()
+            .requiredInt("id")
+            .requiredString("name")
+            .endRecord();
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = temporaryFolder.newFile("elements.avro");
+        try (DataFileWriter<GenericRecord> writer = new DataFileWriter<>(new GenericDatumWriter<GenericRecord>(SCHEMA))) {
+            // Small blocks, to have multiple blocks per split
+            writer.setSyncInterval(4096);
+            writer.setCodec(CodecFactory.deflateCodec(1));
+            writer.create(SCHEMA, file);
+            for (int i = 0; i < NUM_RECORDS; i++) {
+                GenericData.Record record = new GenericData.Record(SCHEMA);
+                record.put("id", i);
+                record.put("name", "element_" + i);
+                writer.append(record);
+            }
+        }
+    }
+
+    @Test
+    public void testRead() throws Exception {
+        List<Integer> ids = readIds(new ParallelAvroDataReader<>(file, SCHEMA, 4));
+        ids.sort(Integer::compare);
+        Assert.assertEquals(IntStream.range(0, NUM_RECORDS).boxed().collect(Collectors.toList()), ids);
+    }
+
+    @Test
+    public void testReadKeepOrder() throws Exception {
+        List<Integer> ids = readIds(new ParallelAvroDataReader<>(file, SCHEMA, 4).setKeepOrder(true).setCapacity(1));
+        Assert.assertEquals(IntStream.range(0, NUM_RECORDS).boxed().collect(Collectors.toList()), ids);
+    }
+
+    private List<Integer> readIds(ParallelAvroDataReader<GenericRecord> reader) {
+        List<Integer> ids = new ArrayList<>(NUM_RECORDS);
+        reader.open();
+        reader.pre();
+        Assert.assertTrue(reader.getNumSplits() > 1);
+        List<GenericRecord> batch = reader.read(100);
+        while (!batch.isEmpty()) {
+            for (GenericRecord record : batch) {
+                Assert.assertEquals("element_" + record.get("id"), record.get("name").toString());
+                ids.add((Integer) record.get("id"));
+            }
+            batch = reader.read(100);
+        }
+        reader.post();
+        reader.close();
+        return ids;
+    }
+}
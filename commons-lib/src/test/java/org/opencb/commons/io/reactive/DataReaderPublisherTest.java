@@ -0,0 +1,166 @@
+package org.opencb.commons.io.reactive;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opencb.commons.io.DataReader;
+import org.opencb.commons.run.Task;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class DataReaderPublisherTest {
+
+    @Test(timeout = 10000)
+    public void testPipeline() throws Exception {
+        int limit = 1000;
+        List<String> written = Collections.synchronizedList(new ArrayList<>());
+        AtomicBoolean writerClosed = new AtomicBoolean(false);
+        TaskProcessor<Integer, String> processor = new TaskProcessor<>(new Task<Integer, String>() {
+            @Override
+            public List<String> apply(List<Integer> batch) {
+                // Discard odd numbers
+                return batch.stream().filter(i -> i % 2 == 0).map(String::valueOf).collect(Collectors.toList());
+            }
+
+            @Override
+            public List<String> drain() {
+                return Collections.singletonList("END");
+            }
+        });
+        DataWriterSubscriber<String> subscriber = new DataWriterSubscriber<>(new org.opencb.commons.io.DataWriter<String>() {
+            @Override
+            public boolean write(List<String> batch) {
+                return written.addAll(batch);
+            }
+
+            @Override
+            public boolean close() {
+                writerClosed.set(true);
+                return true;
+            }
+        });
+
+        // Batches of 1 element. Half of them will be empty after the processor
+        new DataReaderPublisher<>(newReader(limit, new AtomicInteger()), 1).subscribe(processor);
+        processor.subscribe(subscriber);
+        subscriber.getCompletion().get();
+
+        List<String> expected = IntStream.range(0, limit).filter(i -> i % 2 == 0).mapToObj(String::valueOf)
+                .collect(Collectors.toList());
+        expected.add("END");
+        Assert.assertEquals(expected, written);
+        Assert.assertTrue(writerClosed.get());
+    }
+
+    @Test(timeout = 10000)
+    public void testProcessorSecondSubscriber() throws Exception {
+        int limit = 100;
+        List<Integer> written = Collections.synchronizedList(new ArrayList<>());
+        TaskProcessor<Integer, Integer> processor = new TaskProcessor<>(batch -> batch);
+        DataWriterSubscriber<Integer> subscriber = new DataWriterSubscriber<>(written::addAll);
+        processor.subscribe(subscriber);
+
+        // The rejected subscriber must not affect the first one
+        List<Throwable> errors = new ArrayList<>();
+        processor.subscribe(new Subscriber<List<Integer>>() {
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                subscription.request(0);
+                subscription.cancel();
+            }
+
+            @Override
+            public void onNext(List<Integer> batch) {
+                Assert.fail();
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                errors.add(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                Assert.fail();
+            }
+        });
+        Assert.assertEquals(1, errors.size());
+
+        new DataReaderPublisher<>(newReader(limit, new AtomicInteger()), 10).subscribe(processor);
+        subscriber.getCompletion().get();
+        Assert.assertEquals(IntStream.range(0, limit).boxed().collect(Collectors.toList()), written);
+    }
+
+    @Test(timeout = 10000)
+    public void testBackpressure() throws Exception {
+        AtomicInteger read = new AtomicInteger();
+        List<List<Integer>> received = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(2);
+        Subscription[] subscription = new Subscription[1];
+        new DataReaderPublisher<>(newReader(1000, read), 10).subscribe(new Subscriber<List<Integer>>() {
+            @Override
+            public void onSubscribe(Subscription s) {
+                subscription[0] = s;
+                s.request(2);
+            }
+
+            @Override
+            public void onNext(List<Integer> batch) {
+                received.add(batch);
+                latch.countDown();
+            }
+
+            @Override
+            public void onError(Throwable t) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+        latch.await();
+        Thread.sleep(100);
+        // Only the requested batches are read
+        Assert.assertEquals(2, received.size());
+        Assert.assertEquals(20, read.get());
+        subscription[0].cancel();
+    }
+
+    @Test(timeout = 10000)
+    public void testWriterFailure() throws Exception {
+        AtomicInteger read = new AtomicInteger();
+        DataWriterSubscriber<Integer> subscriber = new DataWriterSubscriber<>(batch -> {
+            throw new IllegalStateException("Fail writing");
+        });
+        new DataReaderPublisher<>(newReader(100000, read), 10).subscribe(subscriber);
+        try {
+            subscriber.getCompletion().get();
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertEquals("Fail writing", e.getCause().getMessage());
+        }
+        Thread.sleep(100);
+        // Reading stops after the failure
+        Assert.assertTrue(read.get() < 100000);
+    }
+
+    private static DataReader<Integer> newReader(int limit, AtomicInteger count) {
+        return batchSize -> {
+            List<Integer> batch = new ArrayList<>(batchSize);
+            for (int i = 0; i < batchSize && count.get() < limit; i++) {
+                batch.add(count.getAndIncrement());
+            }
+            return batch;
+        };
+    }
+}
@@ -0,0 +1,26 @@
+package org.opencb.commons.run;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class AdaptiveBatchSizeTest {
+
+    @Test
+    public void testBlockedAtPutRead() {
+        long target = TimeUnit.MILLISECONDS.toNanos(100);
+        AdaptiveBatchSize free = new AdaptiveBatchSize(100, 1, 100000, target);
+        AdaptiveBatchSize blocked = new AdaptiveBatchSize(100, 1, 100000, target);
+        for (int i = 0; i < 20; i++) {
+            // 1ms per element
+            free.addApply(100, TimeUnit.MILLISECONDS.toNanos(100));
+            free.addBlockedAtPutRead(100, 0);
+            blocked.addApply(100, TimeUnit.MILLISECONDS.toNanos(100));
+            // Blocked as long as processing
+            blocked.addBlockedAtPutRead(100, TimeUnit.MILLISECONDS.toNanos(100));
+        }
+        Assert.assertEquals(100, free.getBatchSize());
+        Assert.assertEquals(50, blocked.getBatchSize(), 5);
+    }
+}
@@ -0,0 +1,156 @@
+package org.opencb.commons.run;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class FairShareSchedulerTest {
+
+    @Test(timeout = 20000)
+    public void testWeights() throws Exception {
+        FairShareScheduler scheduler = new FairShareScheduler(1);
+        FairShareScheduler.Job interactive = scheduler.register("interactive", 3);
+        FairShareScheduler.Job bulk = scheduler.register("bulk", 1);
+        AtomicBoolean stop = new AtomicBoolean(false);
+        AtomicInteger maxConcurrent = new AtomicInteger();
+        AtomicInteger concurrent = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (FairShareScheduler.Job job : new FairShareScheduler.Job[]{interactive, interactive, bulk, bulk}) {
+            futures.add(executor.submit(() -> {
+                while (!stop.get()) {
+                    job.acquire();
+                    long start = System.nanoTime();
+                    maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+                    // Sleep instead of spinning, so the waiting threads get the CPU to queue up in the scheduler
+                    Thread.sleep(1);
+                    concurrent.decrementAndGet();
+                    job.release(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                }
+                return null;
+            }));
+        }
+        Thread.sleep(1000);
+        stop.set(true);
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        double ratio = ((double) interactive.getUsedTime(TimeUnit.NANOSECONDS)) / bulk.getUsedTime(TimeUnit.NANOSECONDS);
+        System.out.println("interactive = " + interactive.getGrants() + ", bulk = " + bulk.getGrants() + ", ratio = " + ratio);
+        Assert.assertEquals(1, maxConcurrent.get());
+        Assert.assertEquals(3, ratio, 1);
+        Assert.assertEquals(1, scheduler.getAvailableWorkers());
+    }
+
+    @Test(timeout = 20000)
+    public void testNewJobIsServed() throws Exception {
+        FairShareScheduler scheduler = new FairShareScheduler(1);
+        FairShareScheduler.Job old = scheduler.register("old", 1);
+        for (int i = 0; i < 100; i++) {
+            old.acquire();
+            old.release(1, TimeUnit.SECONDS);
+        }
+        old.acquire();
+        FairShareScheduler.Job job = scheduler.register("new", 1);
+        AtomicBoolean acquired = new AtomicBoolean(false);
+        Thread thread = new Thread(() -> {
+            try {
+                job.acquire();
+                acquired.set(true);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        thread.start();
+        Thread.sleep(100);
+        Assert.assertFalse(acquired.get());
+        old.release(1, TimeUnit.MILLISECONDS);
+        thread.join();
+        Assert.assertTrue(acquired.get());
+        job.release(1, TimeUnit.MILLISECONDS);
+        job.close();
+        old.close();
+        Assert.assertEquals(0, scheduler.getNumJobs());
+    }
+
+    @Test(timeout = 30000)
+    public void testParallelTaskRunners() throws Exception {
+        FairShareScheduler scheduler = new FairShareScheduler(2);
+        AtomicInteger concurrent = new AtomicInteger();
+        AtomicInteger maxConcurrent = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        List<Future<List<Integer>>> futures = new ArrayList<>();
+        for (int r = 0; r < 2; r++) {
+            futures.add(executor.submit(() -> {
+                AtomicInteger count = new AtomicInteger();
+                List<Integer> values = new ArrayList<>();
+                new ParallelTaskRunner<Integer, Integer>(batchSize -> {
+                    List<Integer> batch = new ArrayList<>(batchSize);
+                    for (int i = 0; i < batchSize && count.get() < 1000; i++) {
+                        batch.add(count.getAndIncrement());
+                    }
+                    return batch;
+                }, batch -> {
+                    maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+                    Thread.sleep(1);
+                    concurrent.decrementAndGet();
+                    return batch;
+                }, values::addAll, ParallelTaskRunner.Config.builder()
+                        .setNumTasks(4)
+                        .setBatchSize(10)
+                        .setSorted(true)
+                        .setScheduler(scheduler, 1)
+                        .build()).run();
+                return values;
+            }));
+        }
+        for (Future<List<Integer>> future : futures) {
+            Assert.assertEquals(IntStream.range(0, 1000).boxed().collect(Collectors.toList()), future.get());
+        }
+        executor.shutdown();
+        Assert.assertTrue(maxConcurrent.get() <= 2);
+        Assert.assertEquals(0, scheduler.getNumJobs());
+    }
+
+    @Test(timeout = 30000)
+    public void testParallelTaskRunnerFailedPre() throws Exception {
+        FairShareScheduler scheduler = new FairShareScheduler(2);
+        ParallelTaskRunner<Integer, Integer> runner = new ParallelTaskRunner<>(batchSize -> Collections.emptyList(),
+                new Task<Integer, Integer>() {
+                    @Override
+                    public void pre() throws Exception {
+                        throw new Exception("Fail at pre");
+                    }
+
+                    @Override
+                    public List<Integer> apply(List<Integer> batch) {
+                        return batch;
+                    }
+                }, batch -> true, ParallelTaskRunner.Config.builder()
+                .setNumTasks(2)
+                .setScheduler(scheduler, 1)
+                .build());
+        try {
+            runner.run();
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertEquals("Fail at pre", e.getCause().getMessage());
+        }
+        // The job is closed on failures too
+        Assert.assertEquals(0, scheduler.getNumJobs());
+    }
+}
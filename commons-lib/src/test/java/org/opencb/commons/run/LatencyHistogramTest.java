@@ -0,0 +1,54 @@
+package org.opencb.commons.run;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+        }
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(1000, histogram.getMax(TimeUnit.MICROSECONDS));
+        Assert.assertEquals(500.5, histogram.getMean(TimeUnit.MICROSECONDS), 0.001);
+        assertApprox(500, histogram.getPercentile(50, TimeUnit.MICROSECONDS));
+        assertApprox(990, histogram.getPercentile(99, TimeUnit.MICROSECONDS));
+        Assert.assertEquals(1000, histogram.getPercentile(100, TimeUnit.MICROSECONDS));
+
+        histogram.reset();
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0, histogram.getPercentile(50, TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void testBuckets() {
+        for (long value : new long[]{0, 1, 7, 8, 9, 15, 16, 17, 1000, 123456789, Long.MAX_VALUE}) {
+            long upperBound = LatencyHistogram.upperBound(LatencyHistogram.index(value));
+            Assert.assertTrue(value + " <= " + upperBound, value <= upperBound);
+            Assert.assertTrue(value + " ~ " + upperBound, upperBound - value <= value / 8);
+        }
+    }
+
+    @Test
+    public void testAdd() {
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        for (int i = 1; i <= 500; i++) {
+            a.record(TimeUnit.MICROSECONDS.toNanos(i));
+            b.record(TimeUnit.MICROSECONDS.toNanos(i + 500));
+        }
+        a.add(b);
+        Assert.assertEquals(1000, a.getCount());
+        Assert.assertEquals(1000, a.getMax(TimeUnit.MICROSECONDS));
+        assertApprox(900, a.getPercentile(90, TimeUnit.MICROSECONDS));
+    }
+
+    private static void assertApprox(long expected, long actual) {
+        Assert.assertTrue(expected + " ~ " + actual, Math.abs(expected - actual) <= expected / 8);
+    }
+}
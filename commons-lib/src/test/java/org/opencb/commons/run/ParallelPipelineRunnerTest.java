@@ -0,0 +1,202 @@
+package org.opencb.commons.run;
+
+import com.sun.management.OperatingSystemMXBean;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.opencb.commons.io.DataReader;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class ParallelPipelineRunnerTest {
+
+    private static DataReader<Integer> numbers(int limit) {
+        AtomicInteger count = new AtomicInteger();
+        return batchSize -> {
+            List<Integer> batch = new ArrayList<>(batchSize);
+            for (int i = 0; i < batchSize && count.get() < limit; i++) {
+                batch.add(count.getAndIncrement());
+            }
+            return batch;
+        };
+    }
+
+    @Test
+    public void testMultiStage() throws Exception {
+        int limit = 10000;
+        List<String> values = Collections.synchronizedList(new ArrayList<>());
+        ParallelTaskRunner.Config config = ParallelTaskRunner.Config.builder().setBatchSize(10).setCapacity(5).build();
+
+        ParallelPipelineRunner<Integer, String> runner = ParallelPipelineRunner.builder(numbers(limit), config)
+                .then(Task.forEach((Integer i) -> i * 2), 2)
+                .then(() -> Task.forEach((Integer i) -> i + 1), 4)
+                .then(Task.forEach((Integer i) -> "v" + i), 1)
+                .build(batch -> values.addAll(batch));
+
+        runner.run();
+
+        List<String> expected = IntStream.range(0, limit).mapToObj(i -> "v" + (i * 2 + 1)).sorted().collect(Collectors.toList());
+        List<String> actual = new ArrayList<>(values);
+        Collections.sort(actual);
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testDrain() throws Exception {
+        int limit = 1000;
+        List<Integer> values = Collections.synchronizedList(new ArrayList<>());
+        ParallelTaskRunner.Config config = ParallelTaskRunner.Config.builder().setBatchSize(7).build();
+
+        ParallelPipelineRunner<Integer, Integer> runner = ParallelPipelineRunner.builder(numbers(limit), config)
+                .then(() -> new Task<Integer, Integer>() {
+                    private final List<Integer> buffer = new ArrayList<>();
+
+                    @Override
+                    public List<Integer> apply(List<Integer> batch) {
+                        // Retain all the elements until the drain
+                        buffer.addAll(batch);
+                        return Collections.emptyList();
+                    }
+
+                    @Override
+                    public List<Integer> drain() {
+                        return buffer;
+                    }
+                }, 3)
+                .then(Task.forEach((Integer i) -> i), 2)
+                .build(batch -> values.addAll(batch));
+
+        runner.run();
+
+        Assert.assertEquals(limit, values.size());
+    }
+
+    @Test
+    public void testWorkStealing() throws Exception {
+        int limit = 200;
+        AtomicInteger written = new AtomicInteger();
+        ParallelTaskRunner.Config config = ParallelTaskRunner.Config.builder().setBatchSize(1).setCapacity(50).build();
+
+        ParallelPipelineRunner<Integer, Integer> runner = ParallelPipelineRunner.builder(numbers(limit), config)
+                .then(Task.forEach((Integer i) -> i), 4)
+                .then(Task.forEach((Integer i) -> {
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return i;
+                }), 1)
+                .build(batch -> written.addAndGet(batch.size()) > 0);
+
+        runner.run();
+
+        Assert.assertEquals(limit, written.get());
+        Assert.assertEquals(limit, runner.getProcessedBatches(1));
+        Assert.assertTrue(runner.getStolenBatches(1) > 0);
+    }
+
+    @Test(expected = ExecutionException.class, timeout = 10000)
+    public void testFailure() throws Exception {
+        ParallelTaskRunner.Config config = ParallelTaskRunner.Config.builder().setBatchSize(10).build();
+
+        ParallelPipelineRunner.builder(numbers(100000), config)
+                .then(Task.forEach((Integer i) -> i), 2)
+                .then(Task.forEach((Integer i) -> {
+                    if (i == 5000) {
+                        throw new RuntimeException("Fail!");
+                    }
+                    return i;
+                }), 2)
+                .build(batch -> true)
+                .run();
+    }
+
+    @Test(timeout = 10000)
+    public void testWorkerFailureCountedOnce() throws Exception {
+        ParallelTaskRunner.Config config = ParallelTaskRunner.Config.builder().setBatchSize(10).build();
+
+        ParallelPipelineRunner<Integer, Integer> runner = ParallelPipelineRunner.builder(numbers(1000), config)
+                .then(Task.forEach((Integer i) -> {
+                    if (i == 500) {
+                        // Not an Exception, so it is not handled by the stage
+                        throw new AssertionError("Fail!");
+                    }
+                    return i;
+                }), 1)
+                .build(batch -> true);
+        try {
+            runner.run();
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertEquals("Fail!", e.getCause().getMessage());
+            Assert.assertEquals(0, e.getSuppressed().length);
+            Assert.assertEquals(1, runner.getExceptions().size());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSortedNotSupported() {
+        ParallelTaskRunner.Config config = ParallelTaskRunner.Config.builder().setSorted(true).build();
+
+        ParallelPipelineRunner.builder(numbers(10), config)
+                .then(Task.forEach((Integer i) -> i), 1)
+                .build(batch -> true);
+    }
+
+    @Test(timeout = 20000)
+    public void testIdleWorkersDoNotSpin() throws Exception {
+        Assume.assumeTrue(ManagementFactory.getOperatingSystemMXBean() instanceof OperatingSystemMXBean);
+        OperatingSystemMXBean os = (OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        int limit = 20;
+        AtomicInteger written = new AtomicInteger();
+        ParallelTaskRunner.Config config = ParallelTaskRunner.Config.builder().setBatchSize(1).build();
+
+        // Slow stage with one task instance. When a stealer takes the instance, the home worker of the stage has
+        // nothing to do until the instance is released.
+        AtomicInteger count = new AtomicInteger();
+        DataReader<Integer> reader = batchSize -> count.get() < limit
+                ? Collections.singletonList(count.getAndIncrement())
+                : Collections.emptyList();
+        ParallelPipelineRunner<Integer, Integer> runner = ParallelPipelineRunner.builder(reader, config)
+                .then(() -> Task.forEach((Integer i) -> {
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return i;
+                }), 1)
+                .then(Task.forEach((Integer i) -> i), 4)
+                .build(batch -> written.addAndGet(batch.size()) > 0);
+        // Warm up, and wait for the JIT compiler to settle down
+        runner.run();
+        count.set(0);
+        written.set(0);
+        for (int i = 0; i < 10; i++) {
+            long cpu = os.getProcessCpuTime();
+            Thread.sleep(200);
+            if (os.getProcessCpuTime() - cpu < TimeUnit.MILLISECONDS.toNanos(20)) {
+                break;
+            }
+        }
+
+        long start = System.nanoTime();
+        long cpuStart = os.getProcessCpuTime();
+        runner.run();
+        long wallTime = System.nanoTime() - start;
+        long cpuTime = os.getProcessCpuTime() - cpuStart;
+
+        Assert.assertEquals(limit, written.get());
+        // A busy-waiting worker would use as much CPU time as the wall time
+        Assert.assertTrue("CPU time " + cpuTime + " wall time " + wallTime, cpuTime < wallTime / 3);
+    }
+}
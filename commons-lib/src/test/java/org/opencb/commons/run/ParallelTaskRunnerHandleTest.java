@@ -0,0 +1,178 @@
+package org.opencb.commons.run;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opencb.commons.io.DataReader;
+import org.opencb.commons.io.DataWriter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class ParallelTaskRunnerHandleTest {
+
+    @Test(timeout = 10000)
+    public void testAwaitCompletion() throws Exception {
+        List<Integer> values = new ArrayList<>();
+        ParallelTaskRunnerHandle handle = new ParallelTaskRunner<>(newReader(1000), batch -> batch, values::addAll,
+                ParallelTaskRunner.Config.builder().setNumTasks(2).setBatchSize(10).build()).start();
+        handle.awaitCompletion();
+        Assert.assertTrue(handle.isDone());
+        Assert.assertFalse(handle.isCancelled());
+        Assert.assertEquals(1000, values.size());
+        ParallelTaskRunnerHandle.Progress progress = handle.getProgress();
+        Assert.assertEquals(100, progress.getReadBatches());
+        Assert.assertEquals(100, progress.getProcessedBatches());
+        Assert.assertEquals(100, progress.getWrittenBatches());
+        Assert.assertEquals(1000, progress.getWrittenElements());
+    }
+
+    @Test(timeout = 20000)
+    public void testCancel() throws Exception {
+        List<Integer> values = new ArrayList<>();
+        AtomicBoolean post = new AtomicBoolean();
+        CountDownLatch written = new CountDownLatch(10);
+        ParallelTaskRunnerHandle handle = new ParallelTaskRunner<>(newReader(Integer.MAX_VALUE), batch -> {
+            Thread.sleep(1);
+            return batch;
+        }, new DataWriter<Integer>() {
+            @Override
+            public boolean write(List<Integer> batch) {
+                values.addAll(batch);
+                written.countDown();
+                return true;
+            }
+
+            @Override
+            public boolean post() {
+                post.set(true);
+                return true;
+            }
+        }, ParallelTaskRunner.Config.builder().setNumTasks(4).setBatchSize(10).setSorted(true).build()).start();
+
+        written.await();
+        handle.cancel();
+        handle.awaitCompletion();
+        Assert.assertTrue(handle.isCancelled());
+        Assert.assertTrue(post.get());
+        // All the batches read were written, in order
+        ParallelTaskRunnerHandle.Progress progress = handle.getProgress();
+        Assert.assertEquals(progress.getReadElements(), progress.getWrittenElements());
+        Assert.assertEquals(IntStream.range(0, values.size()).boxed().collect(Collectors.toList()), values);
+    }
+
+    @Test(timeout = 20000)
+    public void testAbort() throws Exception {
+        AtomicBoolean post = new AtomicBoolean();
+        AtomicBoolean close = new AtomicBoolean();
+        CountDownLatch started = new CountDownLatch(4);
+        CountDownLatch interrupted = new CountDownLatch(4);
+        ParallelTaskRunnerHandle handle = new ParallelTaskRunner<>(newReader(Integer.MAX_VALUE), batch -> {
+            started.countDown();
+            try {
+                // Only finishes if interrupted
+                new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw e;
+            }
+            return batch;
+        }, new DataWriter<Integer>() {
+            @Override
+            public boolean write(List<Integer> batch) {
+                return true;
+            }
+
+            @Override
+            public boolean post() {
+                post.set(true);
+                return true;
+            }
+
+            @Override
+            public boolean close() {
+                close.set(true);
+                return true;
+            }
+        }, ParallelTaskRunner.Config.builder().setNumTasks(4).setBatchSize(10).build()).start();
+
+        started.await();
+        handle.abort();
+        try {
+            handle.awaitCompletion();
+            Assert.fail();
+        } catch (CancellationException e) {
+            // All the tasks were interrupted
+            Assert.assertEquals(0, interrupted.getCount());
+        }
+        Assert.assertFalse(post.get());
+        Assert.assertTrue(close.get());
+    }
+
+    @Test(timeout = 10000)
+    public void testAbortBeforeRun() throws Exception {
+        AtomicInteger applied = new AtomicInteger();
+        AtomicBoolean post = new AtomicBoolean();
+        AtomicBoolean close = new AtomicBoolean();
+        ParallelTaskRunner<Integer, Integer> runner = new ParallelTaskRunner<>(newReader(1000), batch -> {
+            applied.incrementAndGet();
+            return batch;
+        }, new DataWriter<Integer>() {
+            @Override
+            public boolean write(List<Integer> batch) {
+                return true;
+            }
+
+            @Override
+            public boolean post() {
+                post.set(true);
+                return true;
+            }
+
+            @Override
+            public boolean close() {
+                close.set(true);
+                return true;
+            }
+        }, ParallelTaskRunner.Config.builder().setNumTasks(2).setBatchSize(10).build());
+        runner.abort();
+        try {
+            runner.run();
+            Assert.fail();
+        } catch (CancellationException e) {
+            Assert.assertEquals(0, applied.get());
+        }
+        Assert.assertFalse(post.get());
+        Assert.assertTrue(close.get());
+    }
+
+    @Test(timeout = 10000)
+    public void testFailure() throws Exception {
+        ParallelTaskRunnerHandle handle = new ParallelTaskRunner<Integer, Integer>(newReader(1000), batch -> {
+            throw new IllegalArgumentException("Fail");
+        }, null, ParallelTaskRunner.Config.builder().setNumTasks(1).setBatchSize(10).build()).start();
+        try {
+            handle.awaitCompletion();
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertEquals("Fail", e.getCause().getMessage());
+        }
+    }
+
+    private DataReader<Integer> newReader(int limit) {
+        AtomicInteger count = new AtomicInteger();
+        return batchSize -> {
+            List<Integer> batch = new ArrayList<>(batchSize);
+            for (int i = 0; i < batchSize && count.get() < limit; i++) {
+                batch.add(count.getAndIncrement());
+            }
+            return batch;
+        };
+    }
+}
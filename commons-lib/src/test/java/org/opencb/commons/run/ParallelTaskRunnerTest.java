@@ -5,7 +5,10 @@ import org.apache.commons.lang3.RandomUtils;
 import org.apache.commons.lang3.time.StopWatch;
 import org.junit.*;
 import org.junit.rules.ExpectedException;
+import org.opencb.commons.io.DataReader;
 import org.opencb.commons.io.DataWriter;
+import org.opencb.commons.io.FanOutDataWriter;
+import org.opencb.commons.io.SeekableDataReader;
 import org.opencb.commons.io.StringDataReader;
 
 import java.io.DataOutputStream;
@@ -17,10 +20,19 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.DoubleSupplier;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -377,6 +389,534 @@ public class ParallelTaskRunnerTest {
 
     }
 
+    @Test(timeout = 10000)
+    public void testSortedAllTasksFailed() throws Exception {
+        ParallelTaskRunner.Config config = ParallelTaskRunner.Config.builder()
+                .setNumTasks(2)
+                .setBatchSize(10)
+                .setCapacity(2)
+                .setSorted(true)
+                .setAbortOnFail(false)
+                .build();
+
+        // Errors stop the task threads. The reader must not wait forever for a slot in the reorder buffer.
+        ParallelTaskRunner<Integer, Integer> runner = new ParallelTaskRunner<>(
+                batchSize -> IntStream.range(0, batchSize).boxed().collect(Collectors.toList()),
+                batch -> {
+                    throw new AssertionError("Fail!");
+                },
+                batch -> true, config);
+        try {
+            runner.run();
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("No runners"));
+        }
+    }
+
+    @Test
+    public void testVirtualThreads() throws Exception {
+        int limit = 20000;
+        AtomicInteger count = new AtomicInteger();
+        List<Integer> values = new ArrayList<>(limit);
+        ParallelTaskRunner.Config config = ParallelTaskRunner.Config.builder()
+                .setNumTasks(1000)
+                .setBatchSize(10)
+                .setCapacity(100)
+                .setUseVirtualThreads(true)
+                .build();
+
+        ParallelTaskRunner<Integer, Integer> runner = new ParallelTaskRunner<>(batchSize -> {
+            List<Integer> batch = new ArrayList<>(batchSize);
+            for (int i = 0; i < batchSize && count.get() < limit; i++) {
+                batch.add(count.getAndIncrement());
+            }
+            return batch;
+        }, batch -> {
+            // Simulate blocking I/O
+            Thread.sleep(10);
+            return batch;
+        }, values::addAll, config);
+
+        runner.run();
+
+        Collections.sort(values);
+        Assert.assertEquals(IntStream.range(0, limit).boxed().collect(Collectors.toList()), values);
+    }
+
+    @Test
+    public void testAdaptiveBatchSize() throws Exception {
+        int limit = 3000;
+        AtomicInteger count = new AtomicInteger();
+        List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        ParallelTaskRunner.Config config = ParallelTaskRunner.Config.builder()
+                .setNumTasks(4)
+                .setBatchSize(1)
+                .setAdaptiveBatchSize(1, 1000, 20, TimeUnit.MILLISECONDS)
+                .build();
+
+        ParallelTaskRunner<Integer, Integer> runner = new ParallelTaskRunner<>(batchSize -> {
+            batchSizes.add(batchSize);
+            List<Integer> batch = new ArrayList<>(batchSize);
+            for (int i = 0; i < batchSize && count.get() < limit; i++) {
+                batch.add(count.getAndIncrement());
+            }
+            return batch;
+        }, batch -> {
+            // 1ms per element
+            Thread.sleep(batch.size());
+            return batch;
+        }, batch -> true, config);
+
+        runner.run();
+
+        Assert.assertEquals(Integer.valueOf(1), batchSizes.get(0));
+        int lastBatchSize = runner.getBatchSize();
+        System.out.println("lastBatchSize = " + lastBatchSize);
+        Assert.assertTrue(lastBatchSize > 5);
+        Assert.assertTrue(lastBatchSize <= 40);
+    }
+
+    @Test
+    public void testMultipleReaders() throws Exception {
+        int numReaders = 4;
+        int limit = 10000;
+        List<DataReader<Integer>> readers = new ArrayList<>(numReaders);
+        for (int r = 0; r < numReaders; r++) {
+            // Each reader reads one shard of the input
+            AtomicInteger count = new AtomicInteger(r * limit);
+            int end = (r + 1) * limit;
+            readers.add(batchSize -> {
+                List<Integer> batch = new ArrayList<>(batchSize);
+                for (int i = 0; i < batchSize && count.get() < end; i++) {
+                    batch.add(count.getAndIncrement());
+                }
+                return batch;
+            });
+        }
+        List<List<Integer>> batches = new ArrayList<>();
+        ParallelTaskRunner.Config config = ParallelTaskRunner.Config.builder()
+                .setNumTasks(4)
+                .setBatchSize(10)
+                .setSorted(true)
+                .build();
+
+        Random random = new Random(1);
+        ParallelTaskRunner<Integer, List<Integer>> runner = ParallelTaskRunner.withReaders(readers,
+                batch -> {
+                    // Random delays, so the tasks finish out of order
+                    if (random.nextInt(10) == 0) {
+                        Thread.sleep(2);
+                    }
+                    return Collections.singletonList(batch);
+                }, batches::addAll, config);
+        runner.run();
+
+        Assert.assertEquals(limit * numReaders / 10, batches.size());
+        // Positions are assigned in read order, so the batches of each reader must be written in the order
+        // they were read, without gaps nor duplicates.
+        int[] expected = new int[numReaders];
+        for (int r = 0; r < numReaders; r++) {
+            expected[r] = r * limit;
+        }
+        for (List<Integer> batch : batches) {
+            int reader = batch.get(0) / limit;
+            for (Integer value : batch) {
+                Assert.assertEquals(expected[reader]++, value.intValue());
+            }
+        }
+        for (int r = 0; r < numReaders; r++) {
+            Assert.assertEquals((r + 1) * limit, expected[r]);
+        }
+    }
+
+    @Test
+    public void testCells() throws Exception {
+        int numReaders = 4;
+        int limit = 10000;
+        List<DataReader<Integer>> readers = new ArrayList<>(numReaders);
+        for (int r = 0; r < numReaders; r++) {
+            AtomicInteger count = new AtomicInteger(r * limit);
+            int end = (r + 1) * limit;
+            readers.add(batchSize -> {
+                List<Integer> batch = new ArrayList<>(batchSize);
+                for (int i = 0; i < batchSize && count.get() < end; i++) {
+                    batch.add(count.getAndIncrement());
+                }
+                return batch;
+            });
+        }
+        AtomicInteger numTasks = new AtomicInteger();
+        List<Integer> values = new ArrayList<>();
+        ParallelTaskRunner.Config config = ParallelTaskRunner.Config.builder()
+                .setNumTasks(6)
+                .setBatchSize(10)
+                .setCells(Arrays.asList("0", "0"))
+                .build();
+
+        ParallelTaskRunner.withReaders(readers, () -> {
+            int cell = numTasks.getAndIncrement() % 2;
+            return batch -> {
+                for (Integer i : batch) {
+                    // Reader r goes to the cell r % 2
+                    Assert.assertEquals(cell, (i / limit) % 2);
+                }
+                return batch;
+            };
+        }, batch -> values.addAll(batch), config).run();
+
+        Collections.sort(values);
+        Assert.assertEquals(IntStream.range(0, limit * numReaders).boxed().collect(Collectors.toList()), values);
+    }
+
+    @Test(timeout = 30000)
+    public void testFanOutWriters() throws Exception {
+        int limit = 1000;
+        AtomicInteger count = new AtomicInteger();
+        List<Integer> fastValues = new ArrayList<>();
+        List<Integer> slowValues = new ArrayList<>();
+        // The slow writer is blocked until the fast writer receives all the batches
+        CountDownLatch fastWriterDone = new CountDownLatch(1);
+        FanOutDataWriter<Integer> writer = new FanOutDataWriter<Integer>()
+                .add(batch -> {
+                    fastValues.addAll(batch);
+                    if (fastValues.size() == limit) {
+                        fastWriterDone.countDown();
+                    }
+                    return true;
+                })
+                .add(batch -> {
+                    try {
+                        fastWriterDone.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    return slowValues.addAll(batch);
+                }, 1, FanOutDataWriter.OverflowPolicy.DROP);
+        ParallelTaskRunner.Config config = ParallelTaskRunner.Config.builder()
+                .setNumTasks(2)
+                .setBatchSize(10)
+                .setSorted(true)
+                .build();
+
+        ParallelTaskRunner<Integer, Integer> runner = new ParallelTaskRunner<>(batchSize -> {
+            List<Integer> batch = new ArrayList<>(batchSize);
+            for (int i = 0; i < batchSize && count.get() < limit; i++) {
+                batch.add(count.getAndIncrement());
+            }
+            return batch;
+        }, batch -> batch, writer, config);
+        runner.run();
+
+        Assert.assertEquals(IntStream.range(0, limit).boxed().collect(Collectors.toList()), fastValues);
+        Assert.assertEquals(limit / 10, writer.getWrittenBatches(0));
+        Assert.assertEquals(0, writer.getDroppedBatches(0));
+        // At most: one blocked batch, one in the queue, and the last batch after releasing the latch
+        Assert.assertTrue(writer.getWrittenBatches(1) <= 3);
+        Assert.assertEquals(limit / 10, writer.getWrittenBatches(1) + writer.getDroppedBatches(1));
+        Assert.assertEquals(writer.getWrittenBatches(1) * 10, slowValues.size());
+    }
+
+    @Test(timeout = 30000)
+    public void testFanOutWritersRecycleBatches() throws Exception {
+        int limit = 10000;
+        AtomicInteger count = new AtomicInteger();
+        List<Integer> values = new ArrayList<>(limit);
+        // The writer thread keeps the batches in its queue after FanOutDataWriter.write returns
+        FanOutDataWriter<Integer> writer = new FanOutDataWriter<Integer>().add(batch -> {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return values.addAll(batch);
+        }, 20, FanOutDataWriter.OverflowPolicy.BLOCK);
+        ParallelTaskRunner.Config config = ParallelTaskRunner.Config.builder()
+                .setNumTasks(2)
+                .setBatchSize(10)
+                .setSorted(true)
+                .setRecycleBatches(true)
+                .build();
+
+        new ParallelTaskRunner<Integer, Integer>(batchSize -> {
+            List<Integer> batch = new ArrayList<>(batchSize);
+            for (int i = 0; i < batchSize && count.get() < limit; i++) {
+                batch.add(count.getAndIncrement());
+            }
+            return batch;
+        }, batch -> batch, writer, config).run();
+
+        Assert.assertEquals(IntStream.range(0, limit).boxed().collect(Collectors.toList()), values);
+    }
+
+    @Test
+    public void testRecycleBatches() throws Exception {
+        int limit = 100000;
+        AtomicInteger count = new AtomicInteger();
+        Set<List<Integer>> lists = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<Integer> values = new ArrayList<>(limit);
+        ParallelTaskRunner.Config config = ParallelTaskRunner.Config.builder()
+                .setNumTasks(4)
+                .setBatchSize(10)
+                .setSorted(true)
+                .setRecycleBatches(true)
+                .build();
+
+        ParallelTaskRunner<Integer, Integer> runner = new ParallelTaskRunner<>(new DataReader<Integer>() {
+            @Override
+            public List<Integer> read(int batchSize) {
+                throw new IllegalStateException("Expected readInto");
+            }
+
+            @Override
+            public int readInto(List<Integer> batch, int batchSize) {
+                synchronized (lists) {
+                    lists.add(batch);
+                }
+                batch.clear();
+                for (int i = 0; i < batchSize && count.get() < limit; i++) {
+                    batch.add(count.getAndIncrement());
+                }
+                return batch.size();
+            }
+        }, batch -> batch, values::addAll, config);
+        runner.run();
+
+        Assert.assertEquals(IntStream.range(0, limit).boxed().collect(Collectors.toList()), values);
+        // Far less lists than batches
+        System.out.println("Allocated lists: " + lists.size() + " for " + (limit / 10) + " batches");
+        Assert.assertTrue(lists.size() <= config.getCapacity() * 2 + config.getNumTasks() + 2);
+    }
+
+    @Test(timeout = 30000)
+    public void testCheckpoint() throws Exception {
+        int limit = 1000;
+        Path checkpointFile = Files.createTempFile("checkpoint", ".txt");
+        Files.delete(checkpointFile);
+        FileCheckpoint checkpoint = new FileCheckpoint(checkpointFile);
+        ParallelTaskRunner.Config config = ParallelTaskRunner.Config.builder()
+                .setNumTasks(4)
+                .setBatchSize(10)
+                .setSorted(true)
+                .setCheckpoint(checkpoint, 5)
+                .build();
+
+        // First execution fails writing after 42 batches
+        List<Integer> written = new ArrayList<>();
+        try {
+            new ParallelTaskRunner<Integer, Integer>(new IntegerSeekableReader(limit), batch -> batch, batch -> {
+                if (written.size() == 420) {
+                    throw new RuntimeException("Fail writing");
+                }
+                return written.addAll(batch);
+            }, config).run();
+            Assert.fail();
+        } catch (ExecutionException ignore) {
+        }
+        Assert.assertEquals(400, checkpoint.load());
+
+        // Resume. The batches after the checkpoint are written again
+        List<Integer> resumed = new ArrayList<>();
+        new ParallelTaskRunner<Integer, Integer>(new IntegerSeekableReader(limit), batch -> batch, resumed::addAll, config).run();
+        Assert.assertEquals(IntStream.range(400, limit).boxed().collect(Collectors.toList()), resumed);
+        // Cleared after a successful execution
+        Assert.assertFalse(Files.exists(checkpointFile));
+        Assert.assertEquals(0, checkpoint.load());
+
+        // Next execution starts from the beginning
+        List<Integer> rerun = new ArrayList<>();
+        new ParallelTaskRunner<Integer, Integer>(new IntegerSeekableReader(limit), batch -> batch, rerun::addAll, config).run();
+        Assert.assertEquals(IntStream.range(0, limit).boxed().collect(Collectors.toList()), rerun);
+    }
+
+    private static class IntegerSeekableReader implements SeekableDataReader<Integer> {
+        private final int limit;
+        private int count = 0;
+
+        IntegerSeekableReader(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public void seek(long position) {
+            count = (int) position;
+        }
+
+        @Override
+        public List<Integer> read(int batchSize) {
+            List<Integer> batch = new ArrayList<>(batchSize);
+            for (int i = 0; i < batchSize && count < limit; i++) {
+                batch.add(count++);
+            }
+            return batch;
+        }
+    }
+
+    @Test(expected = ExecutionException.class, timeout = 30000)
+    public void testFanOutWriterFailure() throws Exception {
+        AtomicInteger count = new AtomicInteger();
+        FanOutDataWriter<Integer> writer = new FanOutDataWriter<Integer>()
+                .add(batch -> true)
+                .add(batch -> {
+                    throw new RuntimeException("Fail writing");
+                });
+        new ParallelTaskRunner<Integer, Integer>(batchSize -> {
+            List<Integer> batch = new ArrayList<>(batchSize);
+            for (int i = 0; i < batchSize && count.get() < 100000; i++) {
+                batch.add(count.getAndIncrement());
+            }
+            return batch;
+        }, batch -> batch, writer, ParallelTaskRunner.Config.builder().setNumTasks(2).setBatchSize(10).build()).run();
+    }
+
+    @Test
+    public void testFaultTolerantTask() throws Exception {
+        int limit = 10000;
+        AtomicInteger count = new AtomicInteger();
+        AtomicInteger transientFailures = new AtomicInteger(3);
+        Set<Integer> bad = new HashSet<>(Arrays.asList(17, 4242, 4243, 9999));
+        List<Integer> deadLetters = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> output = new ArrayList<>();
+        FaultTolerantTask<Integer, Integer> task = new FaultTolerantTask<Integer, Integer>(batch -> {
+            if (batch.contains(500) && transientFailures.getAndDecrement() > 0) {
+                throw new IOException("Transient error");
+            }
+            for (Integer i : batch) {
+                if (bad.contains(i)) {
+                    throw new IllegalArgumentException("Malformed element " + i);
+                }
+            }
+            return batch;
+        }).setMaxRetries(3)
+                .setBackoff(1, 10, TimeUnit.MILLISECONDS)
+                .setDeadLetterWriter(deadLetters::addAll);
+
+        new ParallelTaskRunner<>(batchSize -> {
+            List<Integer> batch = new ArrayList<>(batchSize);
+            for (int i = 0; i < batchSize && count.get() < limit; i++) {
+                batch.add(count.getAndIncrement());
+            }
+            return batch;
+        }, task, output::addAll, ParallelTaskRunner.Config.builder()
+                .setNumTasks(4)
+                .setBatchSize(100)
+                .setSorted(true)
+                .build()).run();
+
+        List<Integer> expected = IntStream.range(0, limit).boxed().filter(i -> !bad.contains(i)).collect(Collectors.toList());
+        Assert.assertEquals(expected, output);
+        Collections.sort(deadLetters);
+        Assert.assertEquals(Arrays.asList(17, 4242, 4243, 9999), deadLetters);
+        Assert.assertEquals(4, task.getDeadLetters());
+        // 3 transient failures, and 3 retries for each of the 3 batches with bad elements
+        Assert.assertEquals(3 + 3 * 3, task.getRetries());
+        Assert.assertTrue(task.getBisections() > 0);
+    }
+
+    @Test(expected = ExecutionException.class)
+    public void testFaultTolerantTaskMaxDeadLetters() throws Exception {
+        AtomicInteger count = new AtomicInteger();
+        new ParallelTaskRunner<Integer, Integer>(batchSize -> {
+            List<Integer> batch = new ArrayList<>(batchSize);
+            for (int i = 0; i < batchSize && count.get() < 1000; i++) {
+                batch.add(count.getAndIncrement());
+            }
+            return batch;
+        }, new FaultTolerantTask<Integer, Integer>(batch -> {
+            throw new IllegalArgumentException("Always fail");
+        }).setMaxDeadLetters(10), null, ParallelTaskRunner.Config.builder()
+                .setNumTasks(2)
+                .setBatchSize(10)
+                .build()).run();
+    }
+
+    @Test
+    public void testPartitioned() throws Exception {
+        int limit = 100000;
+        int numKeys = 25;
+        AtomicInteger count = new AtomicInteger();
+        Map<String, Set<Thread>> threadsPerKey = new ConcurrentHashMap<>();
+        List<Map.Entry<String, Integer>> output = new ArrayList<>();
+        ParallelTaskRunner.partitioned(batchSize -> {
+            List<Integer> batch = new ArrayList<>(batchSize);
+            for (int i = 0; i < batchSize && count.get() < limit; i++) {
+                batch.add(count.getAndIncrement());
+            }
+            return batch;
+        }, i -> "key_" + (i % numKeys), () -> new Task<Integer, Map.Entry<String, Integer>>() {
+            // Not thread safe
+            private final Map<String, Integer> counters = new HashMap<>();
+
+            @Override
+            public List<Map.Entry<String, Integer>> apply(List<Integer> batch) {
+                for (Integer i : batch) {
+                    String key = "key_" + (i % numKeys);
+                    threadsPerKey.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(Thread.currentThread());
+                    counters.merge(key, 1, Integer::sum);
+                }
+                return Collections.emptyList();
+            }
+
+            @Override
+            public List<Map.Entry<String, Integer>> drain() {
+                return new ArrayList<>(counters.entrySet());
+            }
+        }, output::addAll, ParallelTaskRunner.Config.builder()
+                .setNumTasks(4)
+                .setBatchSize(100)
+                .build()).run();
+
+        Assert.assertEquals(numKeys, output.size());
+        for (Map.Entry<String, Integer> entry : output) {
+            Assert.assertEquals(entry.getKey(), limit / numKeys, entry.getValue().intValue());
+            Assert.assertEquals(entry.getKey(), 1, threadsPerKey.get(entry.getKey()).size());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPartitionedSorted() throws Exception {
+        ParallelTaskRunner.<Integer, Integer>partitioned(batchSize -> Collections.emptyList(), i -> i, () -> batch -> batch,
+                batch -> true, ParallelTaskRunner.Config.builder().setSorted(true).build());
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        int limit = 1000;
+        AtomicInteger count = new AtomicInteger();
+        ParallelTaskRunner.Config config = ParallelTaskRunner.Config.builder()
+                .setNumTasks(4)
+                .setBatchSize(10)
+                .build();
+        AtomicInteger readBatchesWhileRunning = new AtomicInteger(-1);
+        ParallelTaskRunner<Integer, Integer>[] runner = new ParallelTaskRunner[1];
+        runner[0] = new ParallelTaskRunner<>(batchSize -> {
+            List<Integer> batch = new ArrayList<>(batchSize);
+            for (int i = 0; i < batchSize && count.get() < limit; i++) {
+                batch.add(count.getAndIncrement());
+            }
+            return batch;
+        }, batch -> batch, batch -> {
+            readBatchesWhileRunning.compareAndSet(-1, (int) runner[0].getMetrics().getReadBatches());
+            return true;
+        }, config);
+        Map<String, DoubleSupplier> gauges = new HashMap<>();
+        runner[0].getMetrics().register(gauges::put, "ptr.");
+        runner[0].run();
+
+        ParallelTaskRunnerMetrics metrics = runner[0].getMetrics();
+        System.out.println(metrics);
+        Assert.assertTrue(readBatchesWhileRunning.get() > 0);
+        Assert.assertEquals(limit / 10, metrics.getReadBatches());
+        Assert.assertEquals(limit, metrics.getReadElements());
+        Assert.assertEquals(limit / 10, metrics.getTaskLatency().getCount());
+        Assert.assertEquals(limit / 10, IntStream.range(0, 4).mapToLong(i -> metrics.getTaskLatency(i).getCount()).sum());
+        Assert.assertEquals(limit, metrics.getWrittenElements());
+        Assert.assertTrue(metrics.getWrittenElementsPerSecond() > 0);
+        Assert.assertEquals(limit, gauges.get("ptr.write.elements").getAsDouble(), 0);
+        Assert.assertTrue(gauges.containsKey("ptr.task.3.latency.p99.ms"));
+        Assert.assertTrue(gauges.containsKey("ptr.write.blocked.take.ratio"));
+    }
+
     @Test(expected = ExecutionException.class, timeout = 10000)
     public void testBlockAtWriterFailure() throws ExecutionException {
         AtomicInteger i = new AtomicInteger();
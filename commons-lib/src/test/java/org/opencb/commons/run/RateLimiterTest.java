@@ -0,0 +1,83 @@
+package org.opencb.commons.run;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RateLimiterTest {
+
+    @Test(timeout = 10000)
+    public void testElementsPerSecond() throws Exception {
+        RateLimiter limiter = RateLimiter.elementsPerSecond(1000);
+        List<Integer> batch = Collections.nCopies(100, 1);
+        long start = System.nanoTime();
+        for (int i = 0; i < 6; i++) {
+            limiter.acquire(batch);
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        // The first batch is free. Then 500 elements at 1000 elements/s
+        Assert.assertEquals(500, millis, 150);
+    }
+
+    @Test(timeout = 10000)
+    public void testBytesPerSecond() throws Exception {
+        RateLimiter limiter = RateLimiter.<String>bytesPerSecond(1000, String::length);
+        List<String> batch = Collections.nCopies(10, "0123456789");
+        long start = System.nanoTime();
+        for (int i = 0; i < 4; i++) {
+            limiter.acquire(batch);
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assert.assertEquals(300, millis, 150);
+    }
+
+    @Test(timeout = 10000)
+    public void testSetRate() throws Exception {
+        RateLimiter limiter = RateLimiter.elementsPerSecond(1);
+        // Leave the bucket in debt for 1000 seconds
+        limiter.acquire(1000);
+        Thread thread = new Thread(() -> {
+            try {
+                limiter.acquire(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        thread.start();
+        Thread.sleep(200);
+        Assert.assertTrue(thread.isAlive());
+        limiter.setRate(RateLimiter.UNLIMITED);
+        thread.join(1000);
+        Assert.assertFalse(thread.isAlive());
+        Assert.assertEquals(RateLimiter.UNLIMITED, limiter.getRate(), 0);
+    }
+
+    @Test(timeout = 30000)
+    public void testParallelTaskRunner() throws Exception {
+        int limit = 2000;
+        AtomicInteger count = new AtomicInteger();
+        RateLimiter limiter = RateLimiter.elementsPerSecond(2000);
+        List<Integer> values = new ArrayList<>();
+        long start = System.nanoTime();
+        new ParallelTaskRunner<Integer, Integer>(batchSize -> {
+            List<Integer> batch = new ArrayList<>(batchSize);
+            for (int i = 0; i < batchSize && count.get() < limit; i++) {
+                batch.add(count.getAndIncrement());
+            }
+            return batch;
+        }, batch -> batch, values::addAll, ParallelTaskRunner.Config.builder()
+                .setNumTasks(2)
+                .setBatchSize(100)
+                .setWriteRateLimiter(limiter)
+                .build()).run();
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assert.assertEquals(limit, values.size());
+        Assert.assertTrue("Took " + millis + "ms", millis >= 900);
+        Assert.assertTrue("Throttled " + limiter.getThrottledTime(TimeUnit.MILLISECONDS), limiter.getThrottledTime(TimeUnit.MILLISECONDS) >= 500);
+    }
+}
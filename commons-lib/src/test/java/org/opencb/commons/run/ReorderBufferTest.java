@@ -0,0 +1,74 @@
+package org.opencb.commons.run;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class ReorderBufferTest {
+
+    @Test
+    public void testOutOfOrder() throws Exception {
+        ReorderBuffer<Integer> buffer = new ReorderBuffer<>(4);
+        buffer.put(2, 2);
+        buffer.put(1, 1);
+        Assert.assertNull(buffer.take(10, TimeUnit.MILLISECONDS));
+        buffer.put(0, 0);
+        Assert.assertEquals(Integer.valueOf(0), buffer.take(10, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(Integer.valueOf(1), buffer.take(10, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(Integer.valueOf(2), buffer.take(10, TimeUnit.MILLISECONDS));
+        Assert.assertNull(buffer.take(10, TimeUnit.MILLISECONDS));
+        buffer.close();
+        Assert.assertNull(buffer.take(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testAwaitSlot() throws Exception {
+        ReorderBuffer<Integer> buffer = new ReorderBuffer<>(2);
+        Assert.assertTrue(buffer.awaitSlot(0, 0, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(buffer.awaitSlot(1, 0, TimeUnit.MILLISECONDS));
+        Assert.assertFalse(buffer.awaitSlot(2, 10, TimeUnit.MILLISECONDS));
+        buffer.put(0, 0);
+        Assert.assertEquals(Integer.valueOf(0), buffer.take(10, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(buffer.awaitSlot(2, 0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testPutOutOfWindow() {
+        ReorderBuffer<Integer> buffer = new ReorderBuffer<>(2);
+        buffer.put(2, 2);
+    }
+
+    @Test(timeout = 20000)
+    public void testConcurrent() throws Exception {
+        int limit = 100000;
+        int numThreads = 8;
+        ReorderBuffer<Integer> buffer = new ReorderBuffer<>(16);
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        for (int t = 0; t < numThreads; t++) {
+            int thread = t;
+            executor.submit(() -> {
+                for (int i = thread; i < limit; i += numThreads) {
+                    if (!buffer.awaitSlot(i, 10, TimeUnit.SECONDS)) {
+                        throw new IllegalStateException("Timeout");
+                    }
+                    buffer.put(i, i);
+                }
+                return null;
+            });
+        }
+        List<Integer> values = new ArrayList<>(limit);
+        for (int i = 0; i < limit; i++) {
+            values.add(buffer.take(10, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertEquals(IntStream.range(0, limit).boxed().collect(Collectors.toList()), values);
+    }
+}
@@ -0,0 +1,129 @@
+package org.opencb.commons.run.columnar;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opencb.commons.io.DataReader;
+import org.opencb.commons.run.ParallelTaskRunner;
+import org.opencb.commons.run.Task;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ColumnarBatchTest {
+
+    @Test
+    public void testColumns() {
+        ColumnarBatch batch = new ColumnarBatch(2);
+        IntColumnVector ints = batch.addIntColumn("int");
+        DoubleColumnVector doubles = batch.addDoubleColumn("double");
+        BytesColumnVector bytes = batch.addBytesColumn("bytes");
+        StringColumnVector strings = batch.addStringColumn("string");
+
+        batch.setSize(5);
+        Assert.assertTrue(ints.getCapacity() >= 5);
+        for (int i = 0; i < 5; i++) {
+            ints.setInt(i, i * 10);
+            doubles.setDouble(i, i / 2.0);
+            bytes.setBytes(i, i == 3 ? null : ("value_" + i).getBytes(StandardCharsets.UTF_8));
+            strings.setString(i, i == 4 ? null : "key_" + (i % 2));
+        }
+
+        Assert.assertEquals(Arrays.asList("int", "double", "bytes", "string"),
+                Arrays.asList(batch.getColumns().stream().map(ColumnVector::getName).toArray()));
+        Assert.assertEquals(40, batch.getIntColumn("int").getInt(4));
+        Assert.assertEquals(1.5, batch.getDoubleColumn("double").getValues()[3], 0);
+        Assert.assertEquals("value_2", new String(bytes.getBytes(2), StandardCharsets.UTF_8));
+        Assert.assertNull(bytes.getBytes(3));
+        Assert.assertTrue(bytes.isNull(3));
+        Assert.assertEquals("value_4", new String(bytes.getData(), bytes.getOffset(4), bytes.getLength(4), StandardCharsets.UTF_8));
+        Assert.assertEquals(2, strings.getDictionary().size());
+        Assert.assertEquals(strings.getId(0), strings.getId(2));
+        Assert.assertEquals("key_1", strings.getString(3));
+        Assert.assertNull(strings.getString(4));
+        Assert.assertEquals(StringColumnVector.NULL_ID, strings.getId(4));
+
+        batch.reset();
+        Assert.assertEquals(0, batch.size());
+        Assert.assertFalse(bytes.hasNulls());
+        bytes.setBytes(0, new byte[]{1});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongType() {
+        ColumnarBatch batch = new ColumnarBatch(1);
+        batch.addIntColumn("a");
+        batch.getDoubleColumn("a");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBytesOutOfOrder() {
+        ColumnarBatch batch = new ColumnarBatch(2);
+        batch.addBytesColumn("a").setBytes(1, new byte[0]);
+    }
+
+    @Test
+    public void testParallelTaskRunner() throws Exception {
+        int limit = 10000;
+        AtomicInteger count = new AtomicInteger();
+        DataReader<String[]> rowReader = batchSize -> {
+            List<String[]> batch = new ArrayList<>(batchSize);
+            for (int i = 0; i < batchSize && count.get() < limit; i++) {
+                int n = count.getAndIncrement();
+                batch.add(new String[]{"chr" + (n % 3), String.valueOf(n)});
+            }
+            return batch;
+        };
+        DataReader<ColumnarBatch> reader = rowReader.then(new RowToColumnarTask<String[]>()
+                .addString("chr", row -> row[0])
+                .addLong("pos", row -> Long.parseLong(row[1])));
+
+        // Vectorised sum by chromosome, over the dictionary ids
+        Task<ColumnarBatch, Map<String, Long>> sumByChr = Task.forEach(batch -> {
+            StringColumnVector chr = batch.getStringColumn("chr");
+            int[] ids = chr.getIds();
+            long[] pos = batch.getLongColumn("pos").getValues();
+            long[] sums = new long[chr.getDictionary().size()];
+            for (int i = 0; i < batch.size(); i++) {
+                sums[ids[i]] += pos[i];
+            }
+            Map<String, Long> map = new HashMap<>();
+            for (int id = 0; id < sums.length; id++) {
+                map.put(chr.getDictionary().decode(id), sums[id]);
+            }
+            return map;
+        });
+
+        Map<String, Long> total = new HashMap<>();
+        new ParallelTaskRunner<>(reader, sumByChr, batch -> {
+            for (Map<String, Long> map : batch) {
+                map.forEach((chr, sum) -> total.merge(chr, sum, Long::sum));
+            }
+            return true;
+        }, ParallelTaskRunner.Config.builder().setNumTasks(4).setBatchSize(1).build()).run();
+
+        Map<String, Long> expected = new HashMap<>();
+        for (long n = 0; n < limit; n++) {
+            expected.merge("chr" + (n % 3), n, Long::sum);
+        }
+        Assert.assertEquals(expected, total);
+    }
+
+    @Test
+    public void testToRows() {
+        List<ColumnarBatch> batches = new RowToColumnarTask<Integer>()
+                .addInt("value", i -> i)
+                .addString("name", i -> "n" + i)
+                .apply(Arrays.asList(1, 2, 3));
+        Assert.assertEquals(1, batches.size());
+        List<String> rows = batches.get(0).toRows((batch, row) ->
+                batch.getStringColumn("name").getString(row) + "=" + batch.getIntColumn("value").getInt(row));
+        Assert.assertEquals(Arrays.asList("n1=1", "n2=2", "n3=3"), rows);
+        Assert.assertEquals(Collections.emptyList(), new RowToColumnarTask<Integer>().apply(Collections.emptyList()));
+    }
+}
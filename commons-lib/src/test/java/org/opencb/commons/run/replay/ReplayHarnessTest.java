@@ -0,0 +1,76 @@
+package org.opencb.commons.run.replay;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.commons.io.DataReader;
+import org.opencb.commons.run.ParallelTaskRunner;
+import org.opencb.commons.run.Task;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+public class ReplayHarnessTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testRecordAndReplay() throws Exception {
+        Path capture = temporaryFolder.newFile("capture.bin").toPath();
+        int recorded = BatchCapture.record(newReader(1000), capture, ElementCodec.strings(), 10, Integer.MAX_VALUE, 2);
+        Assert.assertEquals(50, recorded);
+
+        List<List<String>> batches = BatchCapture.load(capture, ElementCodec.strings());
+        Assert.assertEquals(50, batches.size());
+        Assert.assertEquals("line_0", batches.get(0).get(0));
+        // Second recorded batch is the third read batch
+        Assert.assertEquals("line_20", batches.get(1).get(0));
+        Assert.assertEquals(500, batches.stream().mapToInt(List::size).sum());
+
+        Task<String, Integer> task = Task.forEach(String::length);
+        ReplayHarness<String, Integer> harness = ReplayHarness.load(capture, ElementCodec.strings(), () -> task)
+                .setWarmupRuns(1)
+                .setRuns(2);
+        ReplayReport report = harness.run(ParallelTaskRunner.Config.builder().setNumTasks(2).build());
+        System.out.println(report);
+        Assert.assertEquals(2, report.getRuns());
+        Assert.assertEquals(100, report.getBatches());
+        Assert.assertEquals(1000, report.getElements());
+        Assert.assertEquals(100, report.getTaskLatency().getCount());
+        Assert.assertTrue(report.getElementsPerSecond() > 0);
+        Assert.assertTrue(report.getTaskLatencyPercentile(99, TimeUnit.NANOSECONDS) > 0);
+
+        report = harness.setUseRecordedBatches(false).setRuns(1)
+                .run(ParallelTaskRunner.Config.builder().setNumTasks(2).setBatchSize(100).build());
+        Assert.assertEquals(5, report.getBatches());
+        Assert.assertEquals(500, report.getElements());
+    }
+
+    @Test(expected = IOException.class)
+    public void testWrongFile() throws Exception {
+        Path file = temporaryFolder.newFile("wrong.bin").toPath();
+        try (GZIPOutputStream out = new GZIPOutputStream(Files.newOutputStream(file))) {
+            out.write("not a capture".getBytes());
+        }
+        BatchCapture.load(file, ElementCodec.strings());
+    }
+
+    private DataReader<String> newReader(int limit) {
+        AtomicInteger count = new AtomicInteger();
+        return batchSize -> {
+            List<String> batch = new ArrayList<>(batchSize);
+            for (int i = 0; i < batchSize && count.get() < limit; i++) {
+                batch.add("line_" + count.getAndIncrement());
+            }
+            return batch;
+        };
+    }
+}